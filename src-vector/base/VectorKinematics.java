@@ -0,0 +1,90 @@
+package base;
+
+import jdk.incubator.vector.ByteVector;
+import jdk.incubator.vector.DoubleVector;
+import jdk.incubator.vector.VectorMask;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorSpecies;
+
+/**
+ * Versao de Kinematics com jdk.incubator.vector, no maior vetor de doubles da
+ * maquina. As operacoes sao as mesmas da versao escalar, na mesma ordem e sem
+ * FMA, entao os resultados sao iguais bit a bit; as sobras de cada laco vao
+ * para a versao escalar. O movimento de uma lista de linhas tambem fica com a
+ * versao escalar: com gather e scatter ele ficou mais lento. So e carregada
+ * por Kinematics quando o modulo esta presente.
+ *
+ * Fica fora de src porque so compila com o modulo incubado. Depois de
+ * compilar src em bin:
+ *
+ *   javac --add-modules jdk.incubator.vector -nowarn -cp bin -d bin src-vector/base/VectorKinematics.java
+ *
+ * O -nowarn so cala o aviso obrigatorio de modulo incubado. Sem esta classe
+ * em bin o lago usa a versao escalar.
+ */
+final class VectorKinematics extends Kinematics {
+    private static final VectorSpecies<Double> SPECIES = DoubleVector.SPECIES_PREFERRED;
+    // Estados lidos de 8 em 8 e convertidos para as linhas de SPECIES
+    private static final VectorSpecies<Byte> STATES = ByteVector.SPECIES_64;
+    private static final int LANES = SPECIES.length();
+    // Linhas que precisam existir a partir de k para ler os estados
+    private static final int SPAN = Math.max(LANES, STATES.length());
+
+    /* default */ VectorKinematics() { /* Nothing */ }
+
+    @Override
+    /* default */ String name() { return "vector " + SPECIES.vectorBitSize() + " bits"; }
+
+    @Override
+    /* default */ void move(BoatTable table, int from, int to, double dt) {
+        DoubleVector step = DoubleVector.broadcast(SPECIES, dt);
+        int k = from;
+        for (; k + SPAN <= to; k += LANES) {
+            VectorMask<Double> moving = ByteVector.fromArray(STATES, table.state, k)
+                .convertShape(VectorOperators.B2D, SPECIES, 0)
+                .compare(VectorOperators.EQ, BoatTable.MOVING);
+            if (!moving.anyTrue()) continue;
+            DoubleVector v = DoubleVector.fromArray(SPECIES, table.speed, k);
+            DoubleVector vmax = DoubleVector.fromArray(SPECIES, table.maxSpeed, k);
+            DoubleVector a = DoubleVector.fromArray(SPECIES, table.acceleration, k);
+            DoubleVector x = DoubleVector.fromArray(SPECIES, table.x, k);
+            DoubleVector y = DoubleVector.fromArray(SPECIES, table.y, k);
+            DoubleVector dirX = DoubleVector.fromArray(SPECIES, table.dirX, k);
+            DoubleVector dirY = DoubleVector.fromArray(SPECIES, table.dirY, k);
+            DoubleVector tmax = vmax.sub(v).div(a);
+            VectorMask<Double> reached = v.eq(vmax).or(tmax.compare(VectorOperators.LE, step));
+            DoubleVector displacement = displacement(v, vmax, a, step, tmax, reached);
+            // As linhas paradas voltam com o valor que ja tinham
+            v.blend(v.add(a.mul(step)).blend(vmax, reached), moving).intoArray(table.speed, k);
+            x.blend(x.add(dirX.mul(displacement)), moving).intoArray(table.x, k);
+            y.blend(y.add(dirY.mul(displacement)), moving).intoArray(table.y, k);
+        }
+        super.move(table, k, to, dt);
+    }
+
+    @Override
+    /* default */ int intersections(BoatTable table, int row, int from, int to) {
+        DoubleVector px = DoubleVector.broadcast(SPECIES, table.x[row]);
+        DoubleVector py = DoubleVector.broadcast(SPECIES, table.y[row]);
+        DoubleVector pr = DoubleVector.broadcast(SPECIES, table.radius[row]);
+        int count = 0;
+        int k = from;
+        for (; k + LANES <= to; k += LANES) {
+            DoubleVector dx = DoubleVector.fromArray(SPECIES, table.x, k).sub(px);
+            DoubleVector dy = DoubleVector.fromArray(SPECIES, table.y, k).sub(py);
+            DoubleVector reach = pr.add(DoubleVector.fromArray(SPECIES, table.radius, k));
+            count += dx.mul(dx).add(dy.mul(dy)).lt(reach.mul(reach)).trueCount();
+        }
+        return count + super.intersections(table, row, k, to);
+    }
+
+    // Mesmas escolhas de BoatTable.advance, com reached quando o barco ja
+    // esta ou chega a velocidade maxima dentro de dt
+    private static DoubleVector displacement(DoubleVector v, DoubleVector vmax, DoubleVector a, DoubleVector dt,
+        DoubleVector tmax, VectorMask<Double> reached) {
+        // Tempo acelerando dentro de dt
+        DoubleVector t = dt.blend(tmax, reached).blend(0, v.eq(vmax));
+        return v.mul(t).add(a.mul(t.mul(t)).div(2)).add(vmax.mul(dt.sub(t)));
+    }
+
+}
@@ -0,0 +1,151 @@
+package base;
+
+/**
+ * Motor com passo adaptativo. O passo comum e o menor raio dividido pela
+ * maior velocidade que algum barco pode atingir no intervalo, medidos so nos
+ * barcos que ainda nao afundaram, e nao nos extremos de todos os barcos ja
+ * adicionados como no SubStepEngine.
+ *
+ * Quando a frota esta espalhada, um passo maior e dado de uma vez: a folga de
+ * cada barco ate o vizinho mais proximo limita o tempo em que nenhum par pode
+ * se tocar, e ate esse tempo nenhuma colisao seria detectada nos passos
+ * intermediarios. Todos os barcos andam o mesmo passo, para que as colisoes
+ * continuem resolvidas na ordem da tabela.
+ */
+public class AdaptiveEngine extends Engine {
+    // Alcance maximo da busca por vizinhos, em raios
+    private static final double REACH = 8;
+    // Maximo de passos comuns entre duas buscas que falharam
+    private static final int MAX_SKIP = 64;
+
+    private final SpatialHash probe;
+    // Limites dos barcos vivos no runTime atual
+    private double minRadius;
+    private double maxRadius;
+    private double maxSpeed;
+    private double horizon;
+    private int skip;
+    private int wait;
+    private long steps;
+
+    public AdaptiveEngine() {
+        probe = new SpatialHash();
+        skip = 1;
+    }
+
+    /* default */ void runTime(Lake lake, double timeDelta) {
+        bound(lake, timeDelta);
+        double left = timeDelta;
+        double step = maxSpeed > 0 ? minRadius / maxSpeed : timeDelta;
+        int version = lake.commandVersion();
+        while (true) {
+            long start = lake.stepStarted();
+            if (lake.commandVersion() != version) {
+                // Um comando mudou as velocidades: os limites e a folga sao
+                // calculados de novo para o que falta
+                version = lake.commandVersion();
+                bound(lake, left);
+                step = maxSpeed > 0 ? minRadius / maxSpeed : left;
+                skip = 1;
+                wait = 0;
+            }
+            double dt = step;
+            if (wait > 0) wait--;
+            else {
+                double safe = safeTime(lake, left, step);
+                if (safe > step) {
+                    dt = safe;
+                    skip = 1;
+                } else skip = Math.min(2 * skip, MAX_SKIP);
+                wait = skip - 1;
+            }
+            // O passo termina no instante do proximo comando marcado
+            double due = lake.nextCommandTime() - lake.clock();
+            if (due > 0 && due < dt) dt = due;
+            steps++;
+            if (dt >= left) {
+                lake.step(left);
+                lake.stepFinished(start, left);
+                break;
+            }
+            lake.step(dt);
+            lake.stepFinished(start, dt);
+            left -= dt;
+        }
+        lake.endRun();
+    }
+
+    /**
+     * Numero de passos dados desde a criacao do motor
+     */
+    public long getSteps() { return steps; }
+
+    // Maior velocidade que o barco pode atingir no intervalo
+    private double reachableSpeed(BoatTable table, int row) {
+        return Math.min(table.maxSpeed[row], table.speed[row] + table.acceleration[row] * horizon);
+    }
+
+    private void bound(Lake lake, double timeDelta) {
+        BoatTable table = lake.table();
+        horizon = timeDelta;
+        minRadius = Double.POSITIVE_INFINITY;
+        maxRadius = 0;
+        maxSpeed = 0;
+        for (int i = 0; i < lake.activeCount(); i++) {
+            int row = lake.activeRow(i);
+            if (table.state[row] != BoatTable.MOVING) continue;
+            minRadius = Math.min(minRadius, table.radius[row]);
+            maxRadius = Math.max(maxRadius, table.radius[row]);
+            maxSpeed = Math.max(maxSpeed, reachableSpeed(table, row));
+        }
+        for (int i = 0; i < lake.stillCount(); i++) {
+            int row = lake.stillRow(i);
+            if (table.state[row] == BoatTable.SUNK) continue;
+            minRadius = Math.min(minRadius, table.radius[row]);
+            maxRadius = Math.max(maxRadius, table.radius[row]);
+        }
+    }
+
+    /**
+     * Tempo em que nenhum par de barcos pode se tocar, limitado a left, ou 0
+     * se nao passar de step
+     */
+    private double safeTime(Lake lake, double left, double step) {
+        BoatTable table = lake.table();
+        // Barcos fora das 9 celulas vizinhas estao a pelo menos cell de distancia
+        double cell = 2 * maxRadius + Math.min(2 * maxSpeed * left, REACH * maxRadius);
+        probe.reset(cell, lake.activeCount() + lake.stillCount());
+        for (int i = 0; i < lake.activeCount(); i++) insert(table, lake.activeRow(i));
+        for (int i = 0; i < lake.stillCount(); i++) insert(table, lake.stillRow(i));
+        double safe = left;
+        for (int i = 0; i < lake.activeCount(); i++) {
+            int row = lake.activeRow(i);
+            if (table.state[row] != BoatTable.MOVING) continue;
+            double x = table.x[row];
+            double y = table.y[row];
+            double clearance = cell - table.radius[row] - maxRadius;
+            int cx = probe.cell(x);
+            int cy = probe.cell(y);
+            for (int u = cx - 1; u <= cx + 1; u++) {
+                for (int v = cy - 1; v <= cy + 1; v++) {
+                    for (int k = probe.head(u, v); k >= 0; k = probe.next(k)) {
+                        if (k == row) continue;
+                        double dx = table.x[k] - x;
+                        double dy = table.y[k] - y;
+                        double gap = Math.sqrt(dx * dx + dy * dy) - table.radius[row] - table.radius[k];
+                        clearance = Math.min(clearance, gap);
+                    }
+                }
+            }
+            // Aproximacao relativa maxima: o barco e o mais rapido da frota
+            safe = Math.min(safe, clearance / (reachableSpeed(table, row) + maxSpeed));
+            if (safe <= step) return 0;
+        }
+        return safe;
+    }
+
+    private void insert(BoatTable table, int row) {
+        if (table.state[row] != BoatTable.SUNK) probe.insert(row, table.x[row], table.y[row]);
+    }
+
+}
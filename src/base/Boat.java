@@ -14,77 +14,82 @@ public class Boat {
         public ValidationException(String message) { super(message); } 
     }
 
-    private State state;
+    private static final State[] STATES = { State.Moving, State.Stuck, State.Sunk };
+
+    /* default */ static State state(byte code) { return STATES[code]; }
+
     private String name;
-    private Point position;
-    private Vector2D direction;
-    private double speed;
-    private final double radius;
-    private Point initialPosition;
-    private final double maxSpeed;
-    private final double acceleration;
+    // Linha da tabela onde ficam os dados do barco, propria ate entrar num lago
+    private BoatTable table;
+    private int row;
 
     public Boat(String name, double radius, double initialSpeed, double maxSpeed,
         double acceleration) {
         this.name = name;
-        this.radius = radius;
-        this.speed = initialSpeed;
-        this.maxSpeed = maxSpeed;
-        this.acceleration = acceleration;
-        this.state = State.Moving;
-        this.initialPosition = null;
-        this.direction = null;
+        this.table = new BoatTable(1);
+        this.row = table.add(this, radius, initialSpeed, maxSpeed, acceleration);
         validate();
     }
     
+    // Barco de uma tabela ja preenchida, como a de um snapshot
+    /* default */ Boat(String name, BoatTable table) {
+        this.name = name;
+        this.table = table;
+        this.row = table.attach(this);
+    }
+    
     private void validate() {
-        if (speed > maxSpeed)
+        if (getSpeed() > getMaxSpeed())
             throw new ValidationException("initialSpeed cannot be > maxSpeed");
-        if (speed < 0) 
+        if (getSpeed() < 0) 
             throw new ValidationException("speed must be >= 0");
-        if (acceleration < 0) 
+        if (table.acceleration[row] < 0) 
             throw new ValidationException("acceleration must be >= 0");
-        if (radius < 1) 
+        if (getRadius() < 1) 
             throw new ValidationException("radius must be >= 1");
     }
-    
-    /* default */ final void stuck() {
-        speed = 0;
-        this.state = State.Stuck;
-    }
 
-    /* default */ final void sunk() {
-        speed = 0;
-        this.state = State.Sunk;
+    // Passa a ser uma visao da linha copiada para a tabela do lago
+    /* default */ final int moveTo(BoatTable lakeTable) {
+        row = lakeTable.copy(table, row);
+        table = lakeTable;
+        return row;
     }
     
-    public boolean isMoving() { return state == State.Moving; }
-    public boolean isStuck() { return state == State.Stuck; }
-    public boolean isSunk() { return state == State.Sunk; }
+    /* default */ final int row() { return row; }
+    /* default */ final void stuck() { table.stuck(row); }
+    /* default */ final void sunk() { table.sunk(row); }
+    
+    public boolean isMoving() { return table.state[row] == BoatTable.MOVING; }
+    public boolean isStuck() { return table.state[row] == BoatTable.STUCK; }
+    public boolean isSunk() { return table.state[row] == BoatTable.SUNK; }
     
     public String getName() { return name; }
-    public State getState() { return state; }
-    public double getRadius() { return this.radius; }
-    public double getSpeed() { return speed; }
-    public double getMaxSpeed() { return maxSpeed; }
+    public State getState() { return STATES[table.state[row]]; }
+    public double getRadius() { return table.radius[row]; }
+    public double getSpeed() { return table.speed[row]; }
+    public double getMaxSpeed() { return table.maxSpeed[row]; }
 
     public Point getPosition() {
-        if (initialPosition == null) throw new InitialPositionNotSet();
-        return position;
+        if (Double.isNaN(table.x[row])) throw new InitialPositionNotSet();
+        return Point.xy(table.x[row], table.y[row]);
     }
 
     public void setPosition(Point position) {
-        this.position = position;
-        if (this.initialPosition == null) initialPosition = position;
+        table.x[row] = position.x();
+        table.y[row] = position.y();
     }
     
     public Vector2D getDirection() {
-        if (direction == null) throw new DirectionNotSet(); 
-        return direction;
+        if (Double.isNaN(table.dirX[row])) throw new DirectionNotSet(); 
+        return Vector2D.xy(table.dirX[row], table.dirY[row]);
     }
     
     public void setDirection(Vector2D direction) {
-        this.direction = direction.unitary();
+        Vector2D unitary = direction.unitary();
+        table.dirX[row] = unitary.xComponent();
+        table.dirY[row] = unitary.yComponent();
+        table.turned(row);
     }
     
     /**
@@ -92,31 +97,24 @@ public class Boat {
      * @param dt
      */
     public final void move(double dt) {
-        if (state != State.Moving) return;
-        double tmax = (maxSpeed - speed) / acceleration;
-        double displacement;
-        // Se a velocidade ja e maxima e MU
-        if (speed == maxSpeed) displacement = speed * dt;
-        // Nao ocorrera colisao dentro de dt
-        else if (tmax > dt) {
-            displacement = speed * dt + acceleration * (dt * dt) / 2;
-            speed += acceleration * dt;
-        // Ocorre colisao em dt, MUV depois MU
-        } else {
-            displacement = speed * tmax + acceleration * (tmax * tmax) / 2;
-            speed = maxSpeed;
-            displacement += speed * (dt - tmax);
-        }
-        position = getPosition().plus(getDirection().times(displacement));
+        if (!isMoving()) return;
+        if (Double.isNaN(table.x[row])) throw new InitialPositionNotSet();
+        if (Double.isNaN(table.dirX[row])) throw new DirectionNotSet();
+        table.move(row, dt);
     }
 
     public boolean hasIntersection(Boat boat) {
-        double distance = boat.getPosition().minus(position).magnitude();
-        return distance < radius + boat.getRadius();
+        double dx = boat.table.x[boat.row] - table.x[row];
+        double dy = boat.table.y[boat.row] - table.y[row];
+        // Compara os quadrados para nao calcular a raiz
+        double reach = getRadius() + boat.getRadius();
+        return dx * dx + dy * dy < reach * reach;
     }
     
     public boolean isInside(Point p, double tolerance) {
-        return p.minus(position).magnitude() < radius + tolerance;
+        double dx = p.x() - table.x[row];
+        double dy = p.y() - table.y[row];
+        return Math.sqrt(dx * dx + dy * dy) < getRadius() + tolerance;
     }
     
     public boolean isInside(Point p) {
@@ -124,8 +122,8 @@ public class Boat {
     }
 
     // Largura e altura maxima
-    public double containerWidth() { return 2 * radius; }
-    public double containerHeight() { return 2 * radius; }
+    public double containerWidth() { return 2 * getRadius(); }
+    public double containerHeight() { return 2 * getRadius(); }
 
     // Retorna os limites do barco
     public double minX() { return getPosition().x() - getRadius(); }
@@ -134,7 +132,7 @@ public class Boat {
     public double maxY() { return getPosition().y() + getRadius(); }
 
     public String toString() { 
-        return name + ": " + position.toString() + state.toString();
+        return name + ": " + Point.xy(table.x[row], table.y[row]) + getState();
     }
 
 }
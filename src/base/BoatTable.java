@@ -0,0 +1,307 @@
+package base;
+
+import java.util.Arrays;
+
+/**
+ * Guarda os barcos em colunas de tipos primitivos, uma linha por barco. Os
+ * objetos Boat sao apenas visoes de uma linha, e a simulacao opera direto nos
+ * arrays sem alocar objetos a cada passo.
+ */
+final class BoatTable {
+    /* default */ static final byte MOVING = 0;
+    /* default */ static final byte STUCK = 1;
+    /* default */ static final byte SUNK = 2;
+    // Evento de mudanca de direcao; os de estado usam o novo estado
+    /* default */ static final byte TURNED = 3;
+
+    /* default */ double[] x;
+    /* default */ double[] y;
+    /* default */ double[] dirX;
+    /* default */ double[] dirY;
+    /* default */ double[] speed;
+    /* default */ double[] maxSpeed;
+    /* default */ double[] acceleration;
+    /* default */ double[] radius;
+    /* default */ byte[] state;
+    private Boat[] boats;
+    private int size;
+    // Numero de linhas em cada estado
+    private final int[] counts;
+    // Linhas na ordem em que afundaram
+    private int[] sunkOrder;
+    private int sunkTotal;
+    // Mudancas ainda nao publicadas pelo lago, so registradas se logging
+    private boolean logging;
+    private int[] eventRows;
+    private byte[] eventKinds;
+    private int eventCount;
+
+    /* default */ BoatTable(int capacity) {
+        x = new double[capacity];
+        y = new double[capacity];
+        dirX = new double[capacity];
+        dirY = new double[capacity];
+        speed = new double[capacity];
+        maxSpeed = new double[capacity];
+        acceleration = new double[capacity];
+        radius = new double[capacity];
+        state = new byte[capacity];
+        boats = new Boat[capacity];
+        size = 0;
+        counts = new int[3];
+        sunkOrder = new int[0];
+        eventRows = new int[0];
+        eventKinds = new byte[0];
+    }
+
+    /* default */ int size() { return size; }
+    /* default */ int capacity() { return boats.length; }
+    /* default */ Boat boat(int row) { return boats[row]; }
+    /* default */ int count(byte state) { return counts[state]; }
+    /* default */ int sunkTotal() { return sunkTotal; }
+    /* default */ int sunkRow(int i) { return sunkOrder[i]; }
+
+    /**
+     * Cria uma linha para um barco sem posicao nem direcao
+     * @return indice da linha
+     */
+    /* default */ int add(Boat boat, double radius, double speed, double maxSpeed,
+        double acceleration) {
+        int row = newRow(boat);
+        this.x[row] = Double.NaN;
+        this.y[row] = Double.NaN;
+        this.dirX[row] = Double.NaN;
+        this.dirY[row] = Double.NaN;
+        this.speed[row] = speed;
+        this.maxSpeed[row] = maxSpeed;
+        this.acceleration[row] = acceleration;
+        this.radius[row] = radius;
+        this.state[row] = MOVING;
+        counts[MOVING]++;
+        return row;
+    }
+
+    /**
+     * Copia a linha de outra tabela para o fim desta
+     * @return indice da nova linha
+     */
+    /* default */ int copy(BoatTable from, int fromRow) {
+        int row = newRow(from.boats[fromRow]);
+        x[row] = from.x[fromRow];
+        y[row] = from.y[fromRow];
+        dirX[row] = from.dirX[fromRow];
+        dirY[row] = from.dirY[fromRow];
+        speed[row] = from.speed[fromRow];
+        maxSpeed[row] = from.maxSpeed[fromRow];
+        acceleration[row] = from.acceleration[fromRow];
+        radius[row] = from.radius[fromRow];
+        state[row] = from.state[fromRow];
+        counts[state[row]]++;
+        return row;
+    }
+
+    /**
+     * Cria uma linha para o barco sem preencher as colunas, que sao escritas
+     * direto nos arrays
+     * @return indice da linha
+     */
+    /* default */ int attach(Boat boat) {
+        return newRow(boat);
+    }
+
+    /* default */ void reserve(int capacity) {
+        if (capacity > boats.length) grow(capacity);
+    }
+
+    private int newRow(Boat boat) {
+        if (size == boats.length) grow(Math.max(4, 2 * size));
+        boats[size] = boat;
+        return size++;
+    }
+
+    private void grow(int capacity) {
+        x = Arrays.copyOf(x, capacity);
+        y = Arrays.copyOf(y, capacity);
+        dirX = Arrays.copyOf(dirX, capacity);
+        dirY = Arrays.copyOf(dirY, capacity);
+        speed = Arrays.copyOf(speed, capacity);
+        maxSpeed = Arrays.copyOf(maxSpeed, capacity);
+        acceleration = Arrays.copyOf(acceleration, capacity);
+        radius = Arrays.copyOf(radius, capacity);
+        state = Arrays.copyOf(state, capacity);
+        boats = Arrays.copyOf(boats, capacity);
+    }
+
+    /* default */ void stuck(int row) {
+        speed[row] = 0;
+        change(row, STUCK);
+    }
+
+    /* default */ void sunk(int row) {
+        speed[row] = 0;
+        change(row, SUNK);
+    }
+
+    private void change(int row, byte to) {
+        byte from = state[row];
+        if (from == to) return;
+        state[row] = to;
+        counts[from]--;
+        counts[to]++;
+        if (to == SUNK) {
+            if (sunkTotal == sunkOrder.length) sunkOrder = Arrays.copyOf(sunkOrder, Math.max(16, 2 * sunkTotal));
+            sunkOrder[sunkTotal++] = row;
+        }
+        log(row, to);
+    }
+
+    /* default */ void turned(int row) {
+        log(row, TURNED);
+    }
+
+    /**
+     * Conta de novo os estados depois de a coluna ser escrita direto
+     * @param sunk linhas afundadas, na ordem em que afundaram
+     */
+    /* default */ void recount(int[] sunk) {
+        Arrays.fill(counts, 0);
+        for (int k = 0; k < size; k++) counts[state[k]]++;
+        sunkOrder = sunk.clone();
+        sunkTotal = sunk.length;
+    }
+
+    /* default */ void logEvents(boolean logging) {
+        this.logging = logging;
+        if (!logging) eventCount = 0;
+    }
+
+    private void log(int row, byte kind) {
+        if (!logging) return;
+        if (eventCount == eventRows.length) {
+            eventRows = Arrays.copyOf(eventRows, Math.max(16, 2 * eventCount));
+            eventKinds = Arrays.copyOf(eventKinds, eventRows.length);
+        }
+        eventRows[eventCount] = row;
+        eventKinds[eventCount++] = kind;
+    }
+
+    /* default */ int events() { return eventCount; }
+    /* default */ int eventRow(int i) { return eventRows[i]; }
+    /* default */ byte eventKind(int i) { return eventKinds[i]; }
+    /* default */ void clearEvents() { eventCount = 0; }
+
+    /**
+     * Move o barco da linha row de um intervalo de tempo dt
+     * @param row
+     * @param dt
+     */
+    /* default */ void move(int row, double dt) {
+        if (state[row] == MOVING) advance(row, dt);
+    }
+
+    /**
+     * Move as linhas rows[0..count), todas em movimento, de dt
+     * @param rows
+     * @param count
+     * @param dt
+     */
+    /* default */ void move(int[] rows, int count, double dt) {
+        Kinematics.INSTANCE.move(this, rows, count, dt);
+    }
+
+    /**
+     * Move as linhas em movimento de from ate to, exclusive, de dt
+     * @param from
+     * @param to
+     * @param dt
+     */
+    /* default */ void move(int from, int to, double dt) {
+        Kinematics.INSTANCE.move(this, from, to, dt);
+    }
+
+    // MUV ate a velocidade maxima e MU depois, com escolhas no lugar de desvios;
+    // os resultados sao os mesmos, bit a bit, de tratar cada caso separado e
+    // os da VectorKinematics
+    /* default */ void advance(int row, double dt) {
+        double v = speed[row];
+        double vmax = maxSpeed[row];
+        double a = acceleration[row];
+        double tmax = (vmax - v) / a;
+        boolean max = v == vmax;
+        boolean reached = max || tmax <= dt;
+        // Tempo acelerando dentro de dt
+        double t = max ? 0 : reached ? tmax : dt;
+        double displacement = v * t + a * (t * t) / 2 + vmax * (dt - t);
+        speed[row] = reached ? vmax : v + a * dt;
+        x[row] += dirX[row] * displacement;
+        y[row] += dirY[row] * displacement;
+    }
+
+    /**
+     * Prende o barco em movimento que saiu de um lago width x height centrado
+     * na origem, trazendo-o de volta para a margem
+     * @param row
+     * @param width
+     * @param height
+     */
+    /* default */ void confine(int row, double width, double height) {
+        if (state[row] != MOVING) return;
+        double lowerLimitX = - width / 2;
+        double upperLimitX = width / 2;
+        double lowerLimitY = - height / 2;
+        double upperLimitY = height / 2;
+        double x = this.x[row];
+        double y = this.y[row];
+        double radius = this.radius[row];
+        if (x - radius < lowerLimitX) {
+            stuck(row);
+            this.x[row] = x + (lowerLimitX - (x - radius));
+        } else if (x + radius > upperLimitX) {
+            stuck(row);
+            this.x[row] = x + (upperLimitX - (x + radius));
+        }
+        // Como no Lake original, a correcao em y parte da posicao anterior a
+        // correcao em x, que se perde num canto
+        if (y - radius < lowerLimitY) {
+            stuck(row);
+            this.x[row] = x;
+            this.y[row] = y + (lowerLimitY - (y - radius));
+        } else if (y + radius > upperLimitY) {
+            stuck(row);
+            this.x[row] = x;
+            this.y[row] = y + (upperLimitY - (y + radius));
+        }
+    }
+
+    /**
+     * Reposiciona o barco row para que ele fique na posicao inicial da batida
+     * com other
+     * @param row
+     * @param other
+     */
+    /* default */ void touch(int row, int other) {
+        // -2 pixels to ensure contact since there is int rounding for pixel purposes
+        double distanceAfterCrash = radius[row] + radius[other] - 2;
+        double dx = x[row] - x[other];
+        double dy = y[row] - y[other];
+        double inverse = 1 / Math.sqrt(dx * dx + dy * dy);
+        x[row] = x[other] + dx * inverse * distanceAfterCrash;
+        y[row] = y[other] + dy * inverse * distanceAfterCrash;
+    }
+
+    /* default */ boolean intersects(int a, int b) {
+        double dx = x[b] - x[a];
+        double dy = y[b] - y[a];
+        double reach = radius[a] + radius[b];
+        return dx * dx + dy * dy < reach * reach;
+    }
+
+    /**
+     * Numero de linhas de from ate to, exclusive, que intersectam a linha row,
+     * que deve estar fora do intervalo
+     */
+    /* default */ int intersections(int row, int from, int to) {
+        return Kinematics.INSTANCE.intersections(this, row, from, to);
+    }
+
+}
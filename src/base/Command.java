@@ -0,0 +1,124 @@
+package base;
+
+import utils.Point;
+import utils.Vector2D;
+
+/**
+ * Comando para um lago, enviado de qualquer thread por Lake.submit: mudar a
+ * direcao ou a velocidade de um barco, ou adicionar um barco. O lago aplica
+ * os comandos na thread da simulacao, nos limites entre sub-passos, e nunca
+ * no meio de um. Sem instante o comando vale no proximo limite; com at, no
+ * primeiro limite a partir do instante dado.
+ *
+ * Os barcos sao indicados pelo objeto ou pelo indice, a ordem em que foram
+ * adicionados ao lago.
+ */
+public final class Command {
+    /* default */ static final byte TURN = 0;
+    /* default */ static final byte SPEED = 1;
+    /* default */ static final byte SPAWN = 2;
+
+    /* default */ final byte kind;
+    /* default */ final double time;
+    // Barco alvo, pelo objeto ou, sem ele, pelo indice
+    /* default */ final Boat target;
+    /* default */ final int index;
+    // Direcao unitaria de TURN, ou velocidade de SPEED em x
+    /* default */ final double x;
+    /* default */ final double y;
+    /* default */ final Boat spawned;
+    /* default */ final Point position;
+    /* default */ final Vector2D direction;
+
+    private Command(byte kind, double time, Boat target, int index, double x, double y, Boat spawned,
+        Point position, Vector2D direction) {
+        this.kind = kind;
+        this.time = time;
+        this.target = target;
+        this.index = index;
+        this.x = x;
+        this.y = y;
+        this.spawned = spawned;
+        this.position = position;
+        this.direction = direction;
+    }
+
+    public static Command turn(Boat boat, Vector2D direction) {
+        Vector2D unitary = checkDirection(direction);
+        return new Command(TURN, Double.NEGATIVE_INFINITY, boat, -1, unitary.xComponent(), unitary.yComponent(),
+            null, null, null);
+    }
+
+    public static Command turn(int boat, Vector2D direction) {
+        Vector2D unitary = checkDirection(direction);
+        return new Command(TURN, Double.NEGATIVE_INFINITY, null, boat, unitary.xComponent(), unitary.yComponent(),
+            null, null, null);
+    }
+
+    /**
+     * Muda a velocidade atual de um barco em movimento, limitada a sua
+     * velocidade maxima
+     * @param boat
+     * @param speed maior ou igual a zero
+     */
+    public static Command speed(Boat boat, double speed) {
+        return new Command(SPEED, Double.NEGATIVE_INFINITY, boat, -1, checkSpeed(speed), 0, null, null, null);
+    }
+
+    public static Command speed(int boat, double speed) {
+        return new Command(SPEED, Double.NEGATIVE_INFINITY, null, boat, checkSpeed(speed), 0, null, null, null);
+    }
+
+    /**
+     * Adiciona um barco como Lake.addBoat. Os barcos so sao adicionados no
+     * inicio de um runTime, porque o lago refaz os seus indices.
+     * @param boat
+     * @param position
+     * @param direction
+     */
+    public static Command spawn(Boat boat, Point position, Vector2D direction) {
+        checkDirection(direction);
+        return new Command(SPAWN, Double.NEGATIVE_INFINITY, null, -1, 0, 0, boat, checkPosition(position), direction);
+    }
+
+    /**
+     * O mesmo comando, a ser aplicado no instante time da simulacao
+     * @param time
+     */
+    public Command at(double time) {
+        return new Command(kind, time, target, index, x, y, spawned, position, direction);
+    }
+
+    public double getTime() { return time; }
+
+    private static double checkSpeed(double speed) {
+        if (!(speed >= 0)) throw new Boat.ValidationException("speed must be >= 0");
+        return speed;
+    }
+
+    /**
+     * Direcao unitaria de direction, que deve ter componentes finitas e
+     * comprimento maior que zero; senao o barco ficaria com posicao NaN
+     * @param direction
+     */
+    /* default */ static Vector2D checkDirection(Vector2D direction) {
+        double x = direction.xComponent();
+        double y = direction.yComponent();
+        if (!Double.isFinite(x) || !Double.isFinite(y)) throw new Boat.ValidationException("direction must be finite");
+        Vector2D unitary = direction.unitary();
+        // Comprimento zero da NaN, e um que nao cabe num double da zero
+        if (!Double.isFinite(unitary.xComponent()) || !Double.isFinite(unitary.yComponent()) ||
+            unitary.xComponent() == 0 && unitary.yComponent() == 0) {
+            throw new Boat.ValidationException("direction must have a finite length > 0");
+        }
+        return unitary;
+    }
+
+    /* default */ static Point checkPosition(Point position) {
+        if (!Double.isFinite(position.x()) || !Double.isFinite(position.y())) {
+            throw new Boat.ValidationException("position must be finite");
+        }
+        return position;
+    }
+
+}
@@ -0,0 +1,237 @@
+package base;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+
+import utils.Point;
+import utils.Vector2D;
+
+/**
+ * Roteiro de comandos com instante marcado, entregue a um lago por
+ * Lake.schedule. Os comandos ficam em colunas, um por indice, e o lago os
+ * percorre com um cursor sem criar um Command por manobra. Comandos do mesmo
+ * instante sao aplicados na ordem em que foram adicionados.
+ *
+ * Arquivo de roteiro, um comando por linha, com # para comentarios e rumos em
+ * graus a partir do eixo x:
+ *
+ *   at 3.5 turn 17 90             barco 17 passa ao rumo de 90 graus
+ *   at 4 speed 17 12.5            barco 17 passa a velocidade 12.5
+ *   at 10 spawn nome 5 0 20 2 -100 40 180
+ *                                 barco de raio 5, velocidade 0, velocidade
+ *                                 maxima 20 e aceleracao 2 em (-100, 40), rumo
+ *                                 de 180 graus
+ */
+public final class CommandScript {
+    public static class InvalidScriptException extends RuntimeException {
+        public InvalidScriptException(String message) { super(message); }
+    }
+
+    private int size;
+    /* default */ double[] time;
+    /* default */ byte[] kind;
+    // Barco alvo; em SPAWN, o indice em spawns
+    /* default */ int[] boat;
+    // Direcao unitaria de TURN, ou velocidade de SPEED em a
+    /* default */ double[] a;
+    /* default */ double[] b;
+    private final List<Spawn> spawns;
+    private boolean sorted;
+
+    // Barco a criar a cada vez que o roteiro e aplicado
+    private static final class Spawn {
+        private final String name;
+        private final double radius, speed, maxSpeed, acceleration;
+        private final Point position;
+        private final Vector2D direction;
+
+        private Spawn(String name, double radius, double speed, double maxSpeed, double acceleration,
+            Point position, Vector2D direction) {
+            this.name = name;
+            this.radius = radius;
+            this.speed = speed;
+            this.maxSpeed = maxSpeed;
+            this.acceleration = acceleration;
+            this.position = position;
+            this.direction = direction;
+        }
+    }
+
+    public CommandScript() {
+        time = new double[16];
+        kind = new byte[16];
+        boat = new int[16];
+        a = new double[16];
+        b = new double[16];
+        spawns = new ArrayList<Spawn>();
+        sorted = true;
+    }
+
+    public int size() { return size; }
+
+    /**
+     * No instante time, o barco de indice boat passa a direcao direction
+     * @param time
+     * @param boat
+     * @param direction
+     */
+    public CommandScript turn(double time, int boat, Vector2D direction) {
+        Vector2D unitary = Command.checkDirection(direction);
+        add(time, Command.TURN, boat, unitary.xComponent(), unitary.yComponent());
+        return this;
+    }
+
+    /**
+     * No instante time, o barco de indice boat passa a velocidade speed,
+     * limitada a sua velocidade maxima
+     * @param time
+     * @param boat
+     * @param speed
+     */
+    public CommandScript speed(double time, int boat, double speed) {
+        if (!(speed >= 0)) throw new Boat.ValidationException("speed must be >= 0");
+        add(time, Command.SPEED, boat, speed, 0);
+        return this;
+    }
+
+    /**
+     * No instante time, um barco novo com estes dados e adicionado ao lago
+     */
+    public CommandScript spawn(double time, String name, double radius, double speed, double maxSpeed,
+        double acceleration, Point position, Vector2D direction) {
+        // Valida os dados antes de o roteiro rodar
+        new Boat(name, radius, speed, maxSpeed, acceleration);
+        Command.checkPosition(position);
+        Command.checkDirection(direction);
+        add(time, Command.SPAWN, spawns.size(), 0, 0);
+        spawns.add(new Spawn(name, radius, speed, maxSpeed, acceleration, position, direction));
+        return this;
+    }
+
+    private void add(double time, byte kind, int boat, double a, double b) {
+        if (Double.isNaN(time)) throw new InvalidScriptException("time must be a number");
+        if (boat < 0) throw new InvalidScriptException("boat must be >= 0");
+        if (size == this.time.length) {
+            int capacity = 2 * size;
+            this.time = Arrays.copyOf(this.time, capacity);
+            this.kind = Arrays.copyOf(this.kind, capacity);
+            this.boat = Arrays.copyOf(this.boat, capacity);
+            this.a = Arrays.copyOf(this.a, capacity);
+            this.b = Arrays.copyOf(this.b, capacity);
+        }
+        if (size > 0 && time < this.time[size - 1]) sorted = false;
+        this.time[size] = time;
+        this.kind[size] = kind;
+        this.boat[size] = boat;
+        this.a[size] = a;
+        this.b[size] = b;
+        size++;
+    }
+
+    // Ordena as colunas por instante, mantendo a ordem de insercao nos empates
+    /* default */ void sort() {
+        if (sorted) return;
+        Integer[] order = new Integer[size];
+        for (int i = 0; i < size; i++) order[i] = i;
+        // O sort de objetos e estavel
+        Arrays.sort(order, new Comparator<Integer>() {
+            public int compare(Integer i, Integer j) {
+                return Double.compare(time[i], time[j]);
+            }
+        });
+        double[] time = new double[size], a = new double[size], b = new double[size];
+        byte[] kind = new byte[size];
+        int[] boat = new int[size];
+        for (int i = 0; i < size; i++) {
+            int k = order[i];
+            time[i] = this.time[k];
+            kind[i] = this.kind[k];
+            boat[i] = this.boat[k];
+            a[i] = this.a[k];
+            b[i] = this.b[k];
+        }
+        this.time = time;
+        this.kind = kind;
+        this.boat = boat;
+        this.a = a;
+        this.b = b;
+        sorted = true;
+    }
+
+    // Barco novo do comando SPAWN i
+    /* default */ Boat spawned(int i) {
+        Spawn spawn = spawns.get(boat[i]);
+        return new Boat(spawn.name, spawn.radius, spawn.speed, spawn.maxSpeed, spawn.acceleration);
+    }
+
+    /* default */ Point spawnPosition(int i) { return spawns.get(boat[i]).position; }
+    /* default */ Vector2D spawnDirection(int i) { return spawns.get(boat[i]).direction; }
+
+    /**
+     * Le um arquivo de roteiro
+     * @param path
+     */
+    public static CommandScript read(Path path) throws IOException {
+        CommandScript script = new CommandScript();
+        BufferedReader reader = Files.newBufferedReader(path, StandardCharsets.UTF_8);
+        try {
+            int number = 0;
+            String line;
+            while ((line = reader.readLine()) != null) {
+                number++;
+                int comment = line.indexOf('#');
+                if (comment >= 0) line = line.substring(0, comment);
+                line = line.trim();
+                if (line.isEmpty()) continue;
+                try {
+                    script.parse(line.split("\\s+"));
+                } catch (NumberFormatException e) {
+                    throw new InvalidScriptException(path + ":" + number + ": invalid number in " + line);
+                } catch (RuntimeException e) {
+                    throw new InvalidScriptException(path + ":" + number + ": " + e.getMessage());
+                }
+            }
+        } finally {
+            reader.close();
+        }
+        return script;
+    }
+
+    private void parse(String[] words) {
+        if (words.length < 3 || !words[0].equals("at")) throw new InvalidScriptException("expected at <time> <command>");
+        double time = Double.parseDouble(words[1]);
+        String command = words[2];
+        if (command.equals("turn")) {
+            expect(words, 5);
+            turn(time, Integer.parseInt(words[3]), heading(words[4]));
+        } else if (command.equals("speed")) {
+            expect(words, 5);
+            speed(time, Integer.parseInt(words[3]), Double.parseDouble(words[4]));
+        } else if (command.equals("spawn")) {
+            expect(words, 11);
+            spawn(time, words[3], Double.parseDouble(words[4]), Double.parseDouble(words[5]),
+                Double.parseDouble(words[6]), Double.parseDouble(words[7]),
+                Point.xy(Double.parseDouble(words[8]), Double.parseDouble(words[9])), heading(words[10]));
+        } else throw new InvalidScriptException("unknown command " + command);
+    }
+
+    private static void expect(String[] words, int count) {
+        if (words.length != count) {
+            throw new InvalidScriptException(words[2] + " takes " + (count - 3) + " arguments");
+        }
+    }
+
+    private static Vector2D heading(String degrees) {
+        double angle = Double.parseDouble(degrees);
+        if (!Double.isFinite(angle)) throw new InvalidScriptException("heading must be finite");
+        return Vector2D.direction(Math.toRadians(angle));
+    }
+
+}
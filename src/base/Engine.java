@@ -0,0 +1,18 @@
+package base;
+
+/**
+ * Estrategia usada por Lake.runTime para fazer o tempo andar. As implementacoes
+ * ficam neste pacote porque operam direto sobre os dados internos do lago.
+ */
+public abstract class Engine {
+
+    /* default */ Engine() { /* Nothing */ }
+
+    /**
+     * Faz o tempo do lago andar de timeDelta
+     * @param lake
+     * @param timeDelta
+     */
+    /* default */ abstract void runTime(Lake lake, double timeDelta);
+
+}
@@ -0,0 +1,209 @@
+package base;
+
+import java.util.Arrays;
+import java.util.PriorityQueue;
+
+/**
+ * Motor orientado a eventos. Em vez de passos fixos, calcula o instante exato
+ * em que cada par de barcos se toca e em que cada barco chega a margem, usando
+ * o mesmo movimento de Boat.move (MUV ate a velocidade maxima, depois MU), e
+ * processa esses eventos em ordem numa fila de prioridade. O custo cresce com
+ * o numero de colisoes e nao com a razao entre velocidade e raio, e nenhum
+ * barco atravessa outro entre duas verificacoes.
+ *
+ * Diferente do SubStepEngine, os barcos afundam e encalham no instante do
+ * evento, na posicao de contato. Os comandos enviados ao lago so valem no
+ * inicio de cada runTime.
+ */
+public final class EventEngine extends Engine {
+    private static final int SHORE = -1;
+
+    private final PriorityQueue<Event> events;
+    // Incrementada quando o barco para, invalidando os eventos ja previstos
+    private int[] versions;
+    // Caixas varridas por cada barco no intervalo
+    private double[] minX, maxX, minY, maxY;
+    private int[] sorted, buffer, active;
+    // Pares candidatos, depois organizados como lista de adjacencia
+    private int[] pairs;
+    private int pairCount;
+    private int[] neighbourStart, neighbours;
+    private final Sweep contact;
+
+    public EventEngine() {
+        events = new PriorityQueue<Event>();
+        versions = new int[0];
+        pairs = new int[64];
+        contact = new Sweep();
+    }
+
+    /* default */ void runTime(Lake lake, double timeDelta) {
+        BoatTable table = lake.table();
+        // O intervalo inteiro e um so sub-passo: os comandos valem no inicio
+        long start = lake.stepStarted();
+        // Colisoes pendentes de addBoat
+        lake.sunkBoats();
+        int n = table.size();
+        ensureCapacity(n);
+        Arrays.fill(versions, 0, n, 0);
+        sweep(table, n, timeDelta);
+        adjacency(n);
+        lake.countPairChecks(pairCount);
+        for (int k = 0; k < n; k++) {
+            if (table.state[k] == BoatTable.MOVING) schedule(lake, k, SHORE, 0, timeDelta);
+        }
+        for (int p = 0; p < pairCount; p++) {
+            schedule(lake, pairs[2 * p], pairs[2 * p + 1], 0, timeDelta);
+        }
+        while (!events.isEmpty()) {
+            Event event = events.poll();
+            if (versions[event.a] != event.versionA) continue;
+            if (event.b == SHORE) strand(lake, event.a, event.time, timeDelta);
+            else if (versions[event.b] == event.versionB) sink(lake, event.a, event.b, event.time);
+        }
+        table.move(0, n, timeDelta);
+        lake.stepFinished(start, timeDelta);
+        lake.endRun();
+    }
+
+    // Barco encalha na margem no instante t
+    private void strand(Lake lake, int row, double t, double timeDelta) {
+        BoatTable table = lake.table();
+        table.move(row, t);
+        lake.checkBoatLocation(row);
+        table.stuck(row);
+        versions[row]++;
+        // Os barcos que ainda se movem podem bater no barco parado
+        for (int k = neighbourStart[row]; k < neighbourStart[row + 1]; k++) {
+            int other = neighbours[k];
+            if (table.state[other] == BoatTable.MOVING) schedule(lake, other, row, t, timeDelta);
+        }
+    }
+
+    // Os dois barcos afundam no instante t, na posicao de contato
+    private void sink(Lake lake, int a, int b, double t) {
+        BoatTable table = lake.table();
+        table.move(a, t);
+        table.move(b, t);
+        table.sunk(a);
+        table.sunk(b);
+        lake.countCollision();
+        lake.markSunk(Math.max(a, b));
+        lake.markSunk(Math.min(a, b));
+        versions[a]++;
+        versions[b]++;
+    }
+
+    private void schedule(Lake lake, int a, int b, double lo, double hi) {
+        BoatTable table = lake.table();
+        // Os barcos que se movem partem da posicao do inicio do intervalo
+        double t = b == SHORE
+            ? contact.shoreTime(table, table.x, table.y, table.speed, a, lake.getWidth(), lake.getHeight(), lo, hi)
+            : contact.impactTime(table, table.x, table.y, table.speed, a, b, lo, hi);
+        if (Double.isNaN(t)) return;
+        events.add(new Event(t, a, b, versions[a], b == SHORE ? 0 : versions[b]));
+    }
+
+    // Sweep and prune no eixo x sobre as caixas varridas no intervalo
+    private void sweep(BoatTable table, int n, double timeDelta) {
+        int count = 0;
+        for (int k = 0; k < n; k++) {
+            if (table.state[k] == BoatTable.SUNK) continue;
+            double reach = Sweep.displacement(table, table.speed, k, timeDelta);
+            double r = table.radius[k];
+            double endX = table.x[k] + table.dirX[k] * reach;
+            double endY = table.y[k] + table.dirY[k] * reach;
+            minX[k] = Math.min(table.x[k], endX) - r;
+            maxX[k] = Math.max(table.x[k], endX) + r;
+            minY[k] = Math.min(table.y[k], endY) - r;
+            maxY[k] = Math.max(table.y[k], endY) + r;
+            sorted[count++] = k;
+        }
+        sortByMinX(0, count);
+        pairCount = 0;
+        int activeCount = 0;
+        for (int s = 0; s < count; s++) {
+            int k = sorted[s];
+            int kept = 0;
+            for (int i = 0; i < activeCount; i++) {
+                int other = active[i];
+                if (maxX[other] < minX[k]) continue;
+                active[kept++] = other;
+                boolean moving = table.state[k] == BoatTable.MOVING || table.state[other] == BoatTable.MOVING;
+                if (moving && minY[k] <= maxY[other] && minY[other] <= maxY[k]) addPair(other, k);
+            }
+            active[kept++] = k;
+            activeCount = kept;
+        }
+    }
+
+    private void addPair(int a, int b) {
+        if (2 * pairCount + 2 > pairs.length) pairs = Arrays.copyOf(pairs, 2 * pairs.length);
+        pairs[2 * pairCount] = Math.min(a, b);
+        pairs[2 * pairCount + 1] = Math.max(a, b);
+        pairCount++;
+    }
+
+    private void adjacency(int n) {
+        neighbourStart = new int[n + 1];
+        for (int p = 0; p < 2 * pairCount; p++) neighbourStart[pairs[p] + 1]++;
+        for (int k = 0; k < n; k++) neighbourStart[k + 1] += neighbourStart[k];
+        neighbours = new int[2 * pairCount];
+        int[] fill = Arrays.copyOf(neighbourStart, n);
+        for (int p = 0; p < pairCount; p++) {
+            int a = pairs[2 * p];
+            int b = pairs[2 * p + 1];
+            neighbours[fill[a]++] = b;
+            neighbours[fill[b]++] = a;
+        }
+    }
+
+    // Merge sort estavel dos indices em sorted[from, to) por minX
+    private void sortByMinX(int from, int to) {
+        if (to - from < 2) return;
+        int mid = (from + to) >>> 1;
+        sortByMinX(from, mid);
+        sortByMinX(mid, to);
+        if (minX[sorted[mid - 1]] <= minX[sorted[mid]]) return;
+        System.arraycopy(sorted, from, buffer, from, to - from);
+        int i = from, j = mid;
+        for (int k = from; k < to; k++) {
+            if (j >= to || (i < mid && minX[buffer[i]] <= minX[buffer[j]])) sorted[k] = buffer[i++];
+            else sorted[k] = buffer[j++];
+        }
+    }
+
+    private void ensureCapacity(int n) {
+        if (versions.length >= n) return;
+        versions = new int[n];
+        minX = new double[n];
+        maxX = new double[n];
+        minY = new double[n];
+        maxY = new double[n];
+        sorted = new int[n];
+        buffer = new int[n];
+        active = new int[n];
+    }
+
+    private static final class Event implements Comparable<Event> {
+        private final double time;
+        private final int a, b;
+        private final int versionA, versionB;
+
+        private Event(double time, int a, int b, int versionA, int versionB) {
+            this.time = time;
+            this.a = a;
+            this.b = b;
+            this.versionA = versionA;
+            this.versionB = versionB;
+        }
+
+        // Empates resolvidos pelos indices para o resultado ser deterministico
+        public int compareTo(Event o) {
+            if (time != o.time) return time < o.time ? -1 : 1;
+            if (a != o.a) return a < o.a ? -1 : 1;
+            return b < o.b ? -1 : (b == o.b ? 0 : 1);
+        }
+    }
+
+}
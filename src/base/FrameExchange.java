@@ -0,0 +1,118 @@
+package base;
+
+import java.lang.invoke.VarHandle;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Publica quadros de um lago da thread da simulacao para quantas threads
+ * leitoras houver, sem que uma espere pela outra. A simulacao escreve num
+ * anel de quadros, cada um com uma versao que fica impar enquanto ele e
+ * escrito (um seqlock por quadro). O leitor copia o quadro mais novo para o
+ * seu proprio LakeFrame e confere a versao depois: se mudou, a simulacao deu
+ * a volta no anel durante a copia, e ele copia o mais novo de novo.
+ *
+ * A simulacao nunca espera por leitores, e um leitor so repete a copia se
+ * forem publicados SLOTS - 1 quadros enquanto ele copia um.
+ *
+ * Com mark antes de um passo, publish(alpha) publica as posicoes
+ * interpoladas entre as de antes e as de depois dele, para desenhar a uma
+ * taxa diferente da do passo da simulacao.
+ */
+public final class FrameExchange {
+    private static final int SLOTS = 4;
+
+    private final Lake lake;
+    private final LakeFrame[] slots;
+    private final AtomicLongArray versions;
+    // Quadro mais novo, -1 antes do primeiro
+    private volatile int latest;
+    // Da thread da simulacao
+    private long sequence;
+    private int next;
+    // Posicoes guardadas por mark
+    private double[] previousX;
+    private double[] previousY;
+    private int previousSize;
+    private double previousTime;
+
+    public FrameExchange(Lake lake) {
+        this.lake = lake;
+        slots = new LakeFrame[SLOTS];
+        for (int i = 0; i < SLOTS; i++) slots[i] = new LakeFrame();
+        versions = new AtomicLongArray(SLOTS);
+        latest = -1;
+    }
+
+    /**
+     * Copia o estado atual do lago e o torna o quadro mais novo. Deve ser
+     * chamado na thread da simulacao, entre dois runTime.
+     */
+    public void publish() {
+        publish(1);
+    }
+
+    /**
+     * Guarda as posicoes atuais dos barcos como as anteriores de publish(alpha).
+     * Deve ser chamado na thread da simulacao, antes do passo a interpolar.
+     */
+    public void mark() {
+        BoatTable table = lake.table();
+        int n = table.size();
+        if (previousX == null || previousX.length < n) {
+            int capacity = Math.max(n, previousX == null ? 16 : 2 * previousX.length);
+            previousX = new double[capacity];
+            previousY = new double[capacity];
+        }
+        System.arraycopy(table.x, 0, previousX, 0, n);
+        System.arraycopy(table.y, 0, previousY, 0, n);
+        previousSize = n;
+        previousTime = lake.getTime();
+    }
+
+    /**
+     * Publica o estado de uma fracao alpha do ultimo passo, entre as posicoes
+     * guardadas por mark (0) e as atuais (1). Sem mark publica as atuais.
+     * @param alpha
+     */
+    public void publish(double alpha) {
+        int slot = next;
+        next = (next + 1) % SLOTS;
+        long version = versions.get(slot);
+        versions.set(slot, version + 1);
+        // A escrita do quadro nao pode passar na frente da versao impar
+        VarHandle.storeStoreFence();
+        slots[slot].capture(lake, ++sequence, previousX, previousY, previousSize, previousTime,
+            Math.max(0, Math.min(1, alpha)));
+        versions.set(slot, version + 2);
+        latest = slot;
+    }
+
+    /**
+     * Copia para frame o quadro mais novo, se ele for mais novo que o que
+     * frame ja tem. Pode ser chamado de qualquer thread, cada uma com os seus
+     * quadros.
+     * @param frame
+     * @return se frame mudou
+     */
+    public boolean read(LakeFrame frame) {
+        // Uma copia desfeita pode ter deixado outra sequencia em frame
+        long had = frame.sequence();
+        while (true) {
+            int slot = latest;
+            if (slot < 0) return false;
+            long version = versions.get(slot);
+            if ((version & 1) != 0) continue;
+            LakeFrame source = slots[slot];
+            if (source.sequence() <= had) {
+                VarHandle.loadLoadFence();
+                if (versions.get(slot) == version) return false;
+                continue;
+            }
+            frame.copy(source);
+            // As leituras da copia terminam antes de conferir a versao
+            VarHandle.loadLoadFence();
+            if (versions.get(slot) == version) return true;
+        }
+    }
+
+}
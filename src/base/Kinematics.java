@@ -0,0 +1,64 @@
+package base;
+
+/**
+ * Lacos sobre as colunas da BoatTable: o movimento de varias linhas e a
+ * busca de interseccoes de um barco com um intervalo de linhas. Esta classe e
+ * a versao escalar; quando a VectorKinematics foi compilada (ela fica em
+ * src-vector, fora do build normal) e o modulo jdk.incubator.vector esta na
+ * JVM (--add-modules jdk.incubator.vector), e usada ela, que da os mesmos
+ * resultados bit a bit. A propriedade lake.kinematics=scalar forca a versao
+ * escalar, para comparar as duas.
+ */
+class Kinematics {
+    /* default */ static final Kinematics INSTANCE = load();
+
+    /* default */ Kinematics() { /* Nothing */ }
+
+    // Carrega a versao vetorial pelo nome para que esta classe nao dependa do
+    // modulo incubado nem de src-vector
+    private static Kinematics load() {
+        if ("scalar".equals(System.getProperty("lake.kinematics"))) return new Kinematics();
+        if (!ModuleLayer.boot().findModule("jdk.incubator.vector").isPresent()) return new Kinematics();
+        try {
+            return (Kinematics) Class.forName("base.VectorKinematics").getDeclaredConstructor().newInstance();
+        } catch (ReflectiveOperationException e) {
+            return new Kinematics();
+        } catch (LinkageError e) {
+            return new Kinematics();
+        }
+    }
+
+    /**
+     * Nome da versao em uso, para os benchmarks
+     */
+    /* default */ String name() { return "scalar"; }
+
+    /**
+     * Move as linhas rows[0..count), todas em movimento, de dt
+     */
+    /* default */ void move(BoatTable table, int[] rows, int count, double dt) {
+        for (int i = 0; i < count; i++) table.advance(rows[i], dt);
+    }
+
+    /**
+     * Move as linhas em movimento de from ate to, exclusive, de dt
+     */
+    /* default */ void move(BoatTable table, int from, int to, double dt) {
+        for (int k = from; k < to; k++) {
+            if (table.state[k] == BoatTable.MOVING) table.advance(k, dt);
+        }
+    }
+
+    /**
+     * Numero de linhas de from ate to, exclusive, que intersectam a linha
+     * row, que deve estar fora do intervalo
+     */
+    /* default */ int intersections(BoatTable table, int row, int from, int to) {
+        int count = 0;
+        for (int k = from; k < to; k++) {
+            if (table.intersects(row, k)) count++;
+        }
+        return count;
+    }
+
+}
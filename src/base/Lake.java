@@ -1,7 +1,12 @@
 package base;
 
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.List;
+import java.util.PriorityQueue;
+import java.util.concurrent.ConcurrentLinkedQueue;
 
 import utils.Point;
 import utils.Vector2D;
@@ -9,47 +14,619 @@ import utils.Vector2D;
 public class Lake {
     private final double width;
     private final double height;
-    private final List<Boat> boats;
+    // Lista de barcos montada a partir da tabela: os afundados primeiro, o
+    // ultimo a afundar na frente, e depois os outros na ordem da tabela. Nao
+    // muda depois de montada; uma lista nova e montada quando preciso.
+    private List<Boat> boats;
+    private int listedSize;
+    private int listedSunk;
+    // Dados dos barcos, uma linha por barco na ordem em que foram adicionados
+    private final BoatTable table;
     private double maxSpeed;
     private double minRadius;
-    private List<Boat> sunkBoats;
+    private double maxRadius;
+    // Linhas dos barcos marcados para afundar no fim de runTime
+    private int[] sunkBoats;
+    private int sunkCount;
+    private final SpatialHash grid;
+    private boolean gridValid;
+    // Linhas em movimento, em ordem crescente
+    private int[] active;
+    private int activeCount;
+    // Indice estatico dos barcos encalhados; pode conter linhas que ja afundaram
+    private final SpatialHash still;
+    private boolean stillValid;
+    private double stillCell;
+    private int[] stillRows;
+    private int stillCount;
+    // Bits das celulas vizinhas de algum encalhado, espalhados por hash: um
+    // bit zerado garante que nao ha encalhado perto e evita a consulta
+    private long[] nearStill;
+    // Encalhados a verificar no proximo passo mesmo sem barco em movimento
+    // perto: os que acabaram de encalhar e os que ja colidiram
+    private int[] fresh;
+    private int freshCount;
+    // Encalhados a verificar no passo atual
+    private final RowHeap checks;
+    private int[] lastMark;
+    // Teste varrido dos passos: distancia maxima andada num passo, 0 sem ele,
+    // e a duracao e as posicoes e velocidades do inicio do passo atual
+    private double sweepReach;
+    private double sweepTime;
+    private double[] startX, startY, startSpeed;
+    private final Sweep sweep;
+    // Barcos que encalharam durante o passo atual
+    private int[] stranded;
+    private int strandedCount;
+    private Engine engine;
+    private TrajectoryRecorder recorder;
+    private LakeMetrics metrics;
+    // Contadores do runTime atual, entregues as metricas no fim
+    private final RunSample run;
+    private final List<LakeListener> listeners;
+    private double time;
+    // Comandos enviados por qualquer thread, ainda nao vistos pela simulacao
+    private final ConcurrentLinkedQueue<Command> incoming;
+    // Comandos com instante marcado, por instante e ordem de chegada
+    private final PriorityQueue<Timed> pending;
+    private long arrivals;
+    // Barcos a adicionar no inicio do proximo runTime
+    private final List<Command> spawns;
+    private CommandScript[] scripts;
+    private int[] cursors;
+    private int scriptCount;
+    // Instante do sub-passo atual, que avanca dentro de runTime
+    private double clock;
+    private int commandVersion;
+    private long appliedCommands;
+    private long rejectedCommands;
+
+    private static final class Timed {
+        private final Command command;
+        private final long arrival;
+
+        private Timed(Command command, long arrival) {
+            this.command = command;
+            this.arrival = arrival;
+        }
+    }
     
     public static class BoatGreaterThanLakeException extends RuntimeException { /* Nothing */ }
     
     public Lake(double width, double height) {
         this.width = width;
         this.height = height;
-        this.boats = new ArrayList<Boat>();
-        sunkBoats = new ArrayList<Boat>();
+        this.boats = Collections.emptyList();
+        this.table = new BoatTable(16);
+        sunkBoats = new int[16];
+        sunkCount = 0;
+        grid = new SpatialHash();
+        gridValid = false;
+        active = new int[16];
+        still = new SpatialHash();
+        stillValid = false;
+        stillRows = new int[16];
+        nearStill = new long[64];
+        fresh = new int[16];
+        checks = new RowHeap();
+        lastMark = new int[16];
+        startX = new double[0];
+        startY = startX;
+        startSpeed = startX;
+        sweep = new Sweep();
+        stranded = new int[16];
+        engine = new SubStepEngine();
+        listeners = new ArrayList<LakeListener>();
+        run = new RunSample();
+        time = 0;
+        incoming = new ConcurrentLinkedQueue<Command>();
+        pending = new PriorityQueue<Timed>(16, new Comparator<Timed>() {
+            public int compare(Timed a, Timed b) {
+                int c = Double.compare(a.command.time, b.command.time);
+                return c != 0 ? c : Long.compare(a.arrival, b.arrival);
+            }
+        });
+        spawns = new ArrayList<Command>();
+        scripts = new CommandScript[0];
+        cursors = new int[0];
     }
 
     public double getWidth() { return width; }
     public double getHeight() { return height; }
+    // Tempo de simulacao acumulado por runTime
+    public double getTime() { return time; }
     
     /***
      * Faz o tempo andar de timeDelta
      * @param timeDelta
      */
     public final void runTime(double timeDelta) {
-        if (boats.isEmpty()) return;
-        // Calcula o nomero de iteracoes maximo e depois faz os marcos se moverem
-        // de um tempo correspondente ao resto da divisao
-        double step = minRadius / maxSpeed;
-        int times = (int) (timeDelta / step);
-        double remainder = timeDelta % step;
-        for (int i = 1; i <= times + 1; i++) {
-            for (Boat boat : boats) {
-                boat.move(
-                    (i < times + 1)
-                    ? step
-                    : remainder
-                );
-                // Se o barco nao bateu checa se existe colisao
-                if (!boat.isSunk()) checkPreviousBoatsColision(boat);
+        clock = time;
+        applyCommands(true);
+        time += timeDelta;
+        if (table.size() == 0) {
+            clock = time;
+            return;
+        }
+        // Os contadores sao sempre somados; tempo e alocacao so com metricas
+        LakeMetrics metrics = this.metrics;
+        if (metrics != null) run.start(timeDelta);
+        engine.runTime(this, timeDelta);
+        clock = time;
+        if (metrics != null) run.finish(table);
+        if (table.events() > 0) publish();
+        if (recorder != null) recorder.record(this);
+        if (metrics != null) metrics.runTime(this, run);
+    }
+
+    public LakeMetrics getMetrics() { return metrics; }
+
+    /**
+     * Passa a entregar as medidas de cada runTime a metrics, ou para com null
+     * @param metrics
+     */
+    public void setMetrics(LakeMetrics metrics) {
+        this.metrics = metrics;
+    }
+
+    /**
+     * Inicio de um sub-passo do motor: aplica os comandos que ja valem
+     * @return o instante para stepFinished, medido so com metricas
+     */
+    /* default */ long stepStarted() {
+        applyCommands(false);
+        return metrics != null ? System.nanoTime() : 0;
+    }
+
+    /**
+     * Fim de um sub-passo de duracao dt
+     * @param start o retorno de stepStarted
+     * @param dt
+     */
+    /* default */ void stepFinished(long start, double dt) {
+        clock += dt;
+        run.step(metrics != null ? System.nanoTime() - start : -1);
+    }
+
+    /**
+     * Envia um comando a simulacao. Pode ser chamado de qualquer thread; o
+     * comando e aplicado pela thread da simulacao entre dois sub-passos, na
+     * ordem de chegada entre os do mesmo instante.
+     * @param command
+     */
+    public void submit(Command command) {
+        if (command == null) throw new NullPointerException("command");
+        incoming.add(command);
+    }
+
+    /**
+     * Passa a aplicar os comandos do roteiro, a partir do instante atual. Os
+     * comandos de instantes ja passados sao aplicados no proximo sub-passo.
+     * Deve ser chamado entre dois runTime, e o roteiro nao deve mudar depois.
+     * @param script
+     */
+    public void schedule(CommandScript script) {
+        script.sort();
+        scripts = Arrays.copyOf(scripts, scriptCount + 1);
+        cursors = Arrays.copyOf(cursors, scriptCount + 1);
+        scripts[scriptCount++] = script;
+    }
+
+    // Comandos aplicados e descartados por apontarem para um barco que nao
+    // existe, ou mudarem a velocidade de um barco parado
+    public long getAppliedCommands() { return appliedCommands; }
+    public long getRejectedCommands() { return rejectedCommands; }
+
+    // Muda a cada comando que altera velocidades ou adiciona barcos, para os
+    // motores que guardam limites calculados no inicio de runTime
+    /* default */ int commandVersion() { return commandVersion; }
+
+    /**
+     * Instante do proximo comando com hora marcada, ou infinito sem nenhum.
+     * Nao ve os comandos enviados por submit que ainda nao passaram por um
+     * sub-passo.
+     */
+    /* default */ double nextCommandTime() {
+        double next = pending.isEmpty() ? Double.POSITIVE_INFINITY : pending.peek().command.time;
+        for (int s = 0; s < scriptCount; s++) {
+            if (cursors[s] < scripts[s].size()) next = Math.min(next, scripts[s].time[cursors[s]]);
+        }
+        return next;
+    }
+
+    /* default */ double clock() { return clock; }
+
+    // Aplica os comandos que valem no instante clock. Sem spawn, os barcos
+    // novos esperam o inicio do proximo runTime, porque no meio dele os
+    // indices do lago sao do motor.
+    private void applyCommands(boolean spawn) {
+        Command command;
+        while ((command = incoming.poll()) != null) {
+            if (command.time > clock) pending.add(new Timed(command, arrivals++));
+            else apply(command);
+        }
+        while (!pending.isEmpty() && pending.peek().command.time <= clock) apply(pending.poll().command);
+        for (int s = 0; s < scriptCount; s++) {
+            CommandScript script = scripts[s];
+            int i = cursors[s];
+            for (; i < script.size() && script.time[i] <= clock; i++) {
+                if (script.kind[i] == Command.SPAWN) {
+                    spawns.add(Command.spawn(script.spawned(i), script.spawnPosition(i), script.spawnDirection(i)));
+                } else apply(script.kind[i], script.boat[i], script.a[i], script.b[i]);
+            }
+            cursors[s] = i;
+        }
+        if (spawn && !spawns.isEmpty()) {
+            for (Command c : spawns) {
+                try {
+                    addBoat(c.spawned, c.position, c.direction);
+                    appliedCommands++;
+                } catch (BoatGreaterThanLakeException e) {
+                    rejectedCommands++;
+                }
+            }
+            spawns.clear();
+            commandVersion++;
+        }
+    }
+
+    private void apply(Command command) {
+        if (command.kind == Command.SPAWN) {
+            spawns.add(command);
+            return;
+        }
+        int row = command.index;
+        if (command.target != null) {
+            row = command.target.row();
+            if (row >= table.size() || table.boat(row) != command.target) row = -1;
+        }
+        apply(command.kind, row, command.x, command.y);
+    }
+
+    private void apply(byte kind, int row, double a, double b) {
+        if (row < 0 || row >= table.size()) {
+            rejectedCommands++;
+            return;
+        }
+        if (kind == Command.TURN) {
+            table.dirX[row] = a;
+            table.dirY[row] = b;
+            table.turned(row);
+        } else {
+            if (table.state[row] != BoatTable.MOVING) {
+                rejectedCommands++;
+                return;
+            }
+            table.speed[row] = Math.min(a, table.maxSpeed[row]);
+            commandVersion++;
+        }
+        appliedCommands++;
+    }
+
+    // Colisao resolvida pelo motor sem passar por colide
+    /* default */ void countCollision() {
+        run.collisions++;
+    }
+
+    // Pares comparados pelo motor fora de step
+    /* default */ void countPairChecks(long pairs) {
+        run.pairChecks += pairs;
+    }
+
+    public Engine getEngine() { return engine; }
+
+    /**
+     * Troca o motor usado por runTime
+     * @param engine
+     */
+    public void setEngine(Engine engine) {
+        this.engine = engine;
+    }
+
+    public TrajectoryRecorder getRecorder() { return recorder; }
+
+    /**
+     * Passa a gravar um quadro a cada runTime, a comecar pelo estado atual.
+     * Com null para de gravar; o recorder deve ser fechado por quem o criou.
+     * @param recorder
+     */
+    public void setRecorder(TrajectoryRecorder recorder) {
+        this.recorder = recorder;
+        if (recorder != null) recorder.record(this);
+    }
+
+    public void addListener(LakeListener listener) {
+        listeners.add(listener);
+        table.logEvents(true);
+    }
+
+    public void removeListener(LakeListener listener) {
+        listeners.remove(listener);
+        table.logEvents(!listeners.isEmpty());
+    }
+
+    // Entrega aos listeners as mudancas registradas pela tabela
+    private void publish() {
+        for (int i = 0; i < table.events(); i++) {
+            Boat boat = table.boat(table.eventRow(i));
+            byte kind = table.eventKind(i);
+            for (LakeListener listener : listeners) {
+                if (kind == BoatTable.STUCK) listener.boatStuck(this, boat);
+                else if (kind == BoatTable.SUNK) listener.boatSunk(this, boat);
+                else listener.directionChanged(this, boat);
+            }
+        }
+        table.clearEvents();
+    }
+
+    /* default */ BoatTable table() { return table; }
+    /* default */ int pendingSunk() { return sunkCount; }
+    /* default */ int pendingSunk(int i) { return sunkBoats[i]; }
+    /* default */ double minRadius() { return minRadius; }
+    /* default */ double maxRadius() { return maxRadius; }
+    /* default */ double maxSpeed() { return maxSpeed; }
+    // Linhas em movimento, e encalhadas (podem incluir afundadas)
+    /* default */ int activeCount() { return activeCount; }
+    /* default */ int activeRow(int i) { return active[i]; }
+    /* default */ int stillCount() { return stillCount; }
+    /* default */ int stillRow(int i) { return stillRows[i]; }
+
+    /**
+     * Liga o teste varrido em step para passos em que nenhum barco anda mais
+     * que reach, ou o desliga com 0
+     * @param reach
+     */
+    /* default */ void sweep(double reach) {
+        sweepReach = reach;
+    }
+
+    /**
+     * Move todos os barcos de dt, verificando a colisao de cada um com os
+     * anteriores logo depois de move-lo. So os barcos em movimento sao
+     * percorridos; um encalhado so e verificado quando algum barco anterior
+     * pode intersecta-lo, e o resultado e o mesmo de verificar todos na ordem
+     * da tabela.
+     *
+     * Com sweep, dois barcos colidem tambem quando se tocaram em algum
+     * instante do passo, e nao so no fim dele, e um barco que chega a margem
+     * encalha no ponto de contato. Assim nenhum barco atravessa outro, por
+     * maior que seja dt.
+     * @param dt
+     */
+    /* default */ void step(double dt) {
+        // O grid so contem os barcos em movimento anteriores ja movidos neste
+        // passo; os encalhados ficam no indice estatico
+        resetGrid();
+        if (!stillValid || stillCell != cellSize()) rebuildStill();
+        if (sweepReach > 0) saveStart(dt);
+        checks.clear();
+        for (int i = 0; i < freshCount; i++) {
+            int row = fresh[i];
+            if (table.state[row] == BoatTable.SUNK) continue;
+            checks.add(row);
+            scheduleStill(row);
+        }
+        freshCount = 0;
+        // Mover todos antes de verificar da o mesmo resultado: cada barco so
+        // e comparado com os anteriores, e uma colisao so reposiciona o barco
+        // verificado. Como active tem todas as linhas em movimento, quando
+        // elas sao boa parte da tabela o laco sobre todas as linhas, que le os
+        // estados e tem versao vetorial, sai mais barato que o da lista
+        if (2 * activeCount >= table.size()) table.move(0, table.size(), dt);
+        else table.move(active, activeCount, dt);
+        int a = 0;
+        while (a < activeCount || !checks.isEmpty()) {
+            if (checks.isEmpty() || (a < activeCount && active[a] < checks.peek())) {
+                int k = active[a++];
+                boolean near = isNearStill(k);
+                int first = near ? firstColision(k) : previousColision(k, true, null);
+                if (first >= 0) {
+                    colide(k, first);
+                    near = isNearStill(k);
+                } else if (sweepTime > 0 && outside(k)) {
+                    strand(k);
+                    near = isNearStill(k);
+                }
+                grid.insert(k, table.x[k], table.y[k]);
+                if (near) scheduleStill(k);
+            } else {
+                int k = checks.poll();
+                int first = firstColision(k);
+                if (first < 0) continue;
+                double x = table.x[k];
+                double y = table.y[k];
+                colide(k, first);
+                still.remove(k, x, y);
+                still.insert(k, table.x[k], table.y[k]);
+                markNearStill(k);
+                scheduleStill(k);
+                // Continua intersectando first e e marcado de novo a cada
+                // passo ate afundar no fim de runTime
+                addFresh(k);
+            }
+        }
+        sweepTime = 0;
+        if (strandedCount > 0) removeStranded();
+    }
+
+    // Guarda o inicio do passo de dt para o teste varrido
+    private void saveStart(double dt) {
+        if (startX.length < table.size()) {
+            startX = new double[table.capacity()];
+            startY = new double[table.capacity()];
+            startSpeed = new double[table.capacity()];
+        }
+        for (int i = 0; i < activeCount; i++) {
+            int k = active[i];
+            startX[k] = table.x[k];
+            startY[k] = table.y[k];
+            startSpeed[k] = table.speed[k];
+        }
+        sweepTime = dt;
+    }
+
+    // Se os barcos se intersectam, ou com o teste varrido se tocaram durante
+    // o passo
+    private boolean hits(int row, int other) {
+        if (table.intersects(row, other)) return true;
+        if (sweepTime == 0 || (table.state[row] != BoatTable.MOVING && table.state[other] != BoatTable.MOVING)) {
+            return false;
+        }
+        return sweep.touches(table, startX, startY, startSpeed, row, other, sweepTime);
+    }
+
+    private boolean outside(int row) {
+        double r = table.radius[row];
+        return table.x[row] - r < -width / 2 || table.x[row] + r > width / 2 ||
+            table.y[row] - r < -height / 2 || table.y[row] + r > height / 2;
+    }
+
+    // Encalha o barco que saiu do lago no ponto em que tocou a margem
+    private void strand(int row) {
+        double t = sweep.shoreTime(table, startX, startY, startSpeed, row, width, height, 0, sweepTime);
+        // Sem instante por arredondamento o barco e preso no fim de runTime
+        if (Double.isNaN(t)) return;
+        double s = Sweep.displacement(table, startSpeed, row, t);
+        table.x[row] = startX[row] + table.dirX[row] * s;
+        table.y[row] = startY[row] + table.dirY[row] * s;
+        checkBoatLocation(row);
+        table.stuck(row);
+        if (strandedCount == stranded.length) stranded = Arrays.copyOf(stranded, 2 * strandedCount);
+        stranded[strandedCount++] = row;
+    }
+
+    // Tira de active os barcos que encalharam no passo e os poe no indice
+    // estatico, depois de todos verificados
+    private void removeStranded() {
+        int count = 0;
+        for (int i = 0; i < activeCount; i++) {
+            if (table.state[active[i]] == BoatTable.MOVING) active[count++] = active[i];
+        }
+        activeCount = count;
+        for (int i = 0; i < strandedCount; i++) addStill(stranded[i]);
+        strandedCount = 0;
+    }
+
+    // Primeiro barco anterior, em movimento ou encalhado, que intersecta row
+    private int firstColision(int row) {
+        int first = previousColision(row, true, null);
+        int cx = still.cell(table.x[row]);
+        int cy = still.cell(table.y[row]);
+        int examined = 0;
+        for (int i = cx - 1; i <= cx + 1; i++) {
+            for (int j = cy - 1; j <= cy + 1; j++) {
+                for (int k = still.head(i, j); k >= 0; k = still.next(k)) {
+                    if (k < row && (first < 0 || k < first) && table.state[k] != BoatTable.SUNK) {
+                        examined++;
+                        if (hits(row, k)) first = k;
+                    }
+                }
+            }
+        }
+        run.pairChecks += examined;
+        return first;
+    }
+
+    // Agenda os encalhados seguintes a row que ela intersecta, porque na vez
+    // deles vao encontrar row ou algum barco anterior
+    private void scheduleStill(int row) {
+        int cx = still.cell(table.x[row]);
+        int cy = still.cell(table.y[row]);
+        int examined = 0;
+        for (int i = cx - 1; i <= cx + 1; i++) {
+            for (int j = cy - 1; j <= cy + 1; j++) {
+                for (int k = still.head(i, j); k >= 0; k = still.next(k)) {
+                    if (k > row && table.state[k] != BoatTable.SUNK) {
+                        examined++;
+                        if (hits(row, k)) checks.add(k);
+                    }
+                }
             }
         }
+        run.pairChecks += examined;
+    }
+
+    // Afunda os barcos marcados e prende os que sairam do lago
+    /* default */ void endRun() {
+        gridValid = false;
         sunkBoats();
-        for (Boat boat : boats) checkBoatLocation(boat);
+        // So barcos em movimento podem sair do lago
+        int count = 0;
+        for (int i = 0; i < activeCount; i++) {
+            int k = active[i];
+            checkBoatLocation(k);
+            if (table.state[k] == BoatTable.MOVING) active[count++] = k;
+            else if (table.state[k] == BoatTable.STUCK) addStill(k);
+        }
+        activeCount = count;
+        // Descarta do indice estatico os encalhados que afundaram
+        if (stillCount > 2 * table.count(BoatTable.STUCK) + 16) {
+            count = 0;
+            for (int i = 0; i < stillCount; i++) {
+                if (table.state[stillRows[i]] == BoatTable.STUCK) stillRows[count++] = stillRows[i];
+            }
+            stillCount = count;
+            stillValid = false;
+        }
+    }
+
+    private void addActive(int row) {
+        if (activeCount == active.length) active = Arrays.copyOf(active, 2 * activeCount);
+        active[activeCount++] = row;
+    }
+
+    private void addStill(int row) {
+        if (stillCount == stillRows.length) stillRows = Arrays.copyOf(stillRows, 2 * stillCount);
+        stillRows[stillCount++] = row;
+        addFresh(row);
+        if (stillValid) {
+            still.insert(row, table.x[row], table.y[row]);
+            markNearStill(row);
+        }
+    }
+
+    private void addFresh(int row) {
+        if (freshCount == fresh.length) fresh = Arrays.copyOf(fresh, 2 * freshCount);
+        fresh[freshCount++] = row;
+    }
+
+    private void rebuildStill() {
+        still.reset(cellSize(), stillCount);
+        // Pelo menos 8 bits por celula marcada
+        int words = 64;
+        while (words < 9 * 8 * stillCount / 64) words <<= 1;
+        if (nearStill.length == words) Arrays.fill(nearStill, 0);
+        else nearStill = new long[words];
+        for (int i = 0; i < stillCount; i++) {
+            int row = stillRows[i];
+            if (table.state[row] == BoatTable.SUNK) continue;
+            still.insert(row, table.x[row], table.y[row]);
+            markNearStill(row);
+        }
+        stillCell = cellSize();
+        stillValid = true;
+    }
+
+    private boolean isNearStill(int row) {
+        if (stillCount == 0) return false;
+        int bit = nearBit(still.cell(table.x[row]), still.cell(table.y[row]));
+        return (nearStill[bit >>> 6] & (1L << bit)) != 0;
+    }
+
+    private void markNearStill(int row) {
+        int cx = still.cell(table.x[row]);
+        int cy = still.cell(table.y[row]);
+        for (int i = cx - 1; i <= cx + 1; i++) {
+            for (int j = cy - 1; j <= cy + 1; j++) {
+                int bit = nearBit(i, j);
+                nearStill[bit >>> 6] |= 1L << bit;
+            }
+        }
+    }
+
+    private int nearBit(int cx, int cy) {
+        int h = cx * 0x9e3779b1 + cy * 0x85ebca6b;
+        return (h ^ (h >>> 16)) & (64 * nearStill.length - 1);
     }
     
     public void addBoat(Boat boat, Point position, Vector2D direction) {
@@ -57,24 +634,119 @@ public class Lake {
         boat.setDirection(direction);
         double speed = boat.getMaxSpeed();
         double radius = boat.getRadius();
-        if (boats.isEmpty() || radius < minRadius) minRadius = radius;
-        if (boats.isEmpty() || speed > maxSpeed) maxSpeed = speed;
+        boolean first = table.size() == 0;
+        if (first || radius < minRadius) minRadius = radius;
+        if (first || speed > maxSpeed) maxSpeed = speed;
+        if (first || radius > maxRadius) {
+            maxRadius = radius;
+            gridValid = false;
+            stillValid = false;
+        }
         checkBoatDimensions(boat);
-        checkBoatLocation(boat);
-        boats.add(boat);
-        checkPreviousBoatsColision(boat);
+        if (!gridValid) rebuildGrid();
+        int row = boat.moveTo(table);
+        checkBoatLocation(row);
+        checkPreviousBoatsColision(row);
+        insert(row);
+        if (table.state[row] == BoatTable.MOVING) addActive(row);
+        else addStill(row);
+        for (LakeListener listener : listeners) listener.boatAdded(this, boat);
+        if (table.events() > 0) publish();
+    }
+    
+    /**
+     * Completa um lago vazio cujas linhas da tabela ja foram preenchidas
+     * @param order barcos na ordem da lista de barcos
+     * @param pending linhas marcadas para afundar no proximo runTime
+     * @param time tempo de simulacao
+     */
+    /* default */ void restore(Boat[] order, int[] pending, double time) {
+        int sunk = 0;
+        while (sunk < order.length && order[sunk].isSunk()) sunk++;
+        int[] sunkOrder = new int[sunk];
+        for (int i = 0; i < sunk; i++) sunkOrder[i] = order[sunk - 1 - i].row();
+        table.recount(sunkOrder);
+        for (int k = 0; k < table.size(); k++) {
+            if (table.state[k] == BoatTable.MOVING) addActive(k);
+            else if (table.state[k] == BoatTable.STUCK) addStill(k);
+            if (k == 0 || table.radius[k] < minRadius) minRadius = table.radius[k];
+            if (k == 0 || table.radius[k] > maxRadius) maxRadius = table.radius[k];
+            if (k == 0 || table.maxSpeed[k] > maxSpeed) maxSpeed = table.maxSpeed[k];
+        }
+        for (int row : pending) markSunk(row);
+        gridValid = false;
+        this.time = time;
     }
     
     public boolean hasMovement() {
-        boolean hasMovement = false;
-        for (Boat b : boats) if (b.isMoving()) hasMovement = true;
-        return hasMovement;
+        return table.count(BoatTable.MOVING) > 0;
     }
+
+    public int getMovingCount() { return table.count(BoatTable.MOVING); }
+    public int getStuckCount() { return table.count(BoatTable.STUCK); }
+    public int getSunkCount() { return table.count(BoatTable.SUNK); }
     
+    /**
+     * Barcos do lago, os afundados primeiro. A lista nao pode ser alterada e
+     * nao muda depois de retornada, mas os barcos sao visoes da tabela do
+     * lago e so devem ser lidos na thread da simulacao; outras threads leem
+     * quadros de um FrameExchange.
+     */
     public List<Boat> getBoats() {
+        if (listedSize != table.size() || listedSunk != table.sunkTotal()) {
+            List<Boat> list = new ArrayList<Boat>(table.size());
+            for (int i = table.sunkTotal() - 1; i >= 0; i--) list.add(table.boat(table.sunkRow(i)));
+            for (int k = 0; k < table.size(); k++) {
+                if (table.state[k] != BoatTable.SUNK) list.add(table.boat(k));
+            }
+            boats = Collections.unmodifiableList(list);
+            listedSize = table.size();
+            listedSunk = table.sunkTotal();
+        }
         return boats;
     }
     
+    /**
+     * Verifica se um barco de raio radius com centro em p nao intersectaria
+     * nenhum barco do lago que ainda nao afundou
+     * @param p
+     * @param radius
+     */
+    public boolean isFree(Point p, double radius) {
+        if (table.size() == 0) return true;
+        if (!gridValid) rebuildGrid();
+        double reach = radius + maxRadius;
+        for (int i = grid.cell(p.x() - reach); i <= grid.cell(p.x() + reach); i++) {
+            for (int j = grid.cell(p.y() - reach); j <= grid.cell(p.y() + reach); j++) {
+                for (int k = grid.head(i, j); k >= 0; k = grid.next(k)) {
+                    double dx = table.x[k] - p.x();
+                    double dy = table.y[k] - p.y();
+                    double sum = radius + table.radius[k];
+                    if (dx * dx + dy * dy < sum * sum) return false;
+                }
+            }
+        }
+        return true;
+    }
+    
+    /**
+     * Numero de pares de barcos que se intersectam, comparando todos os pares
+     * sem o hash espacial. E a busca O(n^2) de referencia dos benchmarks.
+     */
+    public long intersectingPairs() {
+        long pairs = 0;
+        for (int k = 1; k < table.size(); k++) pairs += table.intersections(k, 0, k);
+        return pairs;
+    }
+
+    /**
+     * Versao dos lacos sobre as colunas dos barcos em uso: scalar ou a
+     * vetorial, com o tamanho do vetor
+     */
+    public static String kinematics() {
+        return Kinematics.INSTANCE.name();
+    }
+
     public boolean isInside(Point p) {
         return (-width / 2 < p.x() && p.x() < width / 2) &&
             (-height / 2 < p.y() && p.y() < height / 2);
@@ -88,60 +760,104 @@ public class Lake {
     }
     
     // Checa se o barco esta dentro dos limites do lago
-    private void checkBoatLocation(Boat boat) {
-        if (!boat.isMoving()) return;
-        double lowerLimitX = - this.width / 2;
-        double upperLimitX = this.width / 2;
-        double lowerLimitY = - this.height / 2;
-        double upperLimitY = this.height / 2;
-        Point position = boat.getPosition();
-        if (boat.minX() < lowerLimitX) {
-            boat.stuck();
-            boat.setPosition(position.addX(lowerLimitX - boat.minX()));
-        } else if (boat.maxX() > upperLimitX) {
-            boat.stuck();
-            boat.setPosition(position.addX(upperLimitX - boat.maxX()));
-        }
-        if (boat.minY() < lowerLimitY) {
-            boat.stuck();
-            boat.setPosition(position.addY(lowerLimitY - boat.minY()));
-        } else if (boat.maxY() > upperLimitY) {
-            boat.stuck();
-            boat.setPosition(position.addY(upperLimitY - boat.maxY()));
-        }
+    /* default */ void checkBoatLocation(int row) {
+        table.confine(row, width, height);
     }
     
-    // Verifica colisao de boat com os barcos anteriores na lista de barcos
-    private void checkPreviousBoatsColision(Boat boat) {
-        List<Boat> previousBoats = boats.subList(0, boats.lastIndexOf(boat));
-        for (Boat b : previousBoats) {
-            // Se os barcos tiverem interseccao e um deles nao estiver afundado, 
-            // marca para afundar
-            if (!b.isSunk() && boat.hasIntersection(b)) {
-                sunkBoats.add(boat);
-                sunkBoats.add(b);
-                // Reposiciona o barco para que ele fique na posicao inicial da batida
-                // -2 pixels to ensure contact since there is int rounding for pixel purposes
-                double distanceAfterCrash = boat.getRadius() + b.getRadius() - 2;
-                Vector2D d = boat
-                    .getPosition()
-                    .minus(b.getPosition())
-                    .unitary()
-                    .times(distanceAfterCrash);
-                Point p = b.getPosition().plus(d);
-                boat.setPosition(p);
-                break;
+    // Verifica colisao do barco com os barcos anteriores na lista de barcos
+    private void checkPreviousBoatsColision(int row) {
+        int first = previousColision(row);
+        if (first >= 0) colide(row, first);
+    }
+
+    /**
+     * Procura no grid o primeiro barco anterior na lista que intersecta o barco
+     * da linha row. So le o grid e a tabela, entao pode rodar em paralelo.
+     * @return a linha do barco ou -1 se nao houver colisao
+     */
+    /* default */ int previousColision(int row) {
+        return previousColision(row, false, null);
+    }
+
+    /**
+     * Como previousColision(row), somando a pairs[0] os pares comparados.
+     * Cada tarefa paralela passa o seu proprio pairs.
+     */
+    /* default */ int previousColision(int row, long[] pairs) {
+        return previousColision(row, false, pairs);
+    }
+
+    // Com count soma os pares comparados ao runTime atual, so na thread da
+    // simulacao; senao os soma a pairs, se houver
+    private int previousColision(int row, boolean count, long[] pairs) {
+        int cx = grid.cell(table.x[row]);
+        int cy = grid.cell(table.y[row]);
+        // Dois barcos que se intersectam estao no maximo uma celula de distancia;
+        // vale o primeiro da lista, como na busca linear
+        int first = -1;
+        int examined = 0;
+        for (int i = cx - 1; i <= cx + 1; i++) {
+            for (int j = cy - 1; j <= cy + 1; j++) {
+                for (int k = grid.head(i, j); k >= 0; k = grid.next(k)) {
+                    if (k < row && (first < 0 || k < first)) {
+                        examined++;
+                        if (count ? hits(row, k) : table.intersects(row, k)) first = k;
+                    }
+                }
             }
         }
+        if (count) run.pairChecks += examined;
+        else if (pairs != null) pairs[0] += examined;
+        return first;
+    }
+
+    // Se os barcos tiverem interseccao e um deles nao estiver afundado,
+    // marca para afundar
+    /* default */ void colide(int row, int other) {
+        run.collisions++;
+        markSunk(row);
+        markSunk(other);
+        table.touch(row, other);
+    }
+
+    /* default */ void markSunk(int row) {
+        if (sunkCount == sunkBoats.length) sunkBoats = Arrays.copyOf(sunkBoats, 2 * sunkCount);
+        sunkBoats[sunkCount++] = row;
+    }
+
+    /* default */ SpatialHash grid() { return grid; }
+
+    /* default */ void resetGrid() {
+        grid.reset(cellSize(), table.size());
+    }
+
+    // Barcos afundados nao sao obstaculos e ficam fora do grid
+    /* default */ void insert(int row) {
+        if (table.state[row] == BoatTable.SUNK) return;
+        grid.insert(row, table.x[row], table.y[row]);
+    }
+
+    private void rebuildGrid() {
+        grid.reset(cellSize(), table.size() + 1);
+        for (int k = 0; k < table.size(); k++) insert(k);
+        gridValid = true;
+    }
+
+    // Celula com o diametro maximo, com folga para erros de arredondamento.
+    // Com o teste varrido, dois barcos que se tocaram no passo estao a no
+    // maximo essa distancia mais o que os dois andaram.
+    private double cellSize() {
+        return 2 * maxRadius * (1 + 1e-9) + 2 * sweepReach;
     }
     
-    private void sunkBoats() {
-        while (!sunkBoats.isEmpty()) {
-            Boat boat = sunkBoats.remove(0);
-            boats.remove(boat);
-            boats.add(0, boat);
-            boat.sunk();
+    /* default */ void sunkBoats() {
+        // Um barco marcado mais de uma vez afunda na ordem da ultima marcacao
+        if (lastMark.length < table.size()) lastMark = new int[table.capacity()];
+        for (int i = 0; i < sunkCount; i++) lastMark[sunkBoats[i]] = i;
+        for (int i = 0; i < sunkCount; i++) {
+            if (lastMark[sunkBoats[i]] == i) table.sunk(sunkBoats[i]);
         }
+        sunkCount = 0;
     }
     
 }
@@ -0,0 +1,16 @@
+package base;
+
+/**
+ * LakeListener que ignora todos os eventos, para estender so os necessarios
+ */
+public abstract class LakeAdapter implements LakeListener {
+
+    public void boatAdded(Lake lake, Boat boat) { /* Nothing */ }
+
+    public void boatStuck(Lake lake, Boat boat) { /* Nothing */ }
+
+    public void boatSunk(Lake lake, Boat boat) { /* Nothing */ }
+
+    public void directionChanged(Lake lake, Boat boat) { /* Nothing */ }
+
+}
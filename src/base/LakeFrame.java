@@ -0,0 +1,137 @@
+package base;
+
+import java.util.Arrays;
+
+/**
+ * Copia do estado dos barcos de um lago ao fim de um runTime, para ser lida
+ * por outra thread sem tocar no lago. Cada leitor tem os seus quadros e os
+ * preenche com FrameExchange.read, reaproveitando os arrays.
+ */
+public final class LakeFrame {
+    private long sequence;
+    private double time;
+    private double width;
+    private double height;
+    private int size;
+    private int moving;
+    private int stuck;
+    private int sunk;
+    private double[] x;
+    private double[] y;
+    private double[] radius;
+    private double[] speed;
+    private byte[] state;
+    private Boat[] boats;
+
+    public LakeFrame() {
+        x = y = radius = speed = new double[0];
+        state = new byte[0];
+        boats = new Boat[0];
+    }
+
+    // Copia as colunas usadas para desenhar, reaproveitando os arrays
+    /* default */ void capture(Lake lake, long sequence) {
+        capture(lake, sequence, null, null, 0, 0, 1);
+    }
+
+    /**
+     * Copia o estado do lago com as posicoes interpoladas entre as de um
+     * passo anterior e as atuais
+     * @param previousX posicoes das linhas 0 ate previousSize - 1 no instante
+     *        previousTime, ou null para copiar as atuais
+     * @param alpha fracao do passo, entre 0 (anteriores) e 1 (atuais)
+     */
+    /* default */ void capture(Lake lake, long sequence, double[] previousX, double[] previousY,
+        int previousSize, double previousTime, double alpha) {
+        BoatTable table = lake.table();
+        int n = table.size();
+        reserve(n);
+        System.arraycopy(table.x, 0, x, 0, n);
+        System.arraycopy(table.y, 0, y, 0, n);
+        System.arraycopy(table.radius, 0, radius, 0, n);
+        System.arraycopy(table.speed, 0, speed, 0, n);
+        System.arraycopy(table.state, 0, state, 0, n);
+        // Os barcos sao so referencias para nomes e selecao; nunca mudam de linha
+        for (int k = size; k < n; k++) boats[k] = table.boat(k);
+        this.sequence = sequence;
+        this.size = n;
+        time = lake.getTime();
+        if (previousX != null && alpha < 1) {
+            // Barcos adicionados no ultimo passo ficam na posicao atual
+            for (int k = 0; k < Math.min(previousSize, n); k++) {
+                x[k] = previousX[k] + (x[k] - previousX[k]) * alpha;
+                y[k] = previousY[k] + (y[k] - previousY[k]) * alpha;
+            }
+            time = previousTime + (time - previousTime) * alpha;
+        }
+        width = lake.getWidth();
+        height = lake.getHeight();
+        moving = table.count(BoatTable.MOVING);
+        stuck = table.count(BoatTable.STUCK);
+        sunk = table.count(BoatTable.SUNK);
+    }
+
+    /**
+     * Copia um quadro que a simulacao pode estar reescrevendo. Cada campo e
+     * lido uma vez, e o tamanho e limitado pelos arrays lidos, para que uma
+     * copia misturada nao falhe; quem chama descarta a copia se a versao do
+     * quadro mudou.
+     */
+    /* default */ void copy(LakeFrame from) {
+        double[] x = from.x, y = from.y, radius = from.radius, speed = from.speed;
+        byte[] state = from.state;
+        Boat[] boats = from.boats;
+        int n = Math.min(from.size, Math.min(Math.min(x.length, y.length), Math.min(radius.length, speed.length)));
+        n = Math.max(0, Math.min(n, Math.min(state.length, boats.length)));
+        reserve(n);
+        System.arraycopy(x, 0, this.x, 0, n);
+        System.arraycopy(y, 0, this.y, 0, n);
+        System.arraycopy(radius, 0, this.radius, 0, n);
+        System.arraycopy(speed, 0, this.speed, 0, n);
+        System.arraycopy(state, 0, this.state, 0, n);
+        System.arraycopy(boats, 0, this.boats, 0, n);
+        sequence = from.sequence;
+        size = n;
+        time = from.time;
+        width = from.width;
+        height = from.height;
+        moving = from.moving;
+        stuck = from.stuck;
+        sunk = from.sunk;
+    }
+
+    private void reserve(int n) {
+        if (x.length >= n) return;
+        int capacity = Math.max(n, 2 * x.length);
+        x = new double[capacity];
+        y = new double[capacity];
+        radius = new double[capacity];
+        speed = new double[capacity];
+        state = new byte[capacity];
+        boats = Arrays.copyOf(boats, capacity);
+    }
+
+    /* default */ long sequence() { return sequence; }
+
+    // Numero do quadro, crescente a cada publicacao; 0 antes da primeira
+    public long getSequence() { return sequence; }
+
+    public double getTime() { return time; }
+    public double getWidth() { return width; }
+    public double getHeight() { return height; }
+    public int getMovingCount() { return moving; }
+    public int getStuckCount() { return stuck; }
+    public int getSunkCount() { return sunk; }
+
+    // Numero de barcos, um por linha da tabela do lago
+    public int size() { return size; }
+    public double x(int row) { return x[row]; }
+    public double y(int row) { return y[row]; }
+    public double radius(int row) { return radius[row]; }
+    public double speed(int row) { return speed[row]; }
+    public Boat.State state(int row) { return Boat.state(state[row]); }
+    public boolean isMoving(int row) { return state[row] == BoatTable.MOVING; }
+    public boolean isSunk(int row) { return state[row] == BoatTable.SUNK; }
+    public Boat boat(int row) { return boats[row]; }
+
+}
@@ -0,0 +1,18 @@
+package base;
+
+/**
+ * Recebe as mudancas dos barcos de um lago, publicadas na thread da simulacao
+ * no fim de cada runTime e de cada addBoat, na ordem em que aconteceram.
+ * Mudancas de direcao feitas fora de runTime sao publicadas no proximo.
+ */
+public interface LakeListener {
+
+    void boatAdded(Lake lake, Boat boat);
+
+    void boatStuck(Lake lake, Boat boat);
+
+    void boatSunk(Lake lake, Boat boat);
+
+    void directionChanged(Lake lake, Boat boat);
+
+}
@@ -0,0 +1,16 @@
+package base;
+
+/**
+ * Recebe as medidas de cada runTime de um lago, na thread da simulacao. Sem
+ * metricas instaladas o lago nao mede tempo nem alocacao.
+ */
+public interface LakeMetrics {
+
+    /**
+     * Chamado no fim de cada runTime
+     * @param lake
+     * @param run medidas do runTime, reaproveitadas no proximo
+     */
+    void runTime(Lake lake, RunSample run);
+
+}
@@ -0,0 +1,308 @@
+package base;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Snapshot binario de um lago, para pausar, retomar e bifurcar simulacoes.
+ * Guarda as colunas da tabela de barcos como estao na memoria, e le cada
+ * coluna inteira por um MappedByteBuffer, sem passar objeto por objeto.
+ *
+ * A escrita vai para um arquivo temporario ao lado do destino, que so
+ * substitui o destino depois de gravado no disco: um processo que morre no
+ * meio da escrita deixa o snapshot anterior intacto.
+ *
+ * Formato (little endian): cabecalho de 64 bytes, as 8 colunas double (x, y,
+ * dirX, dirY, speed, maxSpeed, acceleration, radius), a ordem da lista de
+ * barcos, as linhas marcadas para afundar, os inicios dos nomes, a coluna de
+ * estado e os nomes em UTF-8.
+ *
+ * O motor nao faz parte do snapshot: o lago lido usa o SubStepEngine.
+ */
+public final class LakeSnapshot {
+    public static class InvalidSnapshotException extends RuntimeException {
+        public InvalidSnapshotException(String message) { super(message); }
+    }
+
+    // "LAKE"
+    private static final int MAGIC = 0x4c414b45;
+    private static final int VERSION = 1;
+    private static final int HEADER = 64;
+    // Buffer de cada secao gravada
+    private static final int BUFFER = 1 << 14;
+
+    // Suppress default constructor for noninstantiability
+    private LakeSnapshot() {
+        throw new AssertionError("Cannot instantiate " + this.getClass());
+    }
+
+    /**
+     * Escreve o lago no arquivo, substituindo o que houver. Deve ser chamado
+     * entre dois runTime.
+     * @param lake
+     * @param path
+     */
+    public static void write(Lake lake, Path path) throws IOException {
+        BoatTable table = lake.table();
+        int[] sunk = new int[table.sunkTotal()];
+        for (int i = 0; i < sunk.length; i++) sunk[i] = table.sunkRow(i);
+        int[] pending = new int[lake.pendingSunk()];
+        for (int i = 0; i < pending.length; i++) pending[i] = lake.pendingSunk(i);
+        Writer writer = new Writer(path, lake.getWidth(), lake.getHeight(), lake.getTime(), table.size(), sunk, pending);
+        try {
+            for (int k = 0; k < table.size(); k++) writer.add(table, k, table.boat(k).getName());
+            writer.commit();
+        } finally {
+            writer.close();
+        }
+    }
+
+    /**
+     * Le um lago escrito por write
+     * @param path
+     */
+    public static Lake read(Path path) throws IOException {
+        FileChannel channel = FileChannel.open(path, StandardOpenOption.READ);
+        try {
+            if (channel.size() < HEADER) throw new InvalidSnapshotException("truncated header");
+            ByteBuffer header = map(channel, FileChannel.MapMode.READ_ONLY, 0, HEADER);
+            if (header.getInt() != MAGIC) throw new InvalidSnapshotException("not a lake snapshot");
+            int version = header.getInt();
+            if (version != VERSION) throw new InvalidSnapshotException("unsupported version " + version);
+            int n = header.getInt();
+            int pending = header.getInt();
+            long nameBytes = header.getLong();
+            if (n < 0 || pending < 0 || nameBytes < 0 || nameBytes > Integer.MAX_VALUE) {
+                throw new InvalidSnapshotException("invalid counts");
+            }
+            Lake lake = new Lake(header.getDouble(), header.getDouble());
+            double time = header.getDouble();
+            long size = HEADER + 8L * 8 * n + 4L * n + 4L * pending + 4L * (n + 1) + n + nameBytes;
+            if (channel.size() != size) throw new InvalidSnapshotException("expected " + size + " bytes");
+
+            BoatTable table = lake.table();
+            table.reserve(n);
+            long position = HEADER + 8L * 8 * n;
+            ByteBuffer order = map(channel, FileChannel.MapMode.READ_ONLY, position, 4L * n);
+            position += 4L * n;
+            int[] sunk = new int[pending];
+            map(channel, FileChannel.MapMode.READ_ONLY, position, 4L * pending).asIntBuffer().get(sunk);
+            for (int row : sunk) {
+                if (row < 0 || row >= n) throw new InvalidSnapshotException("pending row " + row + " out of range");
+            }
+            position += 4L * pending;
+            int[] offsets = new int[n + 1];
+            map(channel, FileChannel.MapMode.READ_ONLY, position, 4L * (n + 1)).asIntBuffer().get(offsets);
+            if (offsets[0] != 0 || offsets[n] != nameBytes) throw new InvalidSnapshotException("invalid name offsets");
+            for (int k = 0; k < n; k++) {
+                if (offsets[k + 1] < offsets[k]) throw new InvalidSnapshotException("invalid name offsets");
+            }
+            position += 4L * (n + 1) + n;
+            byte[] text = new byte[(int) nameBytes];
+            map(channel, FileChannel.MapMode.READ_ONLY, position, nameBytes).get(text);
+            for (int k = 0; k < n; k++) {
+                new Boat(new String(text, offsets[k], offsets[k + 1] - offsets[k], StandardCharsets.UTF_8), table);
+            }
+
+            position = HEADER;
+            for (double[] column : columns(table)) {
+                map(channel, FileChannel.MapMode.READ_ONLY, position, 8L * n).asDoubleBuffer().get(column, 0, n);
+                position += 8L * n;
+            }
+            position += 4L * n + 4L * pending + 4L * (n + 1);
+            map(channel, FileChannel.MapMode.READ_ONLY, position, n).get(table.state, 0, n);
+            int sunkTotal = 0;
+            for (int k = 0; k < n; k++) {
+                byte state = table.state[k];
+                if (state != BoatTable.MOVING && state != BoatTable.STUCK && state != BoatTable.SUNK) {
+                    throw new InvalidSnapshotException("invalid state " + state + " in row " + k);
+                }
+                if (state == BoatTable.SUNK) sunkTotal++;
+            }
+            // A ordem e uma permutacao das linhas com os afundados na frente
+            Boat[] boats = new Boat[n];
+            boolean[] listed = new boolean[n];
+            for (int i = 0; i < n; i++) {
+                int row = order.getInt();
+                if (row < 0 || row >= n || listed[row]) throw new InvalidSnapshotException("invalid boat order");
+                if ((table.state[row] == BoatTable.SUNK) != (i < sunkTotal)) {
+                    throw new InvalidSnapshotException("sunk boats must come first in the boat order");
+                }
+                listed[row] = true;
+                boats[i] = table.boat(row);
+            }
+            lake.restore(boats, sunk, time);
+            return lake;
+        } finally {
+            channel.close();
+        }
+    }
+
+    private static double[][] columns(BoatTable table) {
+        return new double[][] {
+            table.x, table.y, table.dirX, table.dirY,
+            table.speed, table.maxSpeed, table.acceleration, table.radius
+        };
+    }
+
+    /**
+     * Grava um snapshot linha por linha, sem a tabela inteira na memoria: cada
+     * secao do arquivo tem o seu buffer e a sua posicao, e o cabecalho vai por
+     * ultimo. As linhas devem ser dadas todas, em ordem; a lista de barcos e a
+     * de Lake.getBoats, os afundados primeiro, o ultimo a afundar na frente.
+     * Como em write, o destino so e substituido por commit.
+     */
+    /* default */ static final class Writer implements Closeable {
+        private final Path path;
+        private final Path temporary;
+        private final FileChannel channel;
+        private final double width, height, time;
+        private final int n;
+        private final int sunkTotal;
+        private final int pending;
+        private final Section[] columns;
+        private final Section order, offsets, states, names;
+        private int rows;
+        private int sunk;
+        private long nameBytes;
+
+        /**
+         * @param sunkOrder linhas afundadas, na ordem em que afundaram
+         * @param pending linhas marcadas para afundar no proximo runTime
+         */
+        /* default */ Writer(Path path, double width, double height, double time, int n, int[] sunkOrder,
+            int[] pending) throws IOException {
+            this.path = path;
+            this.width = width;
+            this.height = height;
+            this.time = time;
+            this.n = n;
+            this.sunkTotal = sunkOrder.length;
+            this.pending = pending.length;
+            temporary = path.resolveSibling(path.getFileName() + ".tmp");
+            channel = FileChannel.open(temporary, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING);
+            long position = HEADER;
+            columns = new Section[8];
+            for (int c = 0; c < columns.length; c++) {
+                columns[c] = new Section(channel, position);
+                position += 8L * n;
+            }
+            order = new Section(channel, position);
+            position += 4L * n;
+            Section marked = new Section(channel, position);
+            for (int row : pending) marked.room(4).putInt(row);
+            marked.flush();
+            position += 4L * pending.length;
+            offsets = new Section(channel, position);
+            position += 4L * (n + 1);
+            states = new Section(channel, position);
+            names = new Section(channel, position + n);
+            // Os afundados vem antes dos outros na lista de barcos
+            for (int i = sunkTotal - 1; i >= 0; i--) order.room(4).putInt(sunkOrder[i]);
+        }
+
+        /**
+         * Grava a linha row da tabela como a proxima linha do snapshot
+         */
+        /* default */ void add(BoatTable table, int row, String name) throws IOException {
+            if (rows == n) throw new InvalidSnapshotException("more than " + n + " rows");
+            columns[0].room(8).putDouble(table.x[row]);
+            columns[1].room(8).putDouble(table.y[row]);
+            columns[2].room(8).putDouble(table.dirX[row]);
+            columns[3].room(8).putDouble(table.dirY[row]);
+            columns[4].room(8).putDouble(table.speed[row]);
+            columns[5].room(8).putDouble(table.maxSpeed[row]);
+            columns[6].room(8).putDouble(table.acceleration[row]);
+            columns[7].room(8).putDouble(table.radius[row]);
+            if (table.state[row] == BoatTable.SUNK) sunk++;
+            else order.room(4).putInt(rows);
+            states.room(1).put(table.state[row]);
+            byte[] bytes = name.getBytes(StandardCharsets.UTF_8);
+            offsets.room(4).putInt((int) nameBytes);
+            nameBytes += bytes.length;
+            if (nameBytes > Integer.MAX_VALUE) throw new InvalidSnapshotException("names too long");
+            names.put(bytes);
+            rows++;
+        }
+
+        /**
+         * Completa o arquivo e o poe no lugar do destino
+         */
+        /* default */ void commit() throws IOException {
+            if (rows != n) throw new InvalidSnapshotException(rows + " of " + n + " rows written");
+            if (sunk != sunkTotal) throw new InvalidSnapshotException(sunk + " sunk rows, expected " + sunkTotal);
+            offsets.room(4).putInt((int) nameBytes);
+            for (Section column : columns) column.flush();
+            order.flush();
+            offsets.flush();
+            states.flush();
+            names.flush();
+            Section header = new Section(channel, 0);
+            header.room(HEADER).putInt(MAGIC).putInt(VERSION).putInt(n).putInt(pending).putLong(nameBytes)
+                .putDouble(width).putDouble(height).putDouble(time).put(new byte[HEADER - 48]);
+            header.flush();
+            channel.force(true);
+            channel.close();
+            Files.move(temporary, path, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        }
+
+        /**
+         * Descarta o arquivo temporario se commit nao foi chamado ou falhou
+         */
+        public void close() throws IOException {
+            try {
+                channel.close();
+            } finally {
+                Files.deleteIfExists(temporary);
+            }
+        }
+    }
+
+    // Trecho do arquivo gravado em blocos a partir de uma posicao
+    private static final class Section {
+        private final FileChannel channel;
+        private final ByteBuffer buffer;
+        private long position;
+
+        private Section(FileChannel channel, long position) {
+            this.channel = channel;
+            this.position = position;
+            buffer = ByteBuffer.allocate(BUFFER).order(ByteOrder.LITTLE_ENDIAN);
+        }
+
+        // O buffer com pelo menos bytes livres
+        private ByteBuffer room(int bytes) throws IOException {
+            if (buffer.remaining() < bytes) flush();
+            return buffer;
+        }
+
+        private void put(byte[] bytes) throws IOException {
+            for (int i = 0; i < bytes.length;) {
+                int count = Math.min(bytes.length - i, room(1).remaining());
+                buffer.put(bytes, i, count);
+                i += count;
+            }
+        }
+
+        private void flush() throws IOException {
+            buffer.flip();
+            while (buffer.hasRemaining()) position += channel.write(buffer, position);
+            buffer.clear();
+        }
+    }
+
+    private static ByteBuffer map(FileChannel channel, FileChannel.MapMode mode, long position, long size)
+        throws IOException {
+        return channel.map(mode, position, size).order(ByteOrder.LITTLE_ENDIAN);
+    }
+
+}
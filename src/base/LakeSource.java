@@ -0,0 +1,14 @@
+package base;
+
+import java.io.IOException;
+
+/**
+ * Cria, num PartitionWorker, o lago de onde ele tira os barcos da sua regiao,
+ * a partir da descricao mandada pelo coordenador. A mesma descricao deve dar
+ * o mesmo lago em todos os workers.
+ */
+public interface LakeSource {
+
+    Lake create(String description) throws IOException;
+
+}
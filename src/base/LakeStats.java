@@ -0,0 +1,124 @@
+package base;
+
+import java.lang.management.ManagementFactory;
+import java.util.Locale;
+
+import javax.management.JMException;
+import javax.management.ObjectName;
+
+import utils.Histogram;
+
+/**
+ * Metricas acumuladas de um lago: totais dos contadores, histogramas da
+ * duracao dos sub-passos e dos runTime e o estado do ultimo runTime. Pode ser
+ * registrada no servidor JMX da plataforma, e grava um RunTimeEvent no Flight
+ * Recorder a cada runTime quando o evento esta habilitado.
+ *
+ * A simulacao grava e qualquer thread le; os metodos sao sincronizados.
+ */
+public class LakeStats implements LakeMetrics, LakeStatsMXBean {
+    private final Histogram steps;
+    private final Histogram runs;
+    private long runTimes;
+    private long subSteps;
+    private long pairChecks;
+    private long collisions;
+    private long allocated;
+    private long allocatedSteps;
+    private int moving;
+    private int stuck;
+    private int sunk;
+    private double time;
+
+    public static class RegistrationException extends RuntimeException {
+        public RegistrationException(Throwable cause) { super(cause); }
+    }
+
+    public LakeStats() {
+        steps = new Histogram();
+        runs = new Histogram();
+    }
+
+    /**
+     * Registra no servidor JMX da plataforma como lake:type=LakeStats,name=name
+     * @param name
+     */
+    public void register(String name) {
+        try {
+            ObjectName object = new ObjectName("lake:type=LakeStats,name=" + ObjectName.quote(name));
+            ManagementFactory.getPlatformMBeanServer().registerMBean(this, object);
+        } catch (JMException e) {
+            throw new RegistrationException(e);
+        }
+    }
+
+    public synchronized void runTime(Lake lake, RunSample run) {
+        runTimes++;
+        subSteps += run.getSubSteps();
+        pairChecks += run.getPairChecks();
+        collisions += run.getCollisions();
+        if (run.getAllocatedBytes() >= 0) {
+            allocated += run.getAllocatedBytes();
+            allocatedSteps += Math.max(1, run.getSubSteps());
+        }
+        moving = run.getMovingCount();
+        stuck = run.getStuckCount();
+        sunk = run.getSunkCount();
+        time = lake.getTime();
+        for (int i = 0; i < run.getSubSteps(); i++) steps.record(run.getStepNanos(i));
+        runs.record(run.getNanos());
+        RunTimeEvent event = new RunTimeEvent();
+        if (event.shouldCommit()) {
+            event.simulationTime = time;
+            event.timeDelta = run.getTimeDelta();
+            event.subSteps = run.getSubSteps();
+            event.pairChecks = run.getPairChecks();
+            event.collisions = run.getCollisions();
+            event.moving = moving;
+            event.stuck = stuck;
+            event.sunk = sunk;
+            event.nanos = run.getNanos();
+            event.allocated = run.getAllocatedBytes();
+            event.commit();
+        }
+    }
+
+    public synchronized long getRunTimes() { return runTimes; }
+    public synchronized long getSubSteps() { return subSteps; }
+    public synchronized long getPairChecks() { return pairChecks; }
+    public synchronized long getCollisions() { return collisions; }
+    public synchronized int getMovingCount() { return moving; }
+    public synchronized int getStuckCount() { return stuck; }
+    public synchronized int getSunkCount() { return sunk; }
+    public synchronized double getSimulationTime() { return time; }
+
+    public synchronized double getAllocatedBytesPerStep() {
+        return allocatedSteps == 0 ? -1 : (double) allocated / allocatedSteps;
+    }
+
+    public synchronized double getStepMeanMicros() { return steps.getMean() / 1e3; }
+    public synchronized double getStepP50Micros() { return steps.getPercentile(50) / 1e3; }
+    public synchronized double getStepP99Micros() { return steps.getPercentile(99) / 1e3; }
+    public synchronized double getStepMaxMicros() { return steps.getMax() / 1e3; }
+    public synchronized double getRunTimeP50Micros() { return runs.getPercentile(50) / 1e3; }
+    public synchronized double getRunTimeP99Micros() { return runs.getPercentile(99) / 1e3; }
+    public synchronized double getRunTimeMaxMicros() { return runs.getMax() / 1e3; }
+
+    public synchronized void reset() {
+        steps.reset();
+        runs.reset();
+        runTimes = subSteps = pairChecks = collisions = allocated = allocatedSteps = 0;
+    }
+
+    // Resumo no formato chave=valor, tempos em microssegundos
+    public synchronized String toString() {
+        return String.format(Locale.ROOT, "runTimes=%d subSteps=%d pairChecks=%d collisions=%d " +
+            "stepP50=%.1f stepP99=%.1f stepMax=%.1f runTimeP50=%.1f runTimeP99=%.1f runTimeMax=%.1f " +
+            "bytesPerStep=%.0f",
+            runTimes, subSteps, pairChecks, collisions,
+            getStepP50Micros(), getStepP99Micros(), getStepMaxMicros(),
+            getRunTimeP50Micros(), getRunTimeP99Micros(), getRunTimeMaxMicros(),
+            getAllocatedBytesPerStep());
+    }
+
+}
@@ -0,0 +1,28 @@
+package base;
+
+/**
+ * Visao JMX de LakeStats. Tempos em microssegundos.
+ */
+public interface LakeStatsMXBean {
+
+    long getRunTimes();
+    long getSubSteps();
+    long getPairChecks();
+    long getCollisions();
+    int getMovingCount();
+    int getStuckCount();
+    int getSunkCount();
+    double getSimulationTime();
+    // Bytes alocados pela thread da simulacao por sub-passo, -1 sem medida
+    double getAllocatedBytesPerStep();
+    double getStepMeanMicros();
+    double getStepP50Micros();
+    double getStepP99Micros();
+    double getStepMaxMicros();
+    double getRunTimeP50Micros();
+    double getRunTimeP99Micros();
+    double getRunTimeMaxMicros();
+
+    void reset();
+
+}
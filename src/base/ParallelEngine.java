@@ -0,0 +1,179 @@
+package base;
+
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Versao paralela do SubStepEngine. Em cada passo os barcos se movem em blocos
+ * num ForkJoinPool e cada um procura em paralelo o primeiro barco anterior com
+ * que colide. As colisoes sao aplicadas depois, em ordem, e so os barcos perto
+ * de um barco reposicionado refazem a busca, entao o resultado e identico bit
+ * a bit ao do motor serial.
+ *
+ * Os blocos sao contados em barcos que nao afundaram, e nao em linhas da
+ * tabela: conforme os barcos afundam cada bloco continua com o mesmo trabalho,
+ * e o tamanho do bloco diminui para que cada thread tenha varios blocos para
+ * dividir com as outras por roubo de tarefas.
+ *
+ * Os pares comparados sao somados por bloco e juntados num LongAdder, e
+ * entram nas medidas do lago como no motor serial.
+ *
+ * O pool pode ser compartilhado entre motores, e por padrao e o
+ * ForkJoinPool.commonPool(). Um motor criado com um numero de threads tem o
+ * seu proprio pool, encerrado por close.
+ */
+public final class ParallelEngine extends SubStepEngine implements AutoCloseable {
+    private static final int CHUNK = 2048;
+    private static final int MIN_CHUNK = 128;
+    // Blocos por thread, para o roubo de tarefas equilibrar as threads
+    private static final int CHUNKS_PER_THREAD = 4;
+    private static final int MOVE = 0;
+    private static final int DETECT = 1;
+
+    private final ForkJoinPool pool;
+    // Se o pool foi criado por este motor e deve ser encerrado por close
+    private final boolean owned;
+    private int[] candidates;
+    private boolean[] recheck;
+    // Linhas que nao afundaram, em ordem crescente; so mudam no fim de runTime
+    private int[] live;
+    private int liveCount;
+    private BoatTable liveTable;
+    private int liveSize;
+    private int liveSunk;
+    private int chunk;
+    private final LongAdder pairs;
+    // Estado do passo em andamento, lido pelas tarefas
+    private Lake lake;
+    private double dt;
+
+    public ParallelEngine() {
+        this(ForkJoinPool.commonPool(), false);
+    }
+
+    /**
+     * Motor que usa um pool compartilhado, que nao e encerrado por close
+     * @param pool
+     */
+    public ParallelEngine(ForkJoinPool pool) {
+        this(pool, false);
+    }
+
+    /**
+     * Motor com um pool proprio de threads threads, encerrado por close
+     * @param threads
+     */
+    public ParallelEngine(int threads) {
+        this(new ForkJoinPool(threads), true);
+    }
+
+    private ParallelEngine(ForkJoinPool pool, boolean owned) {
+        this.pool = pool;
+        this.owned = owned;
+        candidates = new int[0];
+        recheck = new boolean[0];
+        live = new int[0];
+        pairs = new LongAdder();
+    }
+
+    public int getThreads() { return pool.getParallelism(); }
+
+    /**
+     * Encerra o pool, se ele for deste motor
+     */
+    public void close() {
+        if (owned) pool.shutdown();
+    }
+
+    /* default */ void step(Lake lake, double dt) {
+        BoatTable table = lake.table();
+        int n = table.size();
+        if (candidates.length < n) {
+            candidates = new int[n];
+            recheck = new boolean[n];
+        }
+        if (table != liveTable || n != liveSize || table.count(BoatTable.SUNK) != liveSunk) collectLive(table);
+        this.lake = lake;
+        this.dt = dt;
+        chunk = Math.max(MIN_CHUNK, Math.min(CHUNK, liveCount / (CHUNKS_PER_THREAD * pool.getParallelism())));
+        pool.invoke(new Pass(MOVE, 0, liveCount));
+        SpatialHash grid = lake.grid();
+        lake.resetGrid();
+        for (int i = 0; i < liveCount; i++) lake.insert(live[i]);
+        pool.invoke(new Pass(DETECT, 0, liveCount));
+        Arrays.fill(recheck, 0, n, false);
+        long[] examined = { pairs.sumThenReset() };
+        // Aplica as colisoes na ordem da lista, como o motor serial
+        for (int i = 0; i < liveCount; i++) {
+            int k = live[i];
+            if (recheck[k]) candidates[k] = lake.previousColision(k, examined);
+            int other = candidates[k];
+            if (other < 0) continue;
+            double x = table.x[k];
+            double y = table.y[k];
+            lake.colide(k, other);
+            grid.remove(k, x, y);
+            grid.insert(k, table.x[k], table.y[k]);
+            // Os barcos seguintes perto das duas posicoes podem ter outro resultado
+            recheck(grid, k, x, y);
+            recheck(grid, k, table.x[k], table.y[k]);
+        }
+        lake.countPairChecks(examined[0]);
+        this.lake = null;
+    }
+
+    private void collectLive(BoatTable table) {
+        int n = table.size();
+        if (live.length < n) live = new int[table.capacity()];
+        liveCount = 0;
+        for (int k = 0; k < n; k++) {
+            if (table.state[k] != BoatTable.SUNK) live[liveCount++] = k;
+        }
+        liveTable = table;
+        liveSize = n;
+        liveSunk = table.count(BoatTable.SUNK);
+    }
+
+    private void recheck(SpatialHash grid, int row, double x, double y) {
+        int cx = grid.cell(x);
+        int cy = grid.cell(y);
+        for (int i = cx - 1; i <= cx + 1; i++) {
+            for (int j = cy - 1; j <= cy + 1; j++) {
+                for (int k = grid.head(i, j); k >= 0; k = grid.next(k)) {
+                    if (k > row) recheck[k] = true;
+                }
+            }
+        }
+    }
+
+    private final class Pass extends RecursiveAction {
+        private final int phase;
+        private final int from;
+        private final int to;
+
+        private Pass(int phase, int from, int to) {
+            this.phase = phase;
+            this.from = from;
+            this.to = to;
+        }
+
+        protected void compute() {
+            if (to - from > chunk) {
+                int mid = (from + to) >>> 1;
+                invokeAll(new Pass(phase, from, mid), new Pass(phase, mid, to));
+                return;
+            }
+            BoatTable table = lake.table();
+            if (phase == MOVE) {
+                for (int i = from; i < to; i++) table.move(live[i], dt);
+            } else {
+                long[] examined = new long[1];
+                for (int i = from; i < to; i++) candidates[live[i]] = lake.previousColision(live[i], examined);
+                pairs.add(examined[0]);
+            }
+        }
+    }
+
+}
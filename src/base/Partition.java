@@ -0,0 +1,222 @@
+package base;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Comparator;
+
+/**
+ * Divisao do lago em regioes retangulares, uma por worker de um
+ * PartitionedLake. As regioes nao se sobrepoem e cobrem o plano inteiro: as
+ * da borda se estendem ate o infinito, entao todo ponto tem um dono. Cada
+ * regiao contem a borda inferior e a esquerda.
+ */
+public final class Partition {
+    private final double[] minX;
+    private final double[] maxX;
+    private final double[] minY;
+    private final double[] maxY;
+
+    public static class InvalidPartitionException extends RuntimeException {
+        public InvalidPartitionException(String message) { super(message); }
+    }
+
+    private Partition(double[] minX, double[] maxX, double[] minY, double[] maxY) {
+        this.minX = minX;
+        this.maxX = maxX;
+        this.minY = minY;
+        this.maxY = maxY;
+    }
+
+    /**
+     * Divide um lago width x height centrado na origem em columns x rows
+     * retangulos iguais, numerados linha a linha a partir do canto inferior
+     * esquerdo
+     * @param width
+     * @param height
+     * @param columns
+     * @param rows
+     */
+    public static Partition grid(double width, double height, int columns, int rows) {
+        if (columns < 1 || rows < 1) throw new InvalidPartitionException("columns and rows must be >= 1");
+        int n = columns * rows;
+        double[] minX = new double[n], maxX = new double[n], minY = new double[n], maxY = new double[n];
+        for (int j = 0; j < rows; j++) {
+            for (int i = 0; i < columns; i++) {
+                int r = j * columns + i;
+                minX[r] = i == 0 ? Double.NEGATIVE_INFINITY : -width / 2 + i * width / columns;
+                maxX[r] = i == columns - 1 ? Double.POSITIVE_INFINITY : -width / 2 + (i + 1) * width / columns;
+                minY[r] = j == 0 ? Double.NEGATIVE_INFINITY : -height / 2 + j * height / rows;
+                maxY[r] = j == rows - 1 ? Double.POSITIVE_INFINITY : -height / 2 + (j + 1) * height / rows;
+            }
+        }
+        return new Partition(minX, maxX, minY, maxY);
+    }
+
+    /**
+     * Divide o lago para n workers numa grade o mais quadrada possivel
+     * @param width
+     * @param height
+     * @param n
+     */
+    public static Partition grid(double width, double height, int n) {
+        int columns = (int) Math.ceil(Math.sqrt(n * width / height));
+        columns = Math.max(1, Math.min(n, columns));
+        while (n % columns != 0) columns--;
+        return grid(width, height, columns, n / columns);
+    }
+
+    /**
+     * Divide um lago width x height centrado na origem em regions regioes de
+     * custo parecido, por cortes k-d: cada corte e feito no eixo em que os
+     * pontos estao mais espalhados, na mediana ponderada que deixa de cada
+     * lado o custo proporcional ao numero de regioes desse lado
+     * @param width
+     * @param height
+     * @param x posicoes de uma amostra dos barcos
+     * @param y
+     * @param cost custo estimado de cada ponto, maior que zero
+     * @param count numero de pontos
+     * @param regions
+     */
+    public static Partition split(double width, double height, double[] x, double[] y, double[] cost,
+        int count, int regions) {
+        if (regions < 1) throw new InvalidPartitionException("regions must be >= 1");
+        Integer[] points = new Integer[count];
+        for (int i = 0; i < count; i++) points[i] = i;
+        double[] minX = new double[regions], maxX = new double[regions];
+        double[] minY = new double[regions], maxY = new double[regions];
+        Partition partition = new Partition(minX, maxX, minY, maxY);
+        partition.split(width, height, x, y, cost, points, 0, count, 0, regions,
+            Double.NEGATIVE_INFINITY, Double.POSITIVE_INFINITY, Double.NEGATIVE_INFINITY, Double.POSITIVE_INFINITY);
+        return partition;
+    }
+
+    // Preenche as regioes first ate first + regions - 1 dividindo o retangulo
+    // entre os pontos points[from..to)
+    private void split(double width, double height, final double[] x, final double[] y, double[] cost,
+        Integer[] points, int from, int to, int first, int regions,
+        double left, double right, double bottom, double top) {
+        if (regions == 1) {
+            minX[first] = left;
+            maxX[first] = right;
+            minY[first] = bottom;
+            maxY[first] = top;
+            return;
+        }
+        int lower = regions / 2;
+        // Sem pontos o retangulo e dividido ao meio, dentro do lago
+        double spanX = Math.min(right, width / 2) - Math.max(left, -width / 2);
+        double spanY = Math.min(top, height / 2) - Math.max(bottom, -height / 2);
+        double lowX = Double.POSITIVE_INFINITY, highX = Double.NEGATIVE_INFINITY;
+        double lowY = Double.POSITIVE_INFINITY, highY = Double.NEGATIVE_INFINITY;
+        double total = 0;
+        for (int i = from; i < to; i++) {
+            int p = points[i];
+            lowX = Math.min(lowX, x[p]);
+            highX = Math.max(highX, x[p]);
+            lowY = Math.min(lowY, y[p]);
+            highY = Math.max(highY, y[p]);
+            total += cost[p];
+        }
+        if (to - from >= 2) {
+            spanX = highX - lowX;
+            spanY = highY - lowY;
+        }
+        final boolean vertical = spanX >= spanY;
+        Arrays.sort(points, from, to, new Comparator<Integer>() {
+            public int compare(Integer a, Integer b) {
+                return vertical ? Double.compare(x[a], x[b]) : Double.compare(y[a], y[b]);
+            }
+        });
+        double low = vertical ? left : bottom;
+        double high = vertical ? right : top;
+        double cut = ((vertical ? Math.max(left, -width / 2) : Math.max(bottom, -height / 2)) +
+            (vertical ? Math.min(right, width / 2) : Math.min(top, height / 2))) / 2;
+        int middle = from;
+        if (to > from) {
+            double target = total * lower / regions;
+            double sum = 0;
+            while (middle < to - 1 && sum + cost[points[middle]] <= target) sum += cost[points[middle++]];
+            double before = middle > from ? coordinate(x, y, points[middle - 1], vertical) : low;
+            double after = coordinate(x, y, points[middle], vertical);
+            cut = middle > from ? (before + after) / 2 : after;
+        }
+        // O corte fica dentro do retangulo, para nenhuma regiao ficar vazia
+        if (!(cut > low && cut < high)) cut = Double.isInfinite(low) ? high - 1 : Double.isInfinite(high) ? low + 1 :
+            (low + high) / 2;
+        if (vertical) {
+            split(width, height, x, y, cost, points, from, middle, first, lower, left, cut, bottom, top);
+            split(width, height, x, y, cost, points, middle, to, first + lower, regions - lower, cut, right, bottom, top);
+        } else {
+            split(width, height, x, y, cost, points, from, middle, first, lower, left, right, bottom, cut);
+            split(width, height, x, y, cost, points, middle, to, first + lower, regions - lower, left, right, cut, top);
+        }
+    }
+
+    private static double coordinate(double[] x, double[] y, int point, boolean vertical) {
+        return vertical ? x[point] : y[point];
+    }
+
+    public int regions() { return minX.length; }
+
+    /**
+     * Regiao que contem o ponto
+     * @param x
+     * @param y
+     */
+    public int owner(double x, double y) {
+        for (int r = 0; r < minX.length; r++) {
+            if (minX[r] <= x && x < maxX[r] && minY[r] <= y && y < maxY[r]) return r;
+        }
+        // Pontos NaN nao caem em nenhuma regiao
+        return 0;
+    }
+
+    // Distancia do ponto ate a regiao, zero dentro dela
+    /* default */ double distance(int region, double x, double y) {
+        double dx = Math.max(0, Math.max(minX[region] - x, x - maxX[region]));
+        double dy = Math.max(0, Math.max(minY[region] - y, y - maxY[region]));
+        return Math.sqrt(dx * dx + dy * dy);
+    }
+
+    // Se o ponto esta na regiao a mais de margin de todas as outras
+    /* default */ boolean inside(int region, double x, double y, double margin) {
+        return minX[region] + margin <= x && x < maxX[region] - margin &&
+            minY[region] + margin <= y && y < maxY[region] - margin;
+    }
+
+    /* default */ void write(DataOutput out) throws IOException {
+        out.writeInt(minX.length);
+        for (int r = 0; r < minX.length; r++) {
+            out.writeDouble(minX[r]);
+            out.writeDouble(maxX[r]);
+            out.writeDouble(minY[r]);
+            out.writeDouble(maxY[r]);
+        }
+    }
+
+    /* default */ static Partition read(DataInput in) throws IOException {
+        int n = in.readInt();
+        double[] minX = new double[n], maxX = new double[n], minY = new double[n], maxY = new double[n];
+        for (int r = 0; r < n; r++) {
+            minX[r] = in.readDouble();
+            maxX[r] = in.readDouble();
+            minY[r] = in.readDouble();
+            maxY[r] = in.readDouble();
+        }
+        return new Partition(minX, maxX, minY, maxY);
+    }
+
+    public String toString() {
+        StringBuilder text = new StringBuilder();
+        for (int r = 0; r < minX.length; r++) {
+            if (r > 0) text.append(' ');
+            text.append('[').append(minX[r]).append(',').append(maxX[r]).append(")x[")
+                .append(minY[r]).append(',').append(maxY[r]).append(')');
+        }
+        return text.toString();
+    }
+
+}
@@ -0,0 +1,606 @@
+package base;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInput;
+import java.io.DataInputStream;
+import java.io.DataOutput;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.net.Socket;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Worker de um PartitionedLake: guarda os barcos de uma regiao do lago e
+ * atende os pedidos do coordenador, um de cada vez, ate receber CLOSE. A cada
+ * passo move os seus barcos, manda a faixa perto da borda para os vizinhos e,
+ * com os barcos vizinhos recebidos, encontra os grupos de barcos que podem
+ * colidir; so esses grupos vao para o coordenador, que aplica as colisoes na
+ * ordem da tabela do lago.
+ *
+ * Os barcos sao identificados pela linha que tem no lago original, e levam o
+ * nome junto quando mudam de worker. O tempo gasto atendendo os pedidos de
+ * cada runTime vai para o coordenador, que pode redividir o lago para
+ * equilibrar os workers.
+ *
+ * Os barcos vem do coordenador (LOAD) ou do proprio worker (BUILD e SHARD):
+ * cada worker cria o lago inteiro pelo LakeSource, a partir da descricao
+ * mandada pelo coordenador, fica so com os barcos da sua regiao e descarta o
+ * resto, e o coordenador nunca guarda a frota.
+ */
+public final class PartitionWorker {
+    /* default */ static final byte LOAD = 1;
+    /* default */ static final byte STEP = 2;
+    /* default */ static final byte HALO = 3;
+    /* default */ static final byte SEEDS = 4;
+    /* default */ static final byte COLLECT = 5;
+    /* default */ static final byte RESULT = 6;
+    /* default */ static final byte END = 7;
+    /* default */ static final byte IMMIGRATE = 8;
+    /* default */ static final byte FETCH = 9;
+    /* default */ static final byte CLOSE = 10;
+    /* default */ static final byte SAMPLE = 11;
+    /* default */ static final byte PARTITION = 12;
+    /* default */ static final byte BUILD = 13;
+    /* default */ static final byte SHARD = 14;
+
+    private static final int[] NONE = new int[0];
+    private static final ThreadMXBean THREADS = ManagementFactory.getThreadMXBean();
+
+    private final Socket socket;
+    private final LakeSource source;
+    // Lago criado por BUILD, ate SHARD tirar dele a regiao
+    private Lake built;
+    private final DataInputStream in;
+    private final DataOutputStream out;
+    private int self;
+    private Partition partition;
+    private double width;
+    private double height;
+    // Celula do grid, o diametro maximo, e alcance de um grupo de colisao
+    private double cell;
+    private double reach;
+    private BoatTable table;
+    // Linha no lago original e nome de cada linha local
+    private int[] global;
+    private String[] names;
+    private final Map<Integer, Integer> local;
+    // Barcos de outras regioes a menos de reach desta; no grid ficam depois
+    // dos proprios
+    private int haloCount;
+    private int[] haloRow;
+    private int[] haloOwner;
+    private double[] haloX;
+    private double[] haloY;
+    private double[] haloRadius;
+    private final SpatialHash grid;
+    // Barcos, proprios ou vizinhos, em algum grupo de colisao do passo
+    private boolean[] involved;
+    private int[] queue;
+    private int[] reached;
+    private int reachedCount;
+    // Tempo de processador gasto atendendo pedidos desde o ultimo END, em
+    // nanossegundos
+    private long busy;
+    // Barcos afundados, fora dos lacos de cada passo
+    private BoatTable wrecks;
+    private int[] wreckGlobal;
+    private String[] wreckNames;
+
+    public static class ProtocolException extends RuntimeException {
+        public ProtocolException(String message) { super(message); }
+    }
+
+    /**
+     * Worker que so recebe os barcos do coordenador, sem BUILD
+     * @param socket
+     */
+    public PartitionWorker(Socket socket) throws IOException {
+        this(socket, null);
+    }
+
+    /**
+     * @param socket
+     * @param source cria o lago pedido por BUILD
+     */
+    public PartitionWorker(Socket socket, LakeSource source) throws IOException {
+        this.socket = socket;
+        this.source = source;
+        socket.setTcpNoDelay(true);
+        in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+        out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+        table = new BoatTable(16);
+        global = new int[16];
+        names = new String[16];
+        wrecks = new BoatTable(16);
+        wreckGlobal = new int[16];
+        wreckNames = new String[16];
+        local = new HashMap<Integer, Integer>();
+        haloRow = new int[0];
+        haloOwner = new int[0];
+        haloX = new double[0];
+        haloY = new double[0];
+        haloRadius = new double[0];
+        grid = new SpatialHash();
+        involved = new boolean[0];
+        queue = new int[0];
+        reached = new int[16];
+    }
+
+    /**
+     * Atende o coordenador ate ele mandar CLOSE ou fechar a conexao
+     */
+    public void serve() throws IOException {
+        try {
+            while (true) {
+                byte request = in.readByte();
+                long start = cpuTime();
+                switch (request) {
+                    case LOAD: load(); break;
+                    case STEP: step(in.readDouble()); break;
+                    case HALO: halo(); break;
+                    case SEEDS: seeds(); break;
+                    case COLLECT: collect(); break;
+                    case RESULT: result(); break;
+                    case END: end(); break;
+                    case IMMIGRATE: immigrate(); break;
+                    case FETCH: fetch(); break;
+                    case SAMPLE: sample(in.readInt()); break;
+                    case PARTITION: repartition(); break;
+                    case BUILD: build(); break;
+                    case SHARD: shard(); break;
+                    case CLOSE: return;
+                    default: throw new ProtocolException("unknown request " + request);
+                }
+                busy += cpuTime() - start;
+                out.flush();
+            }
+        } finally {
+            socket.close();
+        }
+    }
+
+    private void load() throws IOException {
+        self = in.readInt();
+        width = in.readDouble();
+        height = in.readDouble();
+        cell = in.readDouble();
+        reach = 2 * cell;
+        partition = Partition.read(in);
+        int count = in.readInt();
+        table = new BoatTable(Math.max(16, count));
+        global = new int[Math.max(16, count)];
+        names = new String[global.length];
+        readRows(count);
+    }
+
+    // Cria o lago da descricao e responde o tamanho e uma impressao digital,
+    // para o coordenador conferir que todos os workers criaram o mesmo lago.
+    // O worker 0 manda tambem as medidas, as contagens e a ordem dos
+    // afundados.
+    private void build() throws IOException {
+        self = in.readInt();
+        String description = in.readUTF();
+        if (source == null) throw new ProtocolException("worker has no lake source");
+        built = source.create(description);
+        BoatTable lake = built.table();
+        width = built.getWidth();
+        height = built.getHeight();
+        cell = 2 * built.maxRadius() * (1 + 1e-9);
+        reach = 2 * cell;
+        out.writeInt(lake.size());
+        out.writeLong(fingerprint(built));
+        if (self != 0) return;
+        out.writeDouble(width);
+        out.writeDouble(height);
+        out.writeDouble(built.getTime());
+        out.writeDouble(built.minRadius());
+        out.writeDouble(built.maxRadius());
+        out.writeDouble(built.maxSpeed());
+        out.writeInt(lake.count(BoatTable.MOVING));
+        out.writeInt(lake.count(BoatTable.STUCK));
+        out.writeInt(lake.count(BoatTable.SUNK));
+        out.writeInt(lake.sunkTotal());
+        for (int i = 0; i < lake.sunkTotal(); i++) out.writeInt(lake.sunkRow(i));
+    }
+
+    // Fica com os barcos do lago criado que estao na regiao e descarta o lago.
+    // Responde quantos ficaram e, no worker 0, as linhas marcadas para afundar
+    // com os seus donos.
+    private void shard() throws IOException {
+        partition = Partition.read(in);
+        if (built == null) throw new ProtocolException("shard without build");
+        BoatTable lake = built.table();
+        table = new BoatTable(16);
+        global = new int[16];
+        names = new String[16];
+        for (int k = 0; k < lake.size(); k++) {
+            if (partition.owner(lake.x[k], lake.y[k]) != self) continue;
+            int row = table.attach(null);
+            if (row == global.length) {
+                global = Arrays.copyOf(global, 2 * row);
+                names = Arrays.copyOf(names, global.length);
+            }
+            global[row] = k;
+            names[row] = lake.boat(k).getName();
+            table.x[row] = lake.x[k];
+            table.y[row] = lake.y[k];
+            table.dirX[row] = lake.dirX[k];
+            table.dirY[row] = lake.dirY[k];
+            table.speed[row] = lake.speed[k];
+            table.maxSpeed[row] = lake.maxSpeed[k];
+            table.acceleration[row] = lake.acceleration[k];
+            table.radius[row] = lake.radius[k];
+            table.state[row] = lake.state[k];
+        }
+        table.recount(NONE);
+        reindex();
+        out.writeInt(table.size());
+        if (self == 0) {
+            out.writeInt(built.pendingSunk());
+            for (int i = 0; i < built.pendingSunk(); i++) {
+                int row = built.pendingSunk(i);
+                out.writeInt(row);
+                out.writeInt(partition.owner(lake.x[row], lake.y[row]));
+            }
+        }
+        built = null;
+    }
+
+    // Resumo das colunas, nomes, afundados e marcados do lago
+    private static long fingerprint(Lake lake) {
+        BoatTable table = lake.table();
+        long hash = table.size();
+        for (int k = 0; k < table.size(); k++) {
+            hash = 31 * hash + Double.doubleToLongBits(table.x[k]);
+            hash = 31 * hash + Double.doubleToLongBits(table.y[k]);
+            hash = 31 * hash + Double.doubleToLongBits(table.dirX[k]);
+            hash = 31 * hash + Double.doubleToLongBits(table.dirY[k]);
+            hash = 31 * hash + Double.doubleToLongBits(table.speed[k]);
+            hash = 31 * hash + Double.doubleToLongBits(table.maxSpeed[k]);
+            hash = 31 * hash + Double.doubleToLongBits(table.acceleration[k]);
+            hash = 31 * hash + Double.doubleToLongBits(table.radius[k]);
+            hash = 31 * hash + table.state[k];
+            hash = 31 * hash + table.boat(k).getName().hashCode();
+        }
+        for (int i = 0; i < table.sunkTotal(); i++) hash = 31 * hash + table.sunkRow(i);
+        for (int i = 0; i < lake.pendingSunk(); i++) hash = 31 * hash + lake.pendingSunk(i);
+        return hash;
+    }
+
+    // Move os barcos e responde os que estao perto da borda ou fora da regiao
+    private void step(double dt) throws IOException {
+        int n = table.size();
+        table.move(0, n, dt);
+        int count = 0;
+        for (int k = 0; k < n; k++) {
+            if (isBand(k)) count++;
+        }
+        out.writeInt(count);
+        for (int k = 0; k < n; k++) {
+            if (!isBand(k)) continue;
+            out.writeInt(global[k]);
+            out.writeDouble(table.x[k]);
+            out.writeDouble(table.y[k]);
+            out.writeDouble(table.radius[k]);
+        }
+    }
+
+    private boolean isBand(int k) {
+        return table.state[k] != BoatTable.SUNK && !partition.inside(self, table.x[k], table.y[k], reach);
+    }
+
+    // Recebe os vizinhos e responde os que alcancou a partir dos barcos que
+    // intersectam um barco anterior
+    private void halo() throws IOException {
+        haloCount = in.readInt();
+        if (haloRow.length < haloCount) {
+            int capacity = Math.max(haloCount, 2 * haloRow.length);
+            haloRow = new int[capacity];
+            haloOwner = new int[capacity];
+            haloX = new double[capacity];
+            haloY = new double[capacity];
+            haloRadius = new double[capacity];
+        }
+        for (int i = 0; i < haloCount; i++) {
+            haloRow[i] = in.readInt();
+            haloOwner[i] = in.readInt();
+            haloX[i] = in.readDouble();
+            haloY[i] = in.readDouble();
+            haloRadius[i] = in.readDouble();
+        }
+        int n = table.size();
+        int total = n + haloCount;
+        grid.reset(cell, total);
+        for (int k = 0; k < n; k++) {
+            if (table.state[k] != BoatTable.SUNK) grid.insert(k, table.x[k], table.y[k]);
+        }
+        for (int i = 0; i < haloCount; i++) grid.insert(n + i, haloX[i], haloY[i]);
+        if (involved.length < total) {
+            involved = new boolean[Math.max(total, 2 * involved.length)];
+            queue = new int[involved.length];
+        } else Arrays.fill(involved, 0, total, false);
+        reachedCount = 0;
+        int queued = 0;
+        for (int k = 0; k < n; k++) {
+            if (table.state[k] != BoatTable.SUNK && hasPrevious(k)) {
+                involved[k] = true;
+                queue[queued++] = k;
+            }
+        }
+        flood(queued);
+        writeReached();
+    }
+
+    // Se algum barco anterior no lago intersecta o barco local k
+    private boolean hasPrevious(int k) {
+        int n = table.size();
+        int cx = grid.cell(table.x[k]);
+        int cy = grid.cell(table.y[k]);
+        for (int i = cx - 1; i <= cx + 1; i++) {
+            for (int j = cy - 1; j <= cy + 1; j++) {
+                for (int id = grid.head(i, j); id >= 0; id = grid.next(id)) {
+                    if (row(id) >= global[k]) continue;
+                    double dx = x(id) - table.x[k];
+                    double dy = y(id) - table.y[k];
+                    double sum = table.radius[k] + (id < n ? table.radius[id] : haloRadius[id - n]);
+                    if (dx * dx + dy * dy < sum * sum) return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    // Marca todos os barcos a menos de reach dos queued primeiros da fila,
+    // e dos que forem marcados, guardando os vizinhos alcancados. Uma colisao
+    // so reposiciona um barco dentro de reach / 2, e so afeta barcos a menos
+    // de reach / 2 da nova posicao, entao nenhum barco fora do grupo e afetado.
+    private void flood(int queued) {
+        int n = table.size();
+        double limit = reach * reach;
+        int head = 0;
+        while (head < queued) {
+            int id = queue[head++];
+            double px = x(id);
+            double py = y(id);
+            int cx = grid.cell(px);
+            int cy = grid.cell(py);
+            for (int i = cx - 2; i <= cx + 2; i++) {
+                for (int j = cy - 2; j <= cy + 2; j++) {
+                    for (int other = grid.head(i, j); other >= 0; other = grid.next(other)) {
+                        if (involved[other]) continue;
+                        double dx = x(other) - px;
+                        double dy = y(other) - py;
+                        if (dx * dx + dy * dy >= limit) continue;
+                        involved[other] = true;
+                        queue[queued++] = other;
+                        if (other >= n) {
+                            if (reachedCount == reached.length) reached = Arrays.copyOf(reached, 2 * reachedCount);
+                            reached[reachedCount++] = other - n;
+                        }
+                    }
+                }
+            }
+        }
+    }
+
+    private void writeReached() throws IOException {
+        out.writeInt(reachedCount);
+        for (int i = 0; i < reachedCount; i++) {
+            out.writeInt(haloRow[reached[i]]);
+            out.writeInt(haloOwner[reached[i]]);
+        }
+        reachedCount = 0;
+    }
+
+    // Barcos proprios alcancados por outros workers
+    private void seeds() throws IOException {
+        int count = in.readInt();
+        int queued = 0;
+        for (int i = 0; i < count; i++) {
+            int k = local(in.readInt());
+            if (involved[k]) continue;
+            involved[k] = true;
+            queue[queued++] = k;
+        }
+        flood(queued);
+        writeReached();
+    }
+
+    // Responde os barcos proprios que estao em algum grupo
+    private void collect() throws IOException {
+        int n = table.size();
+        int count = 0;
+        for (int k = 0; k < n; k++) {
+            if (involved[k]) count++;
+        }
+        out.writeInt(count);
+        for (int k = 0; k < n; k++) {
+            if (!involved[k]) continue;
+            out.writeInt(global[k]);
+            out.writeDouble(table.x[k]);
+            out.writeDouble(table.y[k]);
+            out.writeDouble(table.radius[k]);
+        }
+    }
+
+    // Posicoes dos barcos reposicionados pelas colisoes
+    private void result() throws IOException {
+        int count = in.readInt();
+        for (int i = 0; i < count; i++) {
+            int k = local(in.readInt());
+            table.x[k] = in.readDouble();
+            table.y[k] = in.readDouble();
+        }
+    }
+
+    // Fim do runTime: afunda os barcos marcados, prende os que sairam do lago
+    // e responde as contagens, o tempo gasto e os barcos que passaram para
+    // outra regiao
+    private void end() throws IOException {
+        int count = in.readInt();
+        for (int i = 0; i < count; i++) table.sunk(local(in.readInt()));
+        for (int k = 0; k < table.size(); k++) table.confine(k, width, height);
+        out.writeInt(table.count(BoatTable.MOVING));
+        out.writeInt(table.count(BoatTable.STUCK));
+        out.writeInt(table.count(BoatTable.SUNK) + wrecks.size());
+        out.writeLong(busy);
+        busy = 0;
+        emigrate();
+    }
+
+    // O tempo de processador nao conta o tempo esperando outros processos
+    private static long cpuTime() {
+        return THREADS.isCurrentThreadCpuTimeSupported() ? THREADS.getCurrentThreadCpuTime() : System.nanoTime();
+    }
+
+    // Nova divisao do lago
+    private void repartition() throws IOException {
+        partition = Partition.read(in);
+        emigrate();
+    }
+
+    // Responde e remove os barcos que estao na regiao de outro worker, e
+    // passa os afundados para os destrocos
+    private void emigrate() throws IOException {
+        int n = table.size();
+        int emigrants = 0;
+        for (int k = 0; k < n; k++) {
+            if (isEmigrant(k)) emigrants++;
+        }
+        out.writeInt(emigrants);
+        int sunk = table.count(BoatTable.SUNK);
+        if (emigrants == 0 && sunk == 0) return;
+        BoatTable kept = new BoatTable(Math.max(16, n - emigrants - sunk));
+        int[] keptGlobal = new int[Math.max(16, n - emigrants - sunk)];
+        String[] keptNames = new String[keptGlobal.length];
+        for (int k = 0; k < n; k++) {
+            if (table.state[k] == BoatTable.SUNK) {
+                int row = wrecks.copy(table, k);
+                if (row == wreckGlobal.length) {
+                    wreckGlobal = Arrays.copyOf(wreckGlobal, 2 * row);
+                    wreckNames = Arrays.copyOf(wreckNames, wreckGlobal.length);
+                }
+                wreckGlobal[row] = global[k];
+                wreckNames[row] = names[k];
+            } else if (isEmigrant(k)) {
+                out.writeInt(global[k]);
+                writeColumns(out, table, k);
+                out.writeUTF(names[k]);
+            } else {
+                int row = kept.copy(table, k);
+                keptGlobal[row] = global[k];
+                keptNames[row] = names[k];
+            }
+        }
+        table = kept;
+        global = keptGlobal;
+        names = keptNames;
+        reindex();
+    }
+
+    private boolean isEmigrant(int k) {
+        return table.state[k] != BoatTable.SUNK && partition.owner(table.x[k], table.y[k]) != self;
+    }
+
+    private void immigrate() throws IOException {
+        readRows(in.readInt());
+    }
+
+    // Posicoes de ate limit barcos que nao afundaram, espalhados pela tabela
+    private void sample(int limit) throws IOException {
+        int n = table.size();
+        int live = table.count(BoatTable.MOVING) + table.count(BoatTable.STUCK);
+        int stride = Math.max(1, (live + limit - 1) / limit);
+        out.writeInt(live);
+        out.writeInt((live + stride - 1) / stride);
+        int seen = 0;
+        for (int k = 0; k < n; k++) {
+            if (table.state[k] == BoatTable.SUNK) continue;
+            if (seen++ % stride != 0) continue;
+            out.writeDouble(table.x[k]);
+            out.writeDouble(table.y[k]);
+        }
+    }
+
+    // Todos os barcos, com os destrocos, em ordem de linha do lago original
+    // para o coordenador poder juntar os workers sem guardar a frota
+    private void fetch() throws IOException {
+        int n = table.size();
+        long[] order = new long[n + wrecks.size()];
+        for (int k = 0; k < n; k++) order[k] = (long) global[k] << 32 | k;
+        for (int k = 0; k < wrecks.size(); k++) order[n + k] = (long) wreckGlobal[k] << 32 | (n + k);
+        Arrays.sort(order);
+        out.writeInt(order.length);
+        for (long entry : order) {
+            int k = (int) entry;
+            out.writeInt((int) (entry >>> 32));
+            if (k < n) {
+                writeColumns(out, table, k);
+                out.writeUTF(names[k]);
+            } else {
+                writeColumns(out, wrecks, k - n);
+                out.writeUTF(wreckNames[k - n]);
+            }
+        }
+    }
+
+    private void readRows(int count) throws IOException {
+        for (int i = 0; i < count; i++) {
+            int row = table.attach(null);
+            if (row == global.length) {
+                global = Arrays.copyOf(global, 2 * row);
+                names = Arrays.copyOf(names, global.length);
+            }
+            global[row] = in.readInt();
+            readColumns(in, table, row);
+            names[row] = in.readUTF();
+        }
+        table.recount(NONE);
+        reindex();
+    }
+
+    private void reindex() {
+        local.clear();
+        for (int k = 0; k < table.size(); k++) local.put(global[k], k);
+    }
+
+    private int local(int row) {
+        Integer k = local.get(row);
+        if (k == null) throw new ProtocolException("boat " + row + " is not in region " + self);
+        return k;
+    }
+
+    private int row(int id) { return id < table.size() ? global[id] : haloRow[id - table.size()]; }
+    private double x(int id) { return id < table.size() ? table.x[id] : haloX[id - table.size()]; }
+    private double y(int id) { return id < table.size() ? table.y[id] : haloY[id - table.size()]; }
+
+    /* default */ static void writeColumns(DataOutput out, BoatTable table, int row) throws IOException {
+        out.writeDouble(table.x[row]);
+        out.writeDouble(table.y[row]);
+        out.writeDouble(table.dirX[row]);
+        out.writeDouble(table.dirY[row]);
+        out.writeDouble(table.speed[row]);
+        out.writeDouble(table.maxSpeed[row]);
+        out.writeDouble(table.acceleration[row]);
+        out.writeDouble(table.radius[row]);
+        out.writeByte(table.state[row]);
+    }
+
+    /* default */ static void readColumns(DataInput in, BoatTable table, int row) throws IOException {
+        table.x[row] = in.readDouble();
+        table.y[row] = in.readDouble();
+        table.dirX[row] = in.readDouble();
+        table.dirY[row] = in.readDouble();
+        table.speed[row] = in.readDouble();
+        table.maxSpeed[row] = in.readDouble();
+        table.acceleration[row] = in.readDouble();
+        table.radius[row] = in.readDouble();
+        table.state[row] = in.readByte();
+    }
+
+}
@@ -0,0 +1,669 @@
+package base;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Lago dividido em regioes retangulares, cada uma guardada por um
+ * PartitionWorker em outro processo. O coordenador nao guarda os barcos: a
+ * cada passo do SubStepEngine os workers movem os seus barcos e trocam com os
+ * vizinhos os que estao perto da borda, e o coordenador so recebe os grupos
+ * de barcos proximos que contem alguma interseccao. Ele aplica as colisoes
+ * desses grupos na ordem da tabela do lago original, entao o resultado e o
+ * mesmo, bit a bit, de rodar o lago num processo so com o SubStepEngine. No
+ * fim de cada runTime os barcos que cruzaram uma borda passam para o worker
+ * da nova regiao.
+ *
+ * Os barcos podem vir de um lago deste processo ou ser criados pelos proprios
+ * workers a partir de uma descricao, e entao a frota inteira nunca passa pelo
+ * coordenador: ele guarda so as contagens, a ordem dos afundados e os grupos
+ * de cada passo. O resultado pode ser gravado num snapshot direto dos workers
+ * por write, ou juntado num lago local por gather.
+ *
+ * Os workers medem o tempo gasto em cada runTime. Quando o mais lento passa
+ * da media por mais de MAX_IMBALANCE, o lago e redividido por cortes k-d
+ * ponderados pelo custo medido de cada regiao, e as regioes seguem as
+ * aglomeracoes de barcos conforme elas se movem e afundam.
+ *
+ * Listeners, metricas e gravacao de trajetoria nao sao suportados.
+ */
+public final class PartitionedLake implements Closeable {
+    // runTime entre duas verificacoes do equilibrio
+    private static final int BALANCE_INTERVAL = 16;
+    // Maior razao entre o tempo de um worker e a media sem redividir o lago
+    private static final double MAX_IMBALANCE = 1.25;
+    // Pontos amostrados por worker para redividir o lago
+    private static final int SAMPLE = 4096;
+
+    private final double width;
+    private final double height;
+    private final int size;
+    private final double minRadius;
+    private final double maxSpeed;
+    // Celula do grid das colisoes, o diametro maximo com folga
+    private final double cell;
+    private final double reach;
+    private Partition partition;
+    private final Socket[] sockets;
+    private final DataInputStream[] in;
+    private final DataOutputStream[] out;
+    private double time;
+    private int moving;
+    private int stuck;
+    private int sunk;
+    // Linhas marcadas para afundar no fim do runTime e os seus workers
+    private int[] marks;
+    private int[] markOwners;
+    private int markCount;
+    // Linhas na ordem em que afundaram
+    private int[] sunkOrder;
+    private int sunkTotal;
+    // Barcos perto das bordas recebidos no passo atual
+    private int bandCount;
+    private int[] bandRow;
+    private int[] bandOwner;
+    private double[] bandX;
+    private double[] bandY;
+    private double[] bandRadius;
+    private final SpatialHash grid;
+    // Barcos mudando de worker
+    private BoatTable transit;
+    private int[] transitRows;
+    private String[] transitNames;
+    // Tempo de cada worker nos ultimos runTime, para redividir o lago
+    private final long[] busy;
+    private int window;
+    private double imbalance;
+    private boolean balancing;
+    private int rebalances;
+
+    /**
+     * Distribui os barcos do lago entre os workers, um por regiao da
+     * particao. O lago nao e alterado.
+     * @param lake
+     * @param partition
+     * @param workers enderecos dos workers, na ordem das regioes
+     */
+    public PartitionedLake(Lake lake, Partition partition, List<InetSocketAddress> workers) throws IOException {
+        if (workers.size() != partition.regions())
+            throw new Partition.InvalidPartitionException(partition.regions() + " regions for " +
+                workers.size() + " workers");
+        BoatTable table = lake.table();
+        width = lake.getWidth();
+        height = lake.getHeight();
+        size = table.size();
+        minRadius = lake.minRadius();
+        maxSpeed = lake.maxSpeed();
+        cell = 2 * lake.maxRadius() * (1 + 1e-9);
+        reach = 2 * cell;
+        time = lake.getTime();
+        this.partition = partition;
+        int n = workers.size();
+        sockets = new Socket[n];
+        in = new DataInputStream[n];
+        out = new DataOutputStream[n];
+        connect(workers);
+        int[] owners = new int[size];
+        int[] counts = new int[n];
+        for (int k = 0; k < size; k++) {
+            owners[k] = partition.owner(table.x[k], table.y[k]);
+            counts[owners[k]]++;
+        }
+        for (int w = 0; w < n; w++) {
+            out[w].writeByte(PartitionWorker.LOAD);
+            out[w].writeInt(w);
+            out[w].writeDouble(width);
+            out[w].writeDouble(height);
+            out[w].writeDouble(cell);
+            partition.write(out[w]);
+            out[w].writeInt(counts[w]);
+        }
+        for (int k = 0; k < size; k++) {
+            out[owners[k]].writeInt(k);
+            PartitionWorker.writeColumns(out[owners[k]], table, k);
+            out[owners[k]].writeUTF(table.boat(k).getName());
+        }
+        flush();
+        moving = table.count(BoatTable.MOVING);
+        stuck = table.count(BoatTable.STUCK);
+        sunk = table.count(BoatTable.SUNK);
+        sunkTotal = table.sunkTotal();
+        sunkOrder = new int[Math.max(16, sunkTotal)];
+        for (int i = 0; i < sunkTotal; i++) sunkOrder[i] = table.sunkRow(i);
+        marks = new int[Math.max(16, lake.pendingSunk())];
+        markOwners = new int[marks.length];
+        for (int i = 0; i < lake.pendingSunk(); i++) mark(lake.pendingSunk(i), owners[lake.pendingSunk(i)]);
+        grid = new SpatialHash();
+        busy = new long[n];
+        init();
+    }
+
+    /**
+     * Manda cada worker criar o lago da descricao pelo seu LakeSource e ficar
+     * so com os barcos da sua regiao de Partition.grid. O coordenador recebe
+     * so as contagens e a ordem dos afundados, sem a frota.
+     * @param description descricao do lago, a mesma para todos os workers
+     * @param workers enderecos dos workers, na ordem das regioes
+     */
+    public PartitionedLake(String description, List<InetSocketAddress> workers) throws IOException {
+        int n = workers.size();
+        if (n == 0) throw new Partition.InvalidPartitionException("no workers");
+        sockets = new Socket[n];
+        in = new DataInputStream[n];
+        out = new DataOutputStream[n];
+        connect(workers);
+        for (int w = 0; w < n; w++) {
+            out[w].writeByte(PartitionWorker.BUILD);
+            out[w].writeInt(w);
+            out[w].writeUTF(description);
+        }
+        flush();
+        // Todos mandam o tamanho e a impressao digital do lago criado; o
+        // worker 0 manda tambem o resto
+        size = in[0].readInt();
+        long fingerprint = in[0].readLong();
+        for (int w = 1; w < n; w++) {
+            if (in[w].readInt() != size || in[w].readLong() != fingerprint)
+                throw new PartitionWorker.ProtocolException("worker " + w + " built a different lake than worker 0");
+        }
+        width = in[0].readDouble();
+        height = in[0].readDouble();
+        time = in[0].readDouble();
+        minRadius = in[0].readDouble();
+        cell = 2 * in[0].readDouble() * (1 + 1e-9);
+        reach = 2 * cell;
+        maxSpeed = in[0].readDouble();
+        moving = in[0].readInt();
+        stuck = in[0].readInt();
+        sunk = in[0].readInt();
+        sunkTotal = in[0].readInt();
+        sunkOrder = new int[Math.max(16, sunkTotal)];
+        for (int i = 0; i < sunkTotal; i++) sunkOrder[i] = in[0].readInt();
+        partition = Partition.grid(width, height, n);
+        for (int w = 0; w < n; w++) {
+            out[w].writeByte(PartitionWorker.SHARD);
+            partition.write(out[w]);
+        }
+        flush();
+        marks = new int[16];
+        markOwners = new int[16];
+        int kept = 0;
+        for (int w = 0; w < n; w++) {
+            kept += in[w].readInt();
+            if (w > 0) continue;
+            int pending = in[w].readInt();
+            for (int i = 0; i < pending; i++) mark(in[w].readInt(), in[w].readInt());
+        }
+        if (kept != size) throw new PartitionWorker.ProtocolException(kept + " of " + size + " boats in the regions");
+        grid = new SpatialHash();
+        busy = new long[n];
+        init();
+    }
+
+    private void connect(List<InetSocketAddress> workers) throws IOException {
+        for (int w = 0; w < sockets.length; w++) {
+            sockets[w] = new Socket(workers.get(w).getAddress(), workers.get(w).getPort());
+            sockets[w].setTcpNoDelay(true);
+            in[w] = new DataInputStream(new BufferedInputStream(sockets[w].getInputStream()));
+            out[w] = new DataOutputStream(new BufferedOutputStream(sockets[w].getOutputStream()));
+        }
+    }
+
+    private void init() {
+        bandRow = new int[0];
+        bandOwner = new int[0];
+        bandX = new double[0];
+        bandY = new double[0];
+        bandRadius = new double[0];
+        transitRows = new int[16];
+        transitNames = new String[16];
+        imbalance = 1;
+        balancing = true;
+    }
+
+    public double getWidth() { return width; }
+    public double getHeight() { return height; }
+    public double getTime() { return time; }
+    public Partition getPartition() { return partition; }
+    public int getMovingCount() { return moving; }
+    public int getStuckCount() { return stuck; }
+    public int getSunkCount() { return sunk; }
+    public boolean hasMovement() { return moving > 0; }
+    // Razao entre o maior tempo de um worker e a media na ultima verificacao
+    public double getImbalance() { return imbalance; }
+    public int getRebalances() { return rebalances; }
+    public boolean isBalancing() { return balancing; }
+
+    /**
+     * Liga ou desliga a redivisao automatica do lago, verificada a cada
+     * BALANCE_INTERVAL runTime
+     * @param balancing
+     */
+    public void setBalancing(boolean balancing) {
+        this.balancing = balancing;
+    }
+
+    /**
+     * Faz o tempo andar de timeDelta, como Lake.runTime com o SubStepEngine
+     * @param timeDelta
+     */
+    public void runTime(double timeDelta) throws IOException {
+        time += timeDelta;
+        if (size == 0) return;
+        double step = minRadius / maxSpeed;
+        int times = (int) (timeDelta / step);
+        double remainder = timeDelta % step;
+        for (int i = 1; i <= times + 1; i++) {
+            step((i < times + 1) ? step : remainder);
+        }
+        endRun();
+    }
+
+    private void step(double dt) throws IOException {
+        int n = sockets.length;
+        for (int w = 0; w < n; w++) {
+            out[w].writeByte(PartitionWorker.STEP);
+            out[w].writeDouble(dt);
+        }
+        flush();
+        bandCount = 0;
+        for (int w = 0; w < n; w++) {
+            int count = in[w].readInt();
+            ensureBand(bandCount + count);
+            for (int i = 0; i < count; i++) {
+                bandRow[bandCount] = in[w].readInt();
+                bandOwner[bandCount] = w;
+                bandX[bandCount] = in[w].readDouble();
+                bandY[bandCount] = in[w].readDouble();
+                bandRadius[bandCount++] = in[w].readDouble();
+            }
+        }
+        // Cada worker recebe os barcos dos outros a menos de reach da sua regiao
+        for (int w = 0; w < n; w++) {
+            int count = 0;
+            for (int i = 0; i < bandCount; i++) {
+                if (isHalo(w, i)) count++;
+            }
+            out[w].writeByte(PartitionWorker.HALO);
+            out[w].writeInt(count);
+            for (int i = 0; i < bandCount; i++) {
+                if (!isHalo(w, i)) continue;
+                out[w].writeInt(bandRow[i]);
+                out[w].writeInt(bandOwner[i]);
+                out[w].writeDouble(bandX[i]);
+                out[w].writeDouble(bandY[i]);
+                out[w].writeDouble(bandRadius[i]);
+            }
+        }
+        flush();
+        // Os grupos que cruzam bordas crescem ate nenhum worker alcancar
+        // barco novo de outro
+        int[][] seeds = new int[n][];
+        int[] seedCount = new int[n];
+        boolean pending = readReached(all(n), seeds, seedCount);
+        while (pending) {
+            boolean[] asked = new boolean[n];
+            for (int w = 0; w < n; w++) {
+                if (seedCount[w] == 0) continue;
+                asked[w] = true;
+                out[w].writeByte(PartitionWorker.SEEDS);
+                out[w].writeInt(seedCount[w]);
+                for (int i = 0; i < seedCount[w]; i++) out[w].writeInt(seeds[w][i]);
+                seedCount[w] = 0;
+            }
+            flush();
+            pending = readReached(asked, seeds, seedCount);
+        }
+        for (int w = 0; w < n; w++) out[w].writeByte(PartitionWorker.COLLECT);
+        flush();
+        resolve();
+    }
+
+    private boolean isHalo(int w, int i) {
+        return bandOwner[i] != w && partition.distance(w, bandX[i], bandY[i]) < reach;
+    }
+
+    private boolean readReached(boolean[] asked, int[][] seeds, int[] seedCount) throws IOException {
+        boolean any = false;
+        for (int w = 0; w < asked.length; w++) {
+            if (!asked[w]) continue;
+            int count = in[w].readInt();
+            for (int i = 0; i < count; i++) {
+                int row = in[w].readInt();
+                int owner = in[w].readInt();
+                if (seeds[owner] == null) seeds[owner] = new int[16];
+                else if (seedCount[owner] == seeds[owner].length)
+                    seeds[owner] = Arrays.copyOf(seeds[owner], 2 * seedCount[owner]);
+                seeds[owner][seedCount[owner]++] = row;
+                any = true;
+            }
+        }
+        return any;
+    }
+
+    private static boolean[] all(int n) {
+        boolean[] all = new boolean[n];
+        Arrays.fill(all, true);
+        return all;
+    }
+
+    // Aplica as colisoes dos grupos recebidos, na ordem do lago, e devolve aos
+    // workers as novas posicoes
+    private void resolve() throws IOException {
+        int n = sockets.length;
+        BoatTable table = new BoatTable(16);
+        int[] rows = new int[16];
+        int[] owners = new int[16];
+        for (int w = 0; w < n; w++) {
+            int count = in[w].readInt();
+            for (int i = 0; i < count; i++) {
+                int k = table.attach(null);
+                if (k == rows.length) {
+                    rows = Arrays.copyOf(rows, 2 * k);
+                    owners = Arrays.copyOf(owners, 2 * k);
+                }
+                rows[k] = in[w].readInt();
+                owners[k] = w;
+                table.x[k] = in[w].readDouble();
+                table.y[k] = in[w].readDouble();
+                table.radius[k] = in[w].readDouble();
+            }
+        }
+        int m = table.size();
+        if (m == 0) return;
+        // Indices em ordem de linha
+        long[] order = new long[m];
+        for (int k = 0; k < m; k++) order[k] = (long) rows[k] << 32 | k;
+        Arrays.sort(order);
+        boolean[] moved = new boolean[m];
+        grid.reset(cell, m);
+        for (int i = 0; i < m; i++) {
+            int k = (int) order[i];
+            // O grid so tem barcos anteriores, ja na posicao final
+            int first = -1;
+            int cx = grid.cell(table.x[k]);
+            int cy = grid.cell(table.y[k]);
+            for (int a = cx - 1; a <= cx + 1; a++) {
+                for (int b = cy - 1; b <= cy + 1; b++) {
+                    for (int j = grid.head(a, b); j >= 0; j = grid.next(j)) {
+                        if ((first < 0 || rows[j] < rows[first]) && table.intersects(k, j)) first = j;
+                    }
+                }
+            }
+            if (first >= 0) {
+                mark(rows[k], owners[k]);
+                mark(rows[first], owners[first]);
+                table.touch(k, first);
+                moved[k] = true;
+            }
+            grid.insert(k, table.x[k], table.y[k]);
+        }
+        int[] counts = new int[n];
+        for (int k = 0; k < m; k++) {
+            if (moved[k]) counts[owners[k]]++;
+        }
+        for (int w = 0; w < n; w++) {
+            if (counts[w] == 0) continue;
+            out[w].writeByte(PartitionWorker.RESULT);
+            out[w].writeInt(counts[w]);
+        }
+        for (int k = 0; k < m; k++) {
+            if (!moved[k]) continue;
+            out[owners[k]].writeInt(rows[k]);
+            out[owners[k]].writeDouble(table.x[k]);
+            out[owners[k]].writeDouble(table.y[k]);
+        }
+    }
+
+    private void mark(int row, int owner) {
+        if (markCount == marks.length) {
+            marks = Arrays.copyOf(marks, 2 * markCount);
+            markOwners = Arrays.copyOf(markOwners, marks.length);
+        }
+        marks[markCount] = row;
+        markOwners[markCount++] = owner;
+    }
+
+    // Afunda os marcados na ordem da ultima marcacao, como Lake.sunkBoats, e
+    // passa os barcos que cruzaram uma borda para o worker da nova regiao
+    private void endRun() throws IOException {
+        int n = sockets.length;
+        Map<Integer, Integer> last = new HashMap<Integer, Integer>();
+        for (int i = 0; i < markCount; i++) last.put(marks[i], i);
+        int[] counts = new int[n];
+        for (int i = 0; i < markCount; i++) {
+            if (last.get(marks[i]) == i) counts[markOwners[i]]++;
+        }
+        for (int w = 0; w < n; w++) {
+            out[w].writeByte(PartitionWorker.END);
+            out[w].writeInt(counts[w]);
+        }
+        for (int i = 0; i < markCount; i++) {
+            if (last.get(marks[i]) != i) continue;
+            out[markOwners[i]].writeInt(marks[i]);
+            if (sunkTotal == sunkOrder.length) sunkOrder = Arrays.copyOf(sunkOrder, 2 * sunkTotal);
+            sunkOrder[sunkTotal++] = marks[i];
+        }
+        markCount = 0;
+        flush();
+        moving = stuck = sunk = 0;
+        transit = new BoatTable(16);
+        for (int w = 0; w < n; w++) {
+            moving += in[w].readInt();
+            stuck += in[w].readInt();
+            sunk += in[w].readInt();
+            busy[w] += in[w].readLong();
+            readEmigrants(w);
+        }
+        routeEmigrants();
+        if (++window < BALANCE_INTERVAL) return;
+        imbalance = imbalance(busy);
+        if (balancing && imbalance > MAX_IMBALANCE) rebalance();
+        Arrays.fill(busy, 0);
+        window = 0;
+    }
+
+    // Razao entre o maior tempo de um worker e a media
+    private static double imbalance(long[] busy) {
+        long max = 0, total = 0;
+        for (long nanos : busy) {
+            max = Math.max(max, nanos);
+            total += nanos;
+        }
+        return total == 0 ? 1 : (double) max * busy.length / total;
+    }
+
+    /**
+     * Redivide o lago pelo custo medido: cada worker manda uma amostra das
+     * posicoes dos seus barcos, cada ponto com o custo do worker desde a
+     * ultima divisao dividido pelo tamanho da amostra, e o lago e cortado em
+     * regioes de custo parecido. Os barcos passam para os donos das novas
+     * regioes antes de retornar.
+     */
+    public void rebalance() throws IOException {
+        int n = sockets.length;
+        for (int w = 0; w < n; w++) {
+            out[w].writeByte(PartitionWorker.SAMPLE);
+            out[w].writeInt(SAMPLE);
+        }
+        flush();
+        double[] x = new double[n * SAMPLE];
+        double[] y = new double[n * SAMPLE];
+        double[] cost = new double[n * SAMPLE];
+        int count = 0;
+        for (int w = 0; w < n; w++) {
+            int live = in[w].readInt();
+            int sampled = in[w].readInt();
+            // Sem medida, o custo e proporcional ao numero de barcos
+            double each = busy[w] > 0 ? (double) busy[w] / sampled : (double) live / sampled;
+            for (int i = 0; i < sampled; i++) {
+                x[count] = in[w].readDouble();
+                y[count] = in[w].readDouble();
+                cost[count++] = each;
+            }
+        }
+        partition = Partition.split(width, height, x, y, cost, count, n);
+        for (int w = 0; w < n; w++) {
+            out[w].writeByte(PartitionWorker.PARTITION);
+            partition.write(out[w]);
+        }
+        flush();
+        transit = new BoatTable(16);
+        for (int w = 0; w < n; w++) readEmigrants(w);
+        routeEmigrants();
+        rebalances++;
+    }
+
+    private void readEmigrants(int w) throws IOException {
+        int count = in[w].readInt();
+        for (int i = 0; i < count; i++) {
+            int k = transit.attach(null);
+            if (k == transitRows.length) {
+                transitRows = Arrays.copyOf(transitRows, 2 * k);
+                transitNames = Arrays.copyOf(transitNames, transitRows.length);
+            }
+            transitRows[k] = in[w].readInt();
+            PartitionWorker.readColumns(in[w], transit, k);
+            transitNames[k] = in[w].readUTF();
+        }
+    }
+
+    // Manda os barcos recebidos para os donos das regioes onde eles estao
+    private void routeEmigrants() throws IOException {
+        int n = sockets.length;
+        if (transit.size() == 0) return;
+        int[] owners = new int[transit.size()];
+        int[] arrivals = new int[n];
+        for (int k = 0; k < transit.size(); k++) {
+            owners[k] = partition.owner(transit.x[k], transit.y[k]);
+            arrivals[owners[k]]++;
+        }
+        for (int w = 0; w < n; w++) {
+            if (arrivals[w] == 0) continue;
+            out[w].writeByte(PartitionWorker.IMMIGRATE);
+            out[w].writeInt(arrivals[w]);
+        }
+        for (int k = 0; k < transit.size(); k++) {
+            out[owners[k]].writeInt(transitRows[k]);
+            PartitionWorker.writeColumns(out[owners[k]], transit, k);
+            out[owners[k]].writeUTF(transitNames[k]);
+        }
+        flush();
+    }
+
+    /**
+     * Junta os barcos dos workers num lago local. O lago tem a frota inteira;
+     * para guardar o resultado sem traze-la para este processo, use write.
+     */
+    public Lake gather() throws IOException {
+        Lake lake = new Lake(width, height);
+        BoatTable table = lake.table();
+        table.reserve(size);
+        String[] names = new String[size];
+        for (int w = 0; w < sockets.length; w++) out[w].writeByte(PartitionWorker.FETCH);
+        flush();
+        for (int w = 0; w < sockets.length; w++) {
+            int count = in[w].readInt();
+            for (int i = 0; i < count; i++) {
+                int row = in[w].readInt();
+                PartitionWorker.readColumns(in[w], table, row);
+                names[row] = in[w].readUTF();
+            }
+        }
+        for (int k = 0; k < size; k++) new Boat(names[k], table);
+        // Afundados primeiro, o ultimo a afundar na frente
+        Boat[] order = new Boat[size];
+        int i = 0;
+        for (int s = sunkTotal - 1; s >= 0; s--) order[i++] = table.boat(sunkOrder[s]);
+        for (int k = 0; k < size; k++) {
+            if (table.state[k] != BoatTable.SUNK) order[i++] = table.boat(k);
+        }
+        int[] pending = Arrays.copyOf(marks, markCount);
+        lake.restore(order, pending, time);
+        return lake;
+    }
+
+    /**
+     * Grava os barcos dos workers num snapshot, como LakeSnapshot.write do
+     * lago que gather montaria. Cada worker manda os seus barcos em ordem de
+     * linha e o coordenador intercala as respostas direto no arquivo, sem
+     * guardar a frota.
+     * @param path
+     */
+    public void write(Path path) throws IOException {
+        int n = sockets.length;
+        for (int w = 0; w < n; w++) out[w].writeByte(PartitionWorker.FETCH);
+        flush();
+        // O proximo barco de cada worker
+        BoatTable heads = new BoatTable(n);
+        int[] headRow = new int[n];
+        String[] headName = new String[n];
+        int[] remaining = new int[n];
+        for (int w = 0; w < n; w++) {
+            heads.attach(null);
+            remaining[w] = in[w].readInt();
+            if (remaining[w] > 0) headRow[w] = readHead(w, heads, headName);
+        }
+        LakeSnapshot.Writer writer = new LakeSnapshot.Writer(path, width, height, time, size,
+            Arrays.copyOf(sunkOrder, sunkTotal), Arrays.copyOf(marks, markCount));
+        try {
+            for (int k = 0; k < size; k++) {
+                int next = -1;
+                for (int w = 0; w < n; w++) {
+                    if (remaining[w] > 0 && (next < 0 || headRow[w] < headRow[next])) next = w;
+                }
+                if (next < 0 || headRow[next] != k) throw new PartitionWorker.ProtocolException("boat " + k + " is missing");
+                writer.add(heads, next, headName[next]);
+                if (--remaining[next] > 0) headRow[next] = readHead(next, heads, headName);
+            }
+            writer.commit();
+        } finally {
+            writer.close();
+        }
+    }
+
+    private int readHead(int w, BoatTable heads, String[] names) throws IOException {
+        int row = in[w].readInt();
+        PartitionWorker.readColumns(in[w], heads, w);
+        names[w] = in[w].readUTF();
+        return row;
+    }
+
+    private void ensureBand(int capacity) {
+        if (bandRow.length >= capacity) return;
+        capacity = Math.max(capacity, 2 * bandRow.length);
+        bandRow = Arrays.copyOf(bandRow, capacity);
+        bandOwner = Arrays.copyOf(bandOwner, capacity);
+        bandX = Arrays.copyOf(bandX, capacity);
+        bandY = Arrays.copyOf(bandY, capacity);
+        bandRadius = Arrays.copyOf(bandRadius, capacity);
+    }
+
+    private void flush() throws IOException {
+        for (DataOutputStream stream : out) stream.flush();
+    }
+
+    /**
+     * Encerra os workers e fecha as conexoes
+     */
+    public void close() throws IOException {
+        for (int w = 0; w < sockets.length; w++) {
+            if (sockets[w].isClosed()) continue;
+            out[w].writeByte(PartitionWorker.CLOSE);
+            out[w].flush();
+            sockets[w].close();
+        }
+    }
+
+}
@@ -0,0 +1,104 @@
+package base;
+
+/**
+ * Raizes reais de polinomios de grau baixo num intervalo. Cada raiz e isolada
+ * entre pontos criticos consecutivos, onde o polinomio e monotono, e refinada
+ * por bisseccao, o que evita as formulas fechadas instaveis de grau 3 e 4.
+ * Os coeficientes vem em ordem crescente de grau: c[0] + c[1] t + c[2] t^2 ...
+ */
+final class Polynomials {
+    private static final int BISECTIONS = 100;
+
+    // Suppress default constructor for noninstantiability
+    private Polynomials() {
+        throw new AssertionError("Cannot instantiate " + this.getClass());
+    }
+
+    /* default */ static double eval(double[] c, int degree, double t) {
+        double value = c[degree];
+        for (int k = degree - 1; k >= 0; k--) value = value * t + c[k];
+        return value;
+    }
+
+    /**
+     * Menor t em [lo, hi] com p(t) <= 0
+     * @return t ou NaN se p for positivo em todo o intervalo
+     */
+    /* default */ static double firstNonPositive(double[] c, int degree, double lo, double hi) {
+        if (eval(c, degree, lo) <= 0) return lo;
+        degree = trim(c, degree);
+        double[] critical = new double[Math.max(degree - 1, 0)];
+        int count = roots(derivative(c, degree), degree - 1, lo, hi, critical);
+        double a = lo;
+        for (int k = 0; k <= count; k++) {
+            double b = k < count ? critical[k] : hi;
+            if (eval(c, degree, b) <= 0) return bisect(c, degree, a, b);
+            a = b;
+        }
+        return Double.NaN;
+    }
+
+    /**
+     * Todas as raizes de p em (lo, hi), em ordem crescente
+     * @return numero de raizes escritas em out
+     */
+    /* default */ static int roots(double[] c, int degree, double lo, double hi, double[] out) {
+        degree = trim(c, degree);
+        if (degree <= 0) return 0;
+        if (degree == 1) {
+            double root = -c[0] / c[1];
+            if (lo < root && root < hi) {
+                out[0] = root;
+                return 1;
+            }
+            return 0;
+        }
+        double[] critical = new double[degree - 1];
+        int criticalCount = roots(derivative(c, degree), degree - 1, lo, hi, critical);
+        int count = 0;
+        double a = lo;
+        double fa = eval(c, degree, a);
+        for (int k = 0; k <= criticalCount; k++) {
+            double b = k < criticalCount ? critical[k] : hi;
+            double fb = eval(c, degree, b);
+            if (fb == 0) {
+                if (b < hi) out[count++] = b;
+            } else if (fa != 0 && (fa < 0) != (fb < 0)) {
+                out[count++] = fa > 0 ? bisect(c, degree, a, b) : bisect(negate(c, degree), degree, a, b);
+            }
+            a = b;
+            fa = fb;
+        }
+        return count;
+    }
+
+    // Com p(a) > 0 e p(b) <= 0 e p monotono em [a, b], retorna o menor t com
+    // p(t) <= 0 ate a precisao do double
+    private static double bisect(double[] c, int degree, double a, double b) {
+        for (int i = 0; i < BISECTIONS; i++) {
+            double mid = a + (b - a) / 2;
+            if (mid <= a || mid >= b) break;
+            if (eval(c, degree, mid) <= 0) b = mid;
+            else a = mid;
+        }
+        return b;
+    }
+
+    private static int trim(double[] c, int degree) {
+        while (degree > 0 && c[degree] == 0) degree--;
+        return degree;
+    }
+
+    private static double[] derivative(double[] c, int degree) {
+        double[] d = new double[Math.max(degree, 1)];
+        for (int k = 1; k <= degree; k++) d[k - 1] = k * c[k];
+        return d;
+    }
+
+    private static double[] negate(double[] c, int degree) {
+        double[] n = new double[degree + 1];
+        for (int k = 0; k <= degree; k++) n[k] = -c[k];
+        return n;
+    }
+
+}
@@ -0,0 +1,61 @@
+package base;
+
+import java.util.Arrays;
+
+/**
+ * Fila de prioridade de linhas da tabela, a menor primeiro. Cada linha entra
+ * no maximo uma vez por rodada; clear comeca uma rodada nova sem percorrer
+ * nada.
+ */
+final class RowHeap {
+    private int[] heap;
+    private int size;
+    private int[] stamps;
+    private int round;
+
+    /* default */ RowHeap() {
+        heap = new int[16];
+        stamps = new int[16];
+        round = 1;
+    }
+
+    /* default */ boolean isEmpty() { return size == 0; }
+    /* default */ int peek() { return heap[0]; }
+
+    /* default */ void clear() {
+        size = 0;
+        if (++round == Integer.MAX_VALUE) {
+            Arrays.fill(stamps, 0);
+            round = 1;
+        }
+    }
+
+    /* default */ void add(int row) {
+        if (row >= stamps.length) stamps = Arrays.copyOf(stamps, Math.max(row + 1, 2 * stamps.length));
+        if (stamps[row] == round) return;
+        stamps[row] = round;
+        if (size == heap.length) heap = Arrays.copyOf(heap, 2 * size);
+        int i = size++;
+        while (i > 0 && heap[(i - 1) / 2] > row) {
+            heap[i] = heap[(i - 1) / 2];
+            i = (i - 1) / 2;
+        }
+        heap[i] = row;
+    }
+
+    /* default */ int poll() {
+        int first = heap[0];
+        int last = heap[--size];
+        int i = 0;
+        while (2 * i + 1 < size) {
+            int child = 2 * i + 1;
+            if (child + 1 < size && heap[child + 1] < heap[child]) child++;
+            if (heap[child] >= last) break;
+            heap[i] = heap[child];
+            i = child;
+        }
+        heap[i] = last;
+        return first;
+    }
+
+}
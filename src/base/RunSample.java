@@ -0,0 +1,88 @@
+package base;
+
+import java.lang.management.ManagementFactory;
+import java.util.Arrays;
+
+/**
+ * Medidas de um runTime: sub-passos, pares de barcos comparados, colisoes,
+ * barcos em cada estado, duracao, bytes alocados pela thread da simulacao e a
+ * duracao de cada sub-passo.
+ *
+ * No EventEngine os pares comparados sao os candidatos da varredura, e o
+ * runTime inteiro conta como um sub-passo. O ParallelEngine compara os pares em varias threads e nao os
+ * conta.
+ */
+public final class RunSample {
+    private static final com.sun.management.ThreadMXBean THREADS =
+        (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+
+    /* default */ int subSteps;
+    /* default */ long pairChecks;
+    /* default */ int collisions;
+    private double timeDelta;
+    private int moving;
+    private int stuck;
+    private int sunk;
+    private long start;
+    private long nanos;
+    private long allocatedBefore;
+    private long allocated;
+    private long[] stepNanos;
+
+    /* default */ RunSample() {
+        stepNanos = new long[16];
+    }
+
+    /* default */ void start(double timeDelta) {
+        this.timeDelta = timeDelta;
+        subSteps = 0;
+        pairChecks = 0;
+        collisions = 0;
+        allocatedBefore = allocatedBytes();
+        start = System.nanoTime();
+    }
+
+    /* default */ void finish(BoatTable table) {
+        nanos = System.nanoTime() - start;
+        allocated = allocatedBefore < 0 ? -1 : allocatedBytes() - allocatedBefore;
+        moving = table.count(BoatTable.MOVING);
+        stuck = table.count(BoatTable.STUCK);
+        sunk = table.count(BoatTable.SUNK);
+    }
+
+    // Conta um sub-passo que durou nanos, ou -1 sem medida
+    /* default */ void step(long nanos) {
+        if (nanos >= 0) {
+            if (subSteps == stepNanos.length) stepNanos = Arrays.copyOf(stepNanos, 2 * subSteps);
+            stepNanos[subSteps] = nanos;
+        }
+        subSteps++;
+    }
+
+    private static long allocatedBytes() {
+        if (!THREADS.isThreadAllocatedMemoryEnabled()) return -1;
+        return THREADS.getThreadAllocatedBytes(Thread.currentThread().getId());
+    }
+
+    public double getTimeDelta() { return timeDelta; }
+    public int getSubSteps() { return subSteps; }
+    public long getPairChecks() { return pairChecks; }
+    public int getCollisions() { return collisions; }
+    public int getMovingCount() { return moving; }
+    public int getStuckCount() { return stuck; }
+    public int getSunkCount() { return sunk; }
+    // Duracao do runTime em nanossegundos
+    public long getNanos() { return nanos; }
+    // Bytes alocados pela thread da simulacao, ou -1 se a JVM nao medir
+    public long getAllocatedBytes() { return allocated; }
+
+    /**
+     * Duracao do sub-passo i em nanossegundos
+     * @param i de 0 a getSubSteps() - 1
+     */
+    public long getStepNanos(int i) {
+        if (i < 0 || i >= subSteps) throw new IndexOutOfBoundsException("step " + i);
+        return stepNanos[i];
+    }
+
+}
@@ -0,0 +1,41 @@
+package base;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.Timespan;
+
+/**
+ * Evento do Flight Recorder gravado por LakeStats a cada runTime
+ */
+@Name("lake.RunTime")
+@Label("Lake runTime")
+@Category("Lake")
+@Description("Medidas de um runTime do lago")
+final class RunTimeEvent extends Event {
+    @Label("Simulation Time")
+    /* default */ double simulationTime;
+    @Label("Time Delta")
+    /* default */ double timeDelta;
+    @Label("Sub-steps")
+    /* default */ int subSteps;
+    @Label("Pair Checks")
+    /* default */ long pairChecks;
+    @Label("Collisions")
+    /* default */ int collisions;
+    @Label("Moving")
+    /* default */ int moving;
+    @Label("Stuck")
+    /* default */ int stuck;
+    @Label("Sunk")
+    /* default */ int sunk;
+    @Label("Run Duration")
+    @Timespan(Timespan.NANOSECONDS)
+    /* default */ long nanos;
+    @Label("Allocated")
+    @DataAmount(DataAmount.BYTES)
+    /* default */ long allocated;
+}
@@ -0,0 +1,138 @@
+package base;
+
+import java.util.Arrays;
+
+/**
+ * Hash espacial de celulas quadradas usado como broad phase na deteccao de
+ * colisoes. Cada celula guarda uma lista ligada de indices de barcos, e depois
+ * de dimensionado nao aloca nada para inserir, consultar ou limpar.
+ */
+final class SpatialHash {
+    private static final int NONE = -1;
+
+    private double cellSize;
+    private long[] keys;
+    private int[] heads;
+    private int[] stamps;
+    private int[] next;
+    private int generation;
+    private int cells;
+
+    /* default */ SpatialHash() {
+        keys = new long[16];
+        heads = new int[16];
+        stamps = new int[16];
+        next = new int[8];
+        generation = 1;
+    }
+
+    /**
+     * Esvazia o hash e define o tamanho das celulas
+     * @param cellSize
+     * @param capacity numero esperado de indices
+     */
+    /* default */ void reset(double cellSize, int capacity) {
+        this.cellSize = cellSize;
+        if (next.length < capacity) next = new int[capacity];
+        int slots = slotsFor(capacity);
+        if (slots > keys.length) {
+            keys = new long[slots];
+            heads = new int[slots];
+            stamps = new int[slots];
+            generation = 1;
+        } else if (++generation == Integer.MAX_VALUE) {
+            Arrays.fill(stamps, 0);
+            generation = 1;
+        }
+        cells = 0;
+    }
+
+    /* default */ int cell(double v) {
+        return (int) Math.floor(v / cellSize);
+    }
+
+    /* default */ void insert(int id, double x, double y) {
+        if (id >= next.length) next = Arrays.copyOf(next, Math.max(id + 1, 2 * next.length));
+        if (2 * (cells + 1) > keys.length) rehash(2 * keys.length);
+        long key = key(cell(x), cell(y));
+        int slot = find(key);
+        if (stamps[slot] != generation) {
+            stamps[slot] = generation;
+            keys[slot] = key;
+            heads[slot] = NONE;
+            cells++;
+        }
+        next[id] = heads[slot];
+        heads[slot] = id;
+    }
+
+    /* default */ void remove(int id, double x, double y) {
+        int slot = find(key(cell(x), cell(y)));
+        if (stamps[slot] != generation) return;
+        if (heads[slot] == id) {
+            heads[slot] = next[id];
+            return;
+        }
+        for (int k = heads[slot]; k >= 0; k = next[k]) {
+            if (next[k] == id) {
+                next[k] = next[id];
+                return;
+            }
+        }
+    }
+
+    /**
+     * Primeiro indice da celula (cx, cy) ou -1 se estiver vazia
+     */
+    /* default */ int head(int cx, int cy) {
+        int slot = find(key(cx, cy));
+        return stamps[slot] == generation ? heads[slot] : NONE;
+    }
+
+    /* default */ int next(int id) {
+        return next[id];
+    }
+
+    private int find(long key) {
+        int mask = keys.length - 1;
+        int slot = mix(key) & mask;
+        while (stamps[slot] == generation && keys[slot] != key) slot = (slot + 1) & mask;
+        return slot;
+    }
+
+    private void rehash(int slots) {
+        long[] oldKeys = keys;
+        int[] oldHeads = heads;
+        int[] oldStamps = stamps;
+        int oldGeneration = generation;
+        keys = new long[slots];
+        heads = new int[slots];
+        stamps = new int[slots];
+        generation = 1;
+        for (int i = 0; i < oldKeys.length; i++) {
+            if (oldStamps[i] != oldGeneration) continue;
+            int slot = find(oldKeys[i]);
+            stamps[slot] = generation;
+            keys[slot] = oldKeys[i];
+            heads[slot] = oldHeads[i];
+        }
+    }
+
+    private static int slotsFor(int capacity) {
+        int slots = 16;
+        while (slots < 2 * capacity) slots <<= 1;
+        return slots;
+    }
+
+    private static long key(int cx, int cy) {
+        return ((long) cx << 32) | (cy & 0xffffffffL);
+    }
+
+    private static int mix(long key) {
+        key ^= key >>> 33;
+        key *= 0xff51afd7ed558ccdL;
+        key ^= key >>> 33;
+        return (int) key;
+    }
+
+}
@@ -0,0 +1,43 @@
+package base;
+
+/**
+ * Motor padrao: divide o intervalo em passos de minRadius / maxSpeed, para que
+ * nenhum barco ande mais que o menor raio entre duas verificacoes de colisao.
+ */
+public class SubStepEngine extends Engine {
+
+    /* default */ void runTime(Lake lake, double timeDelta) {
+        // Calcula o nomero de iteracoes maximo e depois faz os marcos se moverem
+        // de um tempo correspondente ao resto da divisao
+        double step = stepSize(lake);
+        int times = (int) (timeDelta / step);
+        double remainder = timeDelta % step;
+        for (int i = 1; i <= times + 1; i++) {
+            long start = lake.stepStarted();
+            double dt = (i < times + 1)
+                ? step
+                : remainder;
+            step(lake, dt);
+            lake.stepFinished(start, dt);
+        }
+        lake.endRun();
+    }
+
+    /**
+     * Duracao dos passos
+     * @param lake
+     */
+    /* default */ double stepSize(Lake lake) {
+        return lake.minRadius() / lake.maxSpeed();
+    }
+
+    /**
+     * Um passo de duracao dt em todos os barcos
+     * @param lake
+     * @param dt
+     */
+    /* default */ void step(Lake lake, double dt) {
+        lake.step(dt);
+    }
+
+}
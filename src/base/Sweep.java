@@ -0,0 +1,178 @@
+package base;
+
+/**
+ * Instantes exatos de contato entre dois barcos e entre um barco e a margem,
+ * sobre o mesmo movimento de Boat.move (MUV ate a velocidade maxima, depois
+ * MU). Os barcos em movimento partem das posicoes e velocidades dadas, que
+ * podem ser as da tabela ou as do inicio de um passo ja dado; os parados
+ * ficam na posicao da tabela. Direcao, aceleracao e raio vem da tabela.
+ */
+final class Sweep {
+    private final double[] quartic, quadratic;
+    private final double[] pathA, pathB;
+
+    /* default */ Sweep() {
+        quartic = new double[5];
+        quadratic = new double[3];
+        pathA = new double[3];
+        pathB = new double[3];
+    }
+
+    /**
+     * Primeiro instante em [lo, hi] em que os barcos a e b se tocam
+     * @return o instante ou NaN se nao se tocarem
+     */
+    /* default */ double impactTime(BoatTable table, double[] x, double[] y, double[] speed,
+        int a, int b, double lo, double hi) {
+        double radius = table.radius[a] + table.radius[b];
+        double cruiseA = cruiseTime(table, speed, a);
+        double cruiseB = cruiseTime(table, speed, b);
+        double ax = table.state[a] == BoatTable.MOVING ? x[a] : table.x[a];
+        double ay = table.state[a] == BoatTable.MOVING ? y[a] : table.y[a];
+        double bx = table.state[b] == BoatTable.MOVING ? x[b] : table.x[b];
+        double by = table.state[b] == BoatTable.MOVING ? y[b] : table.y[b];
+        double start = lo;
+        while (start < hi) {
+            double end = hi;
+            if (start < cruiseA && cruiseA < end) end = cruiseA;
+            if (start < cruiseB && cruiseB < end) end = cruiseB;
+            path(table, speed, a, start < cruiseA, pathA);
+            path(table, speed, b, start < cruiseB, pathB);
+            // Posicao relativa de a em relacao a b: d(t) = c0 + c1 t + c2 t^2
+            double x0 = ax - bx + table.dirX[a] * pathA[0] - table.dirX[b] * pathB[0];
+            double x1 = table.dirX[a] * pathA[1] - table.dirX[b] * pathB[1];
+            double x2 = table.dirX[a] * pathA[2] - table.dirX[b] * pathB[2];
+            double y0 = ay - by + table.dirY[a] * pathA[0] - table.dirY[b] * pathB[0];
+            double y1 = table.dirY[a] * pathA[1] - table.dirY[b] * pathB[1];
+            double y2 = table.dirY[a] * pathA[2] - table.dirY[b] * pathB[2];
+            // |d(t)|^2 - (ra + rb)^2
+            quartic[0] = x0 * x0 + y0 * y0 - radius * radius;
+            quartic[1] = 2 * (x0 * x1 + y0 * y1);
+            quartic[2] = x1 * x1 + y1 * y1 + 2 * (x0 * x2 + y0 * y2);
+            quartic[3] = 2 * (x1 * x2 + y1 * y2);
+            quartic[4] = x2 * x2 + y2 * y2;
+            double t = Polynomials.firstNonPositive(quartic, 4, start, end);
+            if (!Double.isNaN(t)) return t;
+            start = end;
+        }
+        return Double.NaN;
+    }
+
+    /**
+     * Se os barcos a e b se tocam em algum instante de [0, hi]
+     */
+    /* default */ boolean touches(BoatTable table, double[] x, double[] y, double[] speed, int a, int b, double hi) {
+        double radius = table.radius[a] + table.radius[b];
+        double dx = (table.state[a] == BoatTable.MOVING ? x[a] : table.x[a]) -
+            (table.state[b] == BoatTable.MOVING ? x[b] : table.x[b]);
+        double dy = (table.state[a] == BoatTable.MOVING ? y[a] : table.y[a]) -
+            (table.state[b] == BoatTable.MOVING ? y[b] : table.y[b]);
+        if (cruiseTime(table, speed, a) > 0 || cruiseTime(table, speed, b) > 0) {
+            // Em linha reta, |d(t)| >= |d(0)| - sa(t) - sb(t) e tambem
+            // |d(t)| >= |d(hi)| - (sa - sa(t)) - (sb - sb(t)); somando, os
+            // barcos longe no inicio e no fim do intervalo nao se tocam
+            double sa = displacement(table, speed, a, hi);
+            double sb = displacement(table, speed, b, hi);
+            double ex = dx + table.dirX[a] * sa - table.dirX[b] * sb;
+            double ey = dy + table.dirY[a] * sa - table.dirY[b] * sb;
+            if (Math.sqrt(dx * dx + dy * dy) + Math.sqrt(ex * ex + ey * ey) - sa - sb > 2 * radius * (1 + 1e-9)) {
+                return false;
+            }
+            return !Double.isNaN(impactTime(table, x, y, speed, a, b, 0, hi));
+        }
+        // Sem aceleracao a posicao relativa d(t) = d0 + v t e uma reta, e
+        // basta a distancia no instante mais proximo
+        double va = table.state[a] == BoatTable.MOVING ? speed[a] : 0;
+        double vb = table.state[b] == BoatTable.MOVING ? speed[b] : 0;
+        double vx = table.dirX[a] * va - table.dirX[b] * vb;
+        double vy = table.dirY[a] * va - table.dirY[b] * vb;
+        double vv = vx * vx + vy * vy;
+        double t = vv == 0 ? 0 : Math.max(0, Math.min(hi, -(dx * vx + dy * vy) / vv));
+        double ex = dx + vx * t;
+        double ey = dy + vy * t;
+        return ex * ex + ey * ey <= radius * radius;
+    }
+
+    /**
+     * Primeiro instante em [lo, hi] em que o barco toca a margem de um lago
+     * width x height centrado na origem
+     * @return o instante ou NaN se nao tocar
+     */
+    /* default */ double shoreTime(BoatTable table, double[] x, double[] y, double[] speed,
+        int row, double width, double height, double lo, double hi) {
+        double cruise = cruiseTime(table, speed, row);
+        double first = Double.NaN;
+        double start = lo;
+        while (start < hi && Double.isNaN(first)) {
+            double end = start < cruise && cruise < hi ? cruise : hi;
+            path(table, speed, row, start < cruise, pathA);
+            double r = table.radius[row];
+            first = earliest(first, shoreTime(x[row], table.dirX[row], r - width / 2, start, end));
+            first = earliest(first, shoreTime(-x[row], -table.dirX[row], r - width / 2, start, end));
+            first = earliest(first, shoreTime(y[row], table.dirY[row], r - height / 2, start, end));
+            first = earliest(first, shoreTime(-y[row], -table.dirY[row], r - height / 2, start, end));
+            start = end;
+        }
+        return first;
+    }
+
+    // Primeiro t com p + u s(t) - offset <= 0, sendo s(t) o trecho em pathA
+    private double shoreTime(double p, double u, double offset, double lo, double hi) {
+        quadratic[0] = p + u * pathA[0] - offset;
+        quadratic[1] = u * pathA[1];
+        quadratic[2] = u * pathA[2];
+        return Polynomials.firstNonPositive(quadratic, 2, lo, hi);
+    }
+
+    private static double earliest(double a, double b) {
+        if (Double.isNaN(a)) return b;
+        if (Double.isNaN(b)) return a;
+        return Math.min(a, b);
+    }
+
+    /**
+     * Deslocamento do barco da linha row em t, partindo da velocidade speed[row]
+     */
+    /* default */ static double displacement(BoatTable table, double[] speed, int row, double t) {
+        if (table.state[row] != BoatTable.MOVING) return 0;
+        double v = speed[row];
+        double vmax = table.maxSpeed[row];
+        double a = table.acceleration[row];
+        if (v == vmax) return v * t;
+        double cruise = (vmax - v) / a;
+        if (cruise > t) return v * t + a * (t * t) / 2;
+        return v * cruise + a * (cruise * cruise) / 2 + vmax * (t - cruise);
+    }
+
+    // Instante em que o barco atinge a velocidade maxima
+    private static double cruiseTime(BoatTable table, double[] speed, int row) {
+        if (table.state[row] != BoatTable.MOVING || speed[row] == table.maxSpeed[row]) return 0;
+        return (table.maxSpeed[row] - speed[row]) / table.acceleration[row];
+    }
+
+    /**
+     * Coeficientes do deslocamento s(t) = c0 + c1 t + c2 t^2 desde o inicio do
+     * intervalo, no trecho acelerado ou no de velocidade maxima. Barcos parados
+     * nao se deslocam.
+     */
+    private static void path(BoatTable table, double[] speed, int row, boolean accelerating, double[] c) {
+        if (table.state[row] != BoatTable.MOVING) {
+            c[0] = c[1] = c[2] = 0;
+            return;
+        }
+        double v = speed[row];
+        double a = table.acceleration[row];
+        if (accelerating) {
+            c[0] = 0;
+            c[1] = v;
+            c[2] = a / 2;
+        } else {
+            double vmax = table.maxSpeed[row];
+            double cruise = cruiseTime(table, speed, row);
+            c[0] = v * cruise + a * (cruise * cruise) / 2 - vmax * cruise;
+            c[1] = vmax;
+            c[2] = 0;
+        }
+    }
+
+}
@@ -0,0 +1,46 @@
+package base;
+
+/**
+ * Motor de passos fixos com teste de colisao continuo: cada passo verifica se
+ * dois barcos se tocaram em algum instante dele, sobre o movimento de
+ * Boat.move, e encalha na margem no ponto de contato o barco que sai do lago.
+ * Como nenhum barco atravessa outro entre duas verificacoes, os passos podem
+ * ser factor vezes maiores que os do SubStepEngine.
+ *
+ * Os barcos que colidem afundam no fim de runTime, como no SubStepEngine.
+ */
+public final class SweptEngine extends SubStepEngine {
+    private static final double DEFAULT_FACTOR = 8;
+
+    private final double factor;
+
+    public static class InvalidFactorException extends RuntimeException {
+        public InvalidFactorException(String message) { super(message); }
+    }
+
+    public SweptEngine() {
+        this(DEFAULT_FACTOR);
+    }
+
+    /**
+     * @param factor razao entre o passo e o do SubStepEngine, minRadius / maxSpeed
+     */
+    public SweptEngine(double factor) {
+        if (!(factor >= 1)) throw new InvalidFactorException("factor must be >= 1");
+        this.factor = factor;
+    }
+
+    public double getFactor() { return factor; }
+
+    /* default */ void runTime(Lake lake, double timeDelta) {
+        // O grid cresce com o que um barco anda num passo
+        lake.sweep(lake.maxSpeed() * stepSize(lake));
+        super.runTime(lake, timeDelta);
+        lake.sweep(0);
+    }
+
+    /* default */ double stepSize(Lake lake) {
+        return factor * super.stepSize(lake);
+    }
+
+}
@@ -0,0 +1,142 @@
+package base;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Le em ordem os quadros gravados por TrajectoryRecorder. Depois de cada next
+ * os getters descrevem o quadro atual.
+ */
+public final class TrajectoryReader implements Closeable {
+    public static class InvalidTrajectoryException extends RuntimeException {
+        public InvalidTrajectoryException(String message) { super(message); }
+    }
+
+    private final FileChannel channel;
+    private final double resolution;
+    private final int keyframeInterval;
+    private final List<String> names;
+    private ByteBuffer frame;
+    private long[] x;
+    private long[] y;
+    private byte[] state;
+    private int n;
+    private double time;
+    private boolean key;
+    private int zeros;
+
+    public TrajectoryReader(Path path) throws IOException {
+        channel = FileChannel.open(path, StandardOpenOption.READ);
+        ByteBuffer header = read(24);
+        if (header == null || header.getInt() != TrajectoryRecorder.MAGIC)
+            throw new InvalidTrajectoryException("not a trajectory file");
+        int version = header.getInt();
+        if (version != TrajectoryRecorder.VERSION)
+            throw new InvalidTrajectoryException("unsupported version " + version);
+        keyframeInterval = header.getInt();
+        header.getInt();
+        resolution = header.getDouble();
+        names = new ArrayList<String>();
+        frame = ByteBuffer.allocate(1 << 16).order(ByteOrder.LITTLE_ENDIAN);
+        x = new long[0];
+        y = new long[0];
+        state = new byte[0];
+    }
+
+    public int getKeyframeInterval() { return keyframeInterval; }
+    public double getTime() { return time; }
+    public boolean isKeyframe() { return key; }
+    // Numero de barcos do quadro atual
+    public int size() { return n; }
+    public double x(int row) { return x[row] / resolution; }
+    public double y(int row) { return y[row] / resolution; }
+    public Boat.State state(int row) { return Boat.state(state[row]); }
+    public String name(int row) { return names.get(row); }
+
+    /**
+     * Avanca para o proximo quadro
+     * @return false no fim do arquivo
+     */
+    public boolean next() throws IOException {
+        ByteBuffer length = read(4);
+        if (length == null) return false;
+        int size = length.getInt();
+        if (frame.capacity() < size) frame = ByteBuffer.allocate(size).order(ByteOrder.LITTLE_ENDIAN);
+        frame.clear().limit(size);
+        while (frame.hasRemaining()) {
+            if (channel.read(frame) < 0) throw new InvalidTrajectoryException("truncated frame");
+        }
+        frame.flip();
+        key = frame.get() == TrajectoryRecorder.KEY;
+        time = frame.getDouble();
+        n = (int) getVarint();
+        if (x.length < n) {
+            x = Arrays.copyOf(x, n);
+            y = Arrays.copyOf(y, n);
+            state = Arrays.copyOf(state, n);
+        }
+        int firstName = (int) getVarint();
+        int count = (int) getVarint();
+        for (int i = 0; i < count; i++) {
+            byte[] name = new byte[(int) getVarint()];
+            frame.get(name);
+            if (firstName + i == names.size()) names.add(new String(name, StandardCharsets.UTF_8));
+        }
+        for (int k = 0; k < n; k++) x[k] = (key ? 0 : x[k]) + getDelta();
+        zeros = 0;
+        for (int k = 0; k < n; k++) y[k] = (key ? 0 : y[k]) + getDelta();
+        zeros = 0;
+        for (int k = 0; k < n; k++) state[k] = (byte) ((key ? 0 : state[k]) + getDelta());
+        zeros = 0;
+        return true;
+    }
+
+    public void close() throws IOException {
+        channel.close();
+    }
+
+    private long getDelta() {
+        if (zeros > 0) {
+            zeros--;
+            return 0;
+        }
+        long value = getVarint();
+        if (value == 0) {
+            zeros = (int) getVarint() - 1;
+            return 0;
+        }
+        return (value >>> 1) ^ -(value & 1);
+    }
+
+    private long getVarint() {
+        long value = 0;
+        for (int shift = 0; ; shift += 7) {
+            byte b = frame.get();
+            value |= (long) (b & 0x7f) << shift;
+            if (b >= 0) return value;
+        }
+    }
+
+    // Le size bytes ou retorna null no fim do arquivo
+    private ByteBuffer read(int size) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(size).order(ByteOrder.LITTLE_ENDIAN);
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer) < 0) {
+                if (buffer.position() == 0) return null;
+                throw new InvalidTrajectoryException("truncated file");
+            }
+        }
+        buffer.flip();
+        return buffer;
+    }
+
+}
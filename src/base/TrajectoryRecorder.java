@@ -0,0 +1,307 @@
+package base;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+/**
+ * Grava a trajetoria de todos os barcos de um lago, um quadro por runTime.
+ * Na thread da simulacao cada quadro e so uma copia das colunas x, y e estado
+ * para um buffer fora do heap; a codificacao e a escrita no arquivo ficam
+ * numa thread propria. Se a escrita atrasar, a simulacao espera por um buffer
+ * livre.
+ *
+ * O arquivo e colunar e codificado em delta: as posicoes sao quantizadas em
+ * 1 / resolution, e cada coluna guarda a diferenca para o quadro anterior em
+ * varints zigzag, com as sequencias de zeros (barcos parados) comprimidas. Os
+ * quadros chave guardam os valores absolutos, e podem ser lidos sem os
+ * anteriores. Veja TrajectoryReader.
+ */
+public final class TrajectoryRecorder implements Closeable {
+    public static class RecordingException extends RuntimeException {
+        public RecordingException(Throwable cause) { super(cause); }
+    }
+
+    // "LTRJ"
+    /* default */ static final int MAGIC = 0x4c54524a;
+    /* default */ static final int VERSION = 1;
+    /* default */ static final byte DELTA = 0;
+    /* default */ static final byte KEY = 1;
+    private static final int BUFFERS = 4;
+
+    private final FileChannel channel;
+    private final double interval;
+    private final int keyframeInterval;
+    private final double resolution;
+    private final BlockingQueue<Frame> free;
+    private final BlockingQueue<Frame> full;
+    private final Frame end;
+    private final Thread writer;
+    private volatile Throwable failure;
+    private boolean closed;
+    // Usados pela thread da simulacao
+    private int frames;
+    private int names;
+    private double nextTime;
+    // Usados pela thread de escrita
+    private long[] lastX;
+    private long[] lastY;
+    private byte[] lastState;
+    private double[] columnX;
+    private double[] columnY;
+    private byte[] columnState;
+    private byte[] out;
+    private int position;
+    private int zeros;
+
+    /**
+     * Grava todos os runTime, com um quadro chave a cada 60 quadros e
+     * posicoes com resolucao de 1/1024
+     * @param path
+     */
+    public TrajectoryRecorder(Path path) throws IOException {
+        this(path, 0, 60, 1024);
+    }
+
+    /**
+     * @param path arquivo de saida, substituido se existir
+     * @param interval tempo de simulacao minimo entre dois quadros, 0 para
+     *        gravar todos os runTime
+     * @param keyframeInterval numero de quadros entre dois quadros chave
+     * @param resolution divisoes por unidade de distancia das posicoes gravadas
+     */
+    public TrajectoryRecorder(Path path, double interval, int keyframeInterval, double resolution)
+        throws IOException {
+        if (interval < 0) throw new IllegalArgumentException("interval must be >= 0");
+        if (keyframeInterval < 1) throw new IllegalArgumentException("keyframeInterval must be >= 1");
+        if (resolution <= 0) throw new IllegalArgumentException("resolution must be > 0");
+        this.interval = interval;
+        this.keyframeInterval = keyframeInterval;
+        this.resolution = resolution;
+        channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+            StandardOpenOption.TRUNCATE_EXISTING);
+        ByteBuffer header = ByteBuffer.allocate(24).order(ByteOrder.LITTLE_ENDIAN);
+        header.putInt(MAGIC).putInt(VERSION).putInt(keyframeInterval).putInt(0).putDouble(resolution);
+        header.flip();
+        while (header.hasRemaining()) channel.write(header);
+        free = new ArrayBlockingQueue<Frame>(BUFFERS);
+        full = new ArrayBlockingQueue<Frame>(BUFFERS + 1);
+        for (int i = 0; i < BUFFERS; i++) free.add(new Frame());
+        end = new Frame();
+        nextTime = Double.NEGATIVE_INFINITY;
+        lastX = new long[0];
+        lastY = new long[0];
+        lastState = new byte[0];
+        columnX = columnY = new double[0];
+        columnState = new byte[0];
+        out = new byte[1 << 16];
+        writer = new Thread(new Runnable() {
+            public void run() { write(); }
+        }, "trajectory-writer");
+        writer.setDaemon(true);
+        writer.start();
+    }
+
+    /**
+     * Copia o estado atual do lago para o proximo quadro, se ja tiver passado
+     * interval desde o ultimo
+     * @param lake
+     */
+    /* default */ void record(Lake lake) {
+        if (closed) throw new IllegalStateException("recorder closed");
+        if (failure != null) throw new RecordingException(failure);
+        double time = lake.getTime();
+        // Tolerancia para a soma acumulada dos passos
+        if (time < nextTime - 1e-9 * interval) return;
+        nextTime = time + interval;
+        BoatTable table = lake.table();
+        int n = table.size();
+        Frame frame = take(free);
+        frame.time = time;
+        frame.key = frames % keyframeInterval == 0;
+        frame.firstName = names;
+        frame.names = new String[n - names];
+        for (int k = names; k < n; k++) frame.names[k - names] = table.boat(k).getName();
+        frame.copy(table, n);
+        put(frame);
+        frames++;
+        names = n;
+    }
+
+    /**
+     * Espera a gravacao dos quadros pendentes e fecha o arquivo
+     */
+    public void close() throws IOException {
+        if (closed) return;
+        closed = true;
+        put(end);
+        try {
+            writer.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RecordingException(e);
+        } finally {
+            channel.close();
+        }
+        if (failure instanceof IOException) throw (IOException) failure;
+        if (failure != null) throw new RecordingException(failure);
+    }
+
+    private Frame take(BlockingQueue<Frame> queue) {
+        try {
+            return queue.take();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RecordingException(e);
+        }
+    }
+
+    private void put(Frame frame) {
+        try {
+            full.put(frame);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RecordingException(e);
+        }
+    }
+
+    // Laco da thread de escrita; depois de um erro so devolve os buffers
+    private void write() {
+        while (true) {
+            Frame frame = take(full);
+            if (frame == end) return;
+            if (failure == null) {
+                try {
+                    encode(frame);
+                    ByteBuffer buffer = ByteBuffer.wrap(out, 0, position);
+                    while (buffer.hasRemaining()) channel.write(buffer);
+                } catch (Throwable e) {
+                    failure = e;
+                }
+            }
+            free.add(frame);
+        }
+    }
+
+    /*
+     * Quadro: tamanho (int, sem contar ele mesmo), tipo (byte), tempo (double),
+     * numero de barcos, primeira linha com nome novo, nomes novos e as colunas
+     * x, y e estado
+     */
+    private void encode(Frame frame) {
+        int n = frame.n;
+        if (lastX.length < n) {
+            lastX = Arrays.copyOf(lastX, n);
+            lastY = Arrays.copyOf(lastY, n);
+            lastState = Arrays.copyOf(lastState, n);
+            columnX = new double[n];
+            columnY = new double[n];
+            columnState = new byte[n];
+        }
+        // Copia de volta para o heap, onde o laco de codificacao e mais rapido
+        ByteBuffer data = frame.data;
+        data.clear();
+        data.asDoubleBuffer().get(columnX, 0, n);
+        data.position(8 * n);
+        data.asDoubleBuffer().get(columnY, 0, n);
+        data.position(16 * n);
+        data.get(columnState, 0, n);
+        byte[][] names = new byte[frame.names.length][];
+        long bound = 32 + 30L * n;
+        for (int i = 0; i < names.length; i++) {
+            names[i] = frame.names[i].getBytes(StandardCharsets.UTF_8);
+            bound += 5 + names[i].length;
+        }
+        if (bound > Integer.MAX_VALUE) throw new IllegalStateException("frame too large");
+        if (out.length < bound) out = new byte[(int) bound];
+        position = 4;
+        out[position++] = frame.key ? KEY : DELTA;
+        long time = Double.doubleToRawLongBits(frame.time);
+        for (int i = 0; i < 8; i++) out[position++] = (byte) (time >>> 8 * i);
+        putVarint(n);
+        putVarint(frame.firstName);
+        putVarint(names.length);
+        for (byte[] name : names) {
+            putVarint(name.length);
+            System.arraycopy(name, 0, out, position, name.length);
+            position += name.length;
+        }
+        encode(columnX, lastX, n, frame.key);
+        encode(columnY, lastY, n, frame.key);
+        for (int k = 0; k < n; k++) {
+            byte state = columnState[k];
+            putDelta(frame.key ? state : state - lastState[k]);
+            lastState[k] = state;
+        }
+        flushZeros();
+        int size = position - 4;
+        for (int i = 0; i < 4; i++) out[i] = (byte) (size >>> 8 * i);
+    }
+
+    private void encode(double[] column, long[] last, int n, boolean key) {
+        for (int k = 0; k < n; k++) {
+            long value = Math.round(column[k] * resolution);
+            putDelta(key ? value : value - last[k]);
+            last[k] = value;
+        }
+        flushZeros();
+    }
+
+    // Zeros sao acumulados e escritos como 0 seguido do tamanho da sequencia
+    private void putDelta(long delta) {
+        if (delta == 0) {
+            zeros++;
+            return;
+        }
+        flushZeros();
+        putVarint((delta << 1) ^ (delta >> 63));
+    }
+
+    private void flushZeros() {
+        if (zeros == 0) return;
+        putVarint(0);
+        putVarint(zeros);
+        zeros = 0;
+    }
+
+    private void putVarint(long value) {
+        while ((value & ~0x7fL) != 0) {
+            out[position++] = (byte) ((value & 0x7f) | 0x80);
+            value >>>= 7;
+        }
+        out[position++] = (byte) value;
+    }
+
+    // Copia das colunas de um runTime, fora do heap
+    private static final class Frame {
+        private ByteBuffer data;
+        private int n;
+        private double time;
+        private boolean key;
+        private int firstName;
+        private String[] names;
+
+        private void copy(BoatTable table, int n) {
+            if (data == null || data.capacity() < 17 * n) {
+                data = ByteBuffer.allocateDirect(Math.max(17 * n, 2 * (data == null ? 0 : data.capacity())))
+                    .order(ByteOrder.nativeOrder());
+            }
+            this.n = n;
+            data.clear();
+            data.asDoubleBuffer().put(table.x, 0, n);
+            data.position(8 * n);
+            data.asDoubleBuffer().put(table.y, 0, n);
+            data.position(16 * n);
+            data.put(table.state, 0, n);
+        }
+    }
+
+}
@@ -0,0 +1,46 @@
+package benchmark;
+
+import utils.Utils;
+import base.Lake;
+
+/**
+ * Mede o custo de Lake.runTime com o broad phase por hash espacial para frotas
+ * de 100 a 1M barcos, mantendo a densidade do cenario padrao de Main. Para
+ * frotas pequenas tambem mede a busca O(n^2) de todos os pares, para comparacao.
+ */
+public class CollisionBenchmark {
+    private static final int[] FLEETS = { 100, 1000, 10000, 100000, 1000000 };
+    private static final int BRUTE_FORCE_LIMIT = 10000;
+    private static final double DELTA = 1 / 60.0;
+    private static final int WARMUP_FRAMES = 5;
+    private static final int FRAMES = 20;
+
+    // Mantem o resultado da busca vivo para o JIT nao elimina-la
+    private static long hits;
+
+    public static void main(String[] args) {
+        System.out.println("kinematics: " + Lake.kinematics());
+        System.out.println("boats\tms/frame\tns/boat\tbrute force ms/pass");
+        for (int n : FLEETS) {
+            Lake lake = Fleets.build(n, Fleets.SPARSE, n);
+            for (int i = 0; i < WARMUP_FRAMES; i++) lake.runTime(DELTA);
+            long start = System.nanoTime();
+            for (int i = 0; i < FRAMES; i++) lake.runTime(DELTA);
+            double elapsed = (System.nanoTime() - start) / (double) FRAMES;
+            System.out.println(
+                n + "\t" +
+                Utils.format(elapsed / 1e6, 3) + "\t" +
+                Utils.format(elapsed / n, 1) + "\t" +
+                (n <= BRUTE_FORCE_LIMIT ? Utils.format(bruteForce(lake) / 1e6, 3) : "-")
+            );
+        }
+    }
+
+    // Um passo de deteccao comparando todos os pares, como antes do hash espacial
+    private static long bruteForce(Lake lake) {
+        long start = System.nanoTime();
+        hits += lake.intersectingPairs();
+        return System.nanoTime() - start;
+    }
+
+}
@@ -0,0 +1,61 @@
+package benchmark;
+
+import utils.Point;
+import utils.RandomStream;
+import utils.Vector2D;
+import base.Boat;
+import base.Lake;
+
+/**
+ * Frotas aleatorias e repetiveis usadas pelos benchmarks. O tamanho do lago
+ * acompanha o numero de barcos para manter a densidade constante.
+ */
+public class Fleets {
+    // Mesma area por barco que 10 barcos num lago 800 x 600
+    public static final double SPARSE = 800 * 600 / 10;
+    // Barcos a poucos diametros uns dos outros
+    public static final double DENSE = 4000;
+
+    // Suppress default constructor for noninstantiability
+    private Fleets() {
+        throw new AssertionError("Cannot instantiate " + this.getClass());
+    }
+
+    /**
+     * Cria um lago quadrado com n barcos de raio 10 a 20 espalhados
+     * uniformemente
+     * @param n numero de barcos
+     * @param areaPerBoat area do lago por barco
+     * @param sunkFraction fracao dos barcos criada em pares sobrepostos, que
+     *        afundam no primeiro runTime
+     * @param seed
+     */
+    public static Lake build(int n, double areaPerBoat, double sunkFraction, long seed) {
+        RandomStream random = new RandomStream(seed);
+        double side = Math.sqrt(n * areaPerBoat);
+        Lake lake = new Lake(side, side);
+        int sunk = (int) (n * sunkFraction) / 2 * 2;
+        for (int i = 1; i <= n; i++) {
+            double initialSpeed = random.random(0, 20);
+            double maxSpeed = initialSpeed + random.random(20, 200);
+            double radius = random.random(10, 20);
+            Boat boat = new Boat("Boat " + i, radius, initialSpeed, maxSpeed, random.random(5, 50));
+            Point position = Point.xy(
+                random.random(-side / 2 + 20, side / 2 - 20),
+                random.random(-side / 2 + 20, side / 2 - 20)
+            );
+            Vector2D direction = Vector2D.direction(random.random(0, 2 * Math.PI));
+            lake.addBoat(boat, position, direction);
+            if (i <= sunk) {
+                Boat wreck = new Boat("Boat " + (++i), radius, initialSpeed, maxSpeed, random.random(5, 50));
+                lake.addBoat(wreck, position.addX(radius / 2), direction);
+            }
+        }
+        return lake;
+    }
+
+    public static Lake build(int n, double areaPerBoat, long seed) {
+        return build(n, areaPerBoat, 0, seed);
+    }
+
+}
@@ -0,0 +1,121 @@
+package benchmark;
+
+import java.lang.management.ManagementFactory;
+import java.util.Arrays;
+
+/**
+ * Mede uma operacao no estilo do JMH: aquecimento, varias iteracoes de duracao
+ * fixa, vazao em operacoes por segundo, bytes alocados por operacao (como o
+ * profiler de GC do JMH) e percentis da latencia de cada chamada.
+ */
+public class Harness {
+    private static final com.sun.management.ThreadMXBean THREADS =
+        (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+    // Alocado uma vez para nao contar na alocacao medida
+    private static final long[] LATENCIES = new long[1 << 20];
+
+    /**
+     * Operacao medida. Cada chamada faz uma ou mais operacoes e retorna quantas
+     * fez; setup roda fora da medicao antes de cada iteracao e sempre que
+     * exhausted indicar que o estado precisa ser recriado.
+     */
+    public interface Benchmark {
+        void setup();
+        boolean exhausted();
+        long call();
+    }
+
+    private final long warmupNanos;
+    private final long iterationNanos;
+    private final int iterations;
+    // Mantem os resultados vivos para o JIT nao eliminar as operacoes
+    private static long sink;
+
+    public Harness(long warmupMillis, long iterationMillis, int iterations) {
+        this.warmupNanos = warmupMillis * 1000000;
+        this.iterationNanos = iterationMillis * 1000000;
+        this.iterations = iterations;
+    }
+
+    public static void printHeader() {
+        System.out.println(String.format("%-48s %14s %10s %10s %10s %10s %10s %10s %10s",
+            "benchmark", "ops/s", "error", "B/op", "MB/s", "p50 us", "p99 us", "p99.9 us", "max us"));
+    }
+
+    public void measure(String name, Benchmark benchmark) {
+        benchmark.setup();
+        long end = System.nanoTime() + warmupNanos;
+        while (System.nanoTime() < end) {
+            if (benchmark.exhausted()) benchmark.setup();
+            sink += benchmark.call();
+        }
+        double[] throughput = new double[iterations];
+        long[] latencies = LATENCIES;
+        int calls = 0;
+        long totalOps = 0;
+        long totalNanos = 0;
+        long thread = Thread.currentThread().getId();
+        long allocated = 0;
+        for (int i = 0; i < iterations; i++) {
+            benchmark.setup();
+            long ops = 0;
+            long paused = 0;
+            long allocatedBefore = THREADS.getThreadAllocatedBytes(thread);
+            long start = System.nanoTime();
+            long now = start;
+            end = start + iterationNanos;
+            while (now < end) {
+                if (benchmark.exhausted()) {
+                    // Recria o estado sem contar tempo nem alocacao
+                    allocated += THREADS.getThreadAllocatedBytes(thread) - allocatedBefore;
+                    benchmark.setup();
+                    allocatedBefore = THREADS.getThreadAllocatedBytes(thread);
+                    long resumed = System.nanoTime();
+                    paused += resumed - now;
+                    end += resumed - now;
+                    now = resumed;
+                }
+                long before = now;
+                ops += benchmark.call();
+                now = System.nanoTime();
+                if (calls < latencies.length) latencies[calls++] = now - before;
+            }
+            allocated += THREADS.getThreadAllocatedBytes(thread) - allocatedBefore;
+            throughput[i] = ops / ((now - start - paused) / 1e9);
+            totalOps += ops;
+            totalNanos += now - start - paused;
+        }
+        Arrays.sort(latencies, 0, calls);
+        System.out.println(String.format("%-48s %14.1f %10.1f %10.2f %10.1f %10.2f %10.2f %10.2f %10.2f",
+            name,
+            mean(throughput),
+            error(throughput),
+            (double) allocated / totalOps,
+            allocated / (totalNanos / 1e9) / (1 << 20),
+            percentile(latencies, calls, 0.5) / 1e3,
+            percentile(latencies, calls, 0.99) / 1e3,
+            percentile(latencies, calls, 0.999) / 1e3,
+            latencies[calls - 1] / 1e3
+        ));
+    }
+
+    private static double mean(double[] values) {
+        double sum = 0;
+        for (double v : values) sum += v;
+        return sum / values.length;
+    }
+
+    // Meio intervalo de confianca de 99.9%, aproximado pela normal
+    private static double error(double[] values) {
+        if (values.length < 2) return Double.NaN;
+        double mean = mean(values);
+        double sum = 0;
+        for (double v : values) sum += (v - mean) * (v - mean);
+        return 3.29 * Math.sqrt(sum / (values.length - 1)) / Math.sqrt(values.length);
+    }
+
+    private static long percentile(long[] sorted, int count, double p) {
+        return sorted[Math.min(count - 1, (int) Math.ceil(p * count) - 1)];
+    }
+
+}
@@ -0,0 +1,68 @@
+package benchmark;
+
+import utils.Point;
+import utils.Utils;
+import base.Boat;
+import base.Engine;
+import base.Lake;
+import base.ParallelEngine;
+import base.SubStepEngine;
+
+/**
+ * Mede o speedup do ParallelEngine sobre o SubStepEngine com 1 a 64 threads e
+ * confere que as posicoes finais sao identicas as do motor serial.
+ * Uso: ParallelBenchmark [barcos] [maximo de threads]
+ */
+public class ParallelBenchmark {
+    private static final double DELTA = 1 / 60.0;
+    private static final int WARMUP_FRAMES = 3;
+    private static final int FRAMES = 10;
+    private static final long SEED = 42;
+
+    public static void main(String[] args) {
+        int boats = args.length > 0 ? Integer.parseInt(args[0]) : 200000;
+        int maxThreads = args.length > 1 ? Integer.parseInt(args[1]) : 64;
+        System.out.println(boats + " boats, " + Runtime.getRuntime().availableProcessors() + " cores");
+        System.out.println("threads\tms/frame\tspeedup\tsame result");
+        Result serial = run(boats, new SubStepEngine());
+        System.out.println("serial\t" + Utils.format(serial.millis, 2) + "\t1.0\t-");
+        for (int threads = 1; threads <= maxThreads; threads *= 2) {
+            ParallelEngine engine = new ParallelEngine(threads);
+            Result parallel;
+            try {
+                parallel = run(boats, engine);
+            } finally {
+                engine.close();
+            }
+            System.out.println(
+                threads + "\t" +
+                Utils.format(parallel.millis, 2) + "\t" +
+                Utils.format(serial.millis / parallel.millis, 2) + "\t" +
+                (parallel.checksum == serial.checksum)
+            );
+        }
+    }
+
+    private static Result run(int n, Engine engine) {
+        Lake lake = Fleets.build(n, Fleets.SPARSE, SEED);
+        lake.setEngine(engine);
+        for (int i = 0; i < WARMUP_FRAMES; i++) lake.runTime(DELTA);
+        long start = System.nanoTime();
+        for (int i = 0; i < FRAMES; i++) lake.runTime(DELTA);
+        Result result = new Result();
+        result.millis = (System.nanoTime() - start) / 1e6 / FRAMES;
+        for (Boat boat : lake.getBoats()) {
+            Point p = boat.getPosition();
+            result.checksum = 31 * result.checksum + Double.doubleToLongBits(p.x());
+            result.checksum = 31 * result.checksum + Double.doubleToLongBits(p.y());
+            result.checksum = 31 * result.checksum + boat.getState().ordinal();
+        }
+        return result;
+    }
+
+    private static class Result {
+        double millis;
+        long checksum;
+    }
+
+}
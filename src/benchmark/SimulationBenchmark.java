@@ -0,0 +1,215 @@
+package benchmark;
+
+import java.util.List;
+
+import utils.Point;
+import utils.RandomStream;
+import utils.Vector2D;
+import base.Boat;
+import base.Lake;
+
+/**
+ * Benchmarks do nucleo da simulacao: Lake.runTime (um sub-passo por chamada),
+ * Boat.move, Boat.hasIntersection, Lake.intersectingPairs (ate 10k barcos) e a
+ * aritmetica de Point e Vector2D, para frotas de 10 a 1M barcos, lagos densos
+ * e esparsos e frotas em movimento ou quase todas afundadas. Com
+ * src-vector compilado e --add-modules jdk.incubator.vector os lacos sobre as
+ * colunas sao os vetoriais, e -Dlake.kinematics=scalar forca os escalares.
+ *
+ * Uso: SimulationBenchmark [filtro] [maxBoats=N] [warmup=ms] [iteration=ms] [iterations=N]
+ * O filtro seleciona os benchmarks cujo nome contem o texto.
+ */
+public class SimulationBenchmark {
+    private static final int[] FLEETS = { 10, 100, 1000, 10000, 100000, 1000000 };
+    private static final long SEED = 42;
+    // Tempo simulado por lago antes de recria-lo, para a frota nao parar toda
+    private static final double SIM_BUDGET = 2;
+    private static final double STOPPED_FRACTION = 0.9;
+    // Operacoes por chamada nos benchmarks de aritmetica
+    private static final int BATCH = 1024;
+    // Maior frota da busca de todos os pares
+    private static final int PAIRS_LIMIT = 10000;
+
+    private static String filter = "";
+    private static int maxBoats = 1000000;
+    private static Harness harness;
+
+    public static void main(String[] args) {
+        long warmup = 1000, iteration = 1000;
+        int iterations = 5;
+        for (String arg : args) {
+            if (arg.startsWith("maxBoats=")) maxBoats = Integer.parseInt(arg.substring(9));
+            else if (arg.startsWith("warmup=")) warmup = Long.parseLong(arg.substring(7));
+            else if (arg.startsWith("iteration=")) iteration = Long.parseLong(arg.substring(10));
+            else if (arg.startsWith("iterations=")) iterations = Integer.parseInt(arg.substring(11));
+            else filter = arg;
+        }
+        harness = new Harness(warmup, iteration, iterations);
+        System.out.println("kinematics: " + Lake.kinematics());
+        Harness.printHeader();
+        for (int n : FLEETS) {
+            if (n > maxBoats) break;
+            runTime(n, "dense", Fleets.DENSE, "moving", 0);
+            runTime(n, "dense", Fleets.DENSE, "sunk", STOPPED_FRACTION);
+            runTime(n, "sparse", Fleets.SPARSE, "moving", 0);
+            runTime(n, "sparse", Fleets.SPARSE, "sunk", STOPPED_FRACTION);
+        }
+        for (int n : FLEETS) if (n <= maxBoats) move(n);
+        for (int n : FLEETS) if (n <= maxBoats) hasIntersection(n);
+        for (int n : FLEETS) if (n <= Math.min(maxBoats, PAIRS_LIMIT)) intersectingPairs(n);
+        arithmetic();
+    }
+
+    private static boolean selected(String name) {
+        return name.contains(filter);
+    }
+
+    // Cada chamada e um unico sub-passo, entao a latencia medida e a do sub-passo
+    private static void runTime(final int n, String density, final double areaPerBoat,
+        String fleet, final double sunkFraction) {
+        String name = "Lake.runTime[" + n + "," + density + "," + fleet + "]";
+        if (!selected(name)) return;
+        harness.measure(name, new Harness.Benchmark() {
+            private Lake lake;
+            private double step;
+
+            public void setup() {
+                lake = Fleets.build(n, areaPerBoat, sunkFraction, SEED);
+                step = 0.99 * subStep(lake.getBoats());
+                // Afunda os pares sobrepostos antes de medir
+                lake.runTime(step);
+            }
+
+            public boolean exhausted() {
+                return lake.getTime() > SIM_BUDGET || !lake.hasMovement();
+            }
+
+            public long call() {
+                lake.runTime(step);
+                return 1;
+            }
+        });
+    }
+
+    private static void move(final int n) {
+        String name = "Boat.move[" + n + "]";
+        if (!selected(name)) return;
+        harness.measure(name, new Harness.Benchmark() {
+            private List<Boat> boats;
+
+            public void setup() {
+                boats = Fleets.build(n, Fleets.SPARSE, SEED).getBoats();
+            }
+
+            public boolean exhausted() { return false; }
+
+            public long call() {
+                for (int i = 0; i < boats.size(); i++) boats.get(i).move(0.001);
+                return boats.size();
+            }
+        });
+    }
+
+    private static void hasIntersection(final int n) {
+        String name = "Boat.hasIntersection[" + n + "]";
+        if (!selected(name)) return;
+        harness.measure(name, new Harness.Benchmark() {
+            private List<Boat> boats;
+            private long hits;
+
+            public void setup() {
+                boats = Fleets.build(n, Fleets.DENSE, SEED).getBoats();
+            }
+
+            public boolean exhausted() { return false; }
+
+            public long call() {
+                Boat previous = boats.get(boats.size() - 1);
+                for (int i = 0; i < boats.size(); i++) {
+                    Boat boat = boats.get(i);
+                    if (boat.hasIntersection(previous)) hits++;
+                    previous = boat;
+                }
+                return boats.size();
+            }
+        });
+    }
+
+    // Operacoes sao os pares comparados
+    private static void intersectingPairs(final int n) {
+        String name = "Lake.intersectingPairs[" + n + "]";
+        if (!selected(name)) return;
+        harness.measure(name, new Harness.Benchmark() {
+            private Lake lake;
+            private long pairs;
+
+            public void setup() {
+                lake = Fleets.build(n, Fleets.DENSE, SEED);
+            }
+
+            public boolean exhausted() { return false; }
+
+            public long call() {
+                pairs += lake.intersectingPairs();
+                return (long) n * (n - 1) / 2;
+            }
+        });
+    }
+
+    private static void arithmetic() {
+        final Point[] points = new Point[BATCH];
+        final Vector2D[] vectors = new Vector2D[BATCH];
+        RandomStream random = new RandomStream(SEED);
+        for (int i = 0; i < BATCH; i++) {
+            points[i] = Point.xy(random.random(-100, 100), random.random(-100, 100));
+            vectors[i] = Vector2D.direction(random.random(0, 2 * Math.PI));
+        }
+        if (selected("Point.plus(Vector2D.times)")) {
+            harness.measure("Point.plus(Vector2D.times)", new Arithmetic() {
+                public double apply(int i) {
+                    return points[i].plus(vectors[i].times(1.5)).x();
+                }
+            });
+        }
+        if (selected("Point.minus.magnitude")) {
+            harness.measure("Point.minus.magnitude", new Arithmetic() {
+                public double apply(int i) {
+                    return points[i].minus(points[(i + 1) % BATCH]).magnitude();
+                }
+            });
+        }
+        if (selected("Vector2D.unitary")) {
+            harness.measure("Vector2D.unitary", new Arithmetic() {
+                public double apply(int i) {
+                    return vectors[i].times(3).unitary().xComponent();
+                }
+            });
+        }
+    }
+
+    private abstract static class Arithmetic implements Harness.Benchmark {
+        private double sum;
+
+        public abstract double apply(int i);
+
+        public void setup() { /* Nothing */ }
+        public boolean exhausted() { return false; }
+
+        public long call() {
+            for (int i = 0; i < BATCH; i++) sum += apply(i);
+            return BATCH;
+        }
+    }
+
+    // Passo que o SubStepEngine usaria: menor raio sobre a maior velocidade maxima
+    private static double subStep(List<Boat> boats) {
+        double minRadius = Double.POSITIVE_INFINITY;
+        double maxSpeed = 0;
+        for (Boat boat : boats) {
+            minRadius = Math.min(minRadius, boat.getRadius());
+            maxSpeed = Math.max(maxSpeed, boat.getMaxSpeed());
+        }
+        return minRadius / maxSpeed;
+    }
+
+}
@@ -0,0 +1,168 @@
+package simulation;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
+
+import base.Lake;
+
+/**
+ * Conjunto de lagos independentes simulados num pool de threads compartilhado,
+ * para sweeps de Monte Carlo. Cada lago e uma tarefa do ForkJoinPool: como os
+ * lagos param em tempos muito diferentes, as threads livres roubam os lagos
+ * que ainda nao comecaram. As estatisticas sao agregadas a cada lago que termina.
+ * Lagos adicionados como cenario e semente sao gerados dentro da propria
+ * tarefa, cada um com a sua RandomStream, e descartados depois de agregados,
+ * a menos que setKeepLakes peca para guarda-los.
+ *
+ * Uso: Ensemble [cenario.properties] [chave=valor ...] runs=N [workers=N]
+ * O lago i usa a semente do cenario + i.
+ */
+public class Ensemble {
+    private static final int HISTOGRAM_BINS = 60;
+    private static final long PROGRESS_INTERVAL = 1000;
+
+    private final List<Run> runs;
+    private final double dt;
+    private final double timeLimit;
+    private final ForkJoinPool pool;
+    private final EnsembleStats stats;
+    private volatile boolean keepLakes;
+
+    /**
+     * @param dt passo de cada runTime
+     * @param timeLimit tempo maximo simulado por lago
+     * @param workers numero de threads
+     * @param binWidth largura das faixas do histograma de tempo ate parar
+     */
+    public Ensemble(double dt, double timeLimit, int workers, double binWidth) {
+        this.runs = new ArrayList<Run>();
+        this.dt = dt;
+        this.timeLimit = timeLimit;
+        this.pool = new ForkJoinPool(workers);
+        this.stats = new EnsembleStats(binWidth, HISTOGRAM_BINS);
+    }
+
+    public void add(Lake lake) {
+        runs.add(new Run(null, 0, lake));
+    }
+
+    /**
+     * Adiciona um lago que sera gerado a partir do cenario e da semente na
+     * thread que for simula-lo
+     * @param scenario
+     * @param seed
+     */
+    public void add(Scenario scenario, long seed) {
+        runs.add(new Run(scenario, seed, null));
+    }
+
+    /**
+     * Guarda os lagos gerados de cenario e semente depois de simulados, para
+     * getLakes; sem isso a memoria usada nao cresce com o numero de lagos
+     * @param keepLakes
+     */
+    public void setKeepLakes(boolean keepLakes) {
+        this.keepLakes = keepLakes;
+    }
+
+    /**
+     * Lagos adicionados prontos e, com setKeepLakes, os gerados ja
+     * simulados, na ordem em que foram adicionados
+     */
+    public List<Lake> getLakes() {
+        List<Lake> lakes = new ArrayList<Lake>();
+        for (Run run : runs) if (run.lake != null) lakes.add(run.lake);
+        return lakes;
+    }
+    public EnsembleStats getStats() { return stats; }
+
+    /**
+     * Comeca a simular todos os lagos sem bloquear
+     * @return a tarefa que termina junto com o ultimo lago
+     */
+    public ForkJoinTask<Void> start() {
+        return pool.submit(new Range(0, runs.size()));
+    }
+
+    /**
+     * Simula todos os lagos e espera terminarem
+     */
+    public EnsembleStats run() {
+        start().join();
+        return stats;
+    }
+
+    public void shutdown() {
+        pool.shutdown();
+    }
+
+    // Divide os lagos ao meio ate sobrar um, que e simulado ate parar
+    private final class Range extends RecursiveAction {
+        private final int from;
+        private final int to;
+
+        private Range(int from, int to) {
+            this.from = from;
+            this.to = to;
+        }
+
+        protected void compute() {
+            if (to - from > 1) {
+                int mid = (from + to) >>> 1;
+                invokeAll(new Range(from, mid), new Range(mid, to));
+                return;
+            }
+            if (from == to) return;
+            Run run = runs.get(from);
+            Lake lake = run.lake != null ? run.lake : run.scenario.createLake(run.seed);
+            HeadlessRunner.run(lake, dt, timeLimit);
+            stats.record(lake);
+            if (run.scenario == null || keepLakes) run.lake = lake;
+        }
+    }
+
+    private static final class Run {
+        private final Scenario scenario;
+        private final long seed;
+        private volatile Lake lake;
+
+        private Run(Scenario scenario, long seed, Lake lake) {
+            this.scenario = scenario;
+            this.seed = seed;
+            this.lake = lake;
+        }
+    }
+
+    public static void main(String[] args) throws IOException, InterruptedException {
+        int runs = 1000;
+        int workers = Runtime.getRuntime().availableProcessors();
+        List<String> scenarioArgs = new ArrayList<String>();
+        for (String arg : args) {
+            if (arg.startsWith("runs=")) runs = Integer.parseInt(arg.substring(5));
+            else if (arg.startsWith("workers=")) workers = Integer.parseInt(arg.substring(8));
+            else scenarioArgs.add(arg);
+        }
+        Scenario scenario = Scenario.parse(scenarioArgs.toArray(new String[scenarioArgs.size()]));
+        if (scenario.getEngine().equals("parallel"))
+            throw new Scenario.InvalidScenarioException("the ensemble already runs lakes in parallel");
+        double timeLimit = Double.isInfinite(scenario.getTimeLimit()) ? 600 : scenario.getTimeLimit();
+        Ensemble ensemble = new Ensemble(scenario.getDt(), timeLimit, workers, timeLimit / HISTOGRAM_BINS);
+        for (int i = 0; i < runs; i++) ensemble.add(scenario, scenario.getSeed() + i);
+        long start = System.nanoTime();
+        ForkJoinTask<Void> task = ensemble.start();
+        while (!task.isDone()) {
+            Thread.sleep(PROGRESS_INTERVAL);
+            System.out.println(ensemble.getStats().getRuns() + "/" + runs + " runs");
+        }
+        task.join();
+        ensemble.shutdown();
+        System.out.println(scenario + " runs=" + runs + " workers=" + workers +
+            " wallTime=" + (System.nanoTime() - start) / 1000000 + "ms");
+        System.out.println(ensemble.getStats());
+    }
+
+}
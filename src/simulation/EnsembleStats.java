@@ -0,0 +1,86 @@
+package simulation;
+
+import utils.Utils;
+import base.Lake;
+
+/**
+ * Estatisticas agregadas de um Ensemble, atualizadas a cada lago que termina.
+ * Pode ser lida por outras threads enquanto o ensemble roda.
+ */
+public class EnsembleStats {
+    private final double binWidth;
+    private final long[] quiescence;
+    private int runs;
+    private int quiescent;
+    private long boats;
+    private long sunk;
+    private long stuck;
+    private long moving;
+    private int minSunk = Integer.MAX_VALUE;
+    private int maxSunk;
+    private double stuckRatioSum;
+
+    /**
+     * @param binWidth largura de cada faixa do histograma de tempo ate parar
+     * @param bins numero de faixas; a ultima acumula os tempos maiores
+     */
+    public EnsembleStats(double binWidth, int bins) {
+        this.binWidth = binWidth;
+        this.quiescence = new long[bins];
+    }
+
+    /**
+     * Registra o estado final de um lago
+     * @param lake
+     */
+    public synchronized void record(Lake lake) {
+        int lakeSunk = lake.getSunkCount();
+        int lakeStuck = lake.getStuckCount();
+        int lakeMoving = lake.getMovingCount();
+        int lakeBoats = lakeSunk + lakeStuck + lakeMoving;
+        runs++;
+        boats += lakeBoats;
+        sunk += lakeSunk;
+        stuck += lakeStuck;
+        moving += lakeMoving;
+        minSunk = Math.min(minSunk, lakeSunk);
+        maxSunk = Math.max(maxSunk, lakeSunk);
+        if (lakeBoats > 0) stuckRatioSum += (double) lakeStuck / lakeBoats;
+        // Lagos que chegaram ao limite de tempo nao entram no histograma
+        if (lakeMoving == 0) {
+            quiescent++;
+            quiescence[Math.min(quiescence.length - 1, (int) (lake.getTime() / binWidth))]++;
+        }
+    }
+
+    public synchronized int getRuns() { return runs; }
+    public synchronized int getQuiescentRuns() { return quiescent; }
+    public synchronized long getSunk() { return sunk; }
+    public synchronized long getStuck() { return stuck; }
+    public synchronized double getMeanSunk() { return runs == 0 ? 0 : (double) sunk / runs; }
+    public synchronized double getMeanStuckRatio() { return runs == 0 ? 0 : stuckRatioSum / runs; }
+    public synchronized long[] getQuiescenceHistogram() { return quiescence.clone(); }
+    public double getBinWidth() { return binWidth; }
+
+    public synchronized String toString() {
+        StringBuilder text = new StringBuilder();
+        text.append("runs=").append(runs)
+            .append(" quiescent=").append(quiescent)
+            .append(" boats=").append(boats)
+            .append(" sunk=").append(sunk)
+            .append(" stuck=").append(stuck)
+            .append(" moving=").append(moving)
+            .append(" sunkPerRun=").append(Utils.format(getMeanSunk(), 2))
+            .append(" [").append(runs == 0 ? 0 : minSunk).append(", ").append(maxSunk).append("]")
+            .append(" stuckRatio=").append(Utils.format(getMeanStuckRatio(), 4));
+        text.append("\ntime to quiescence:");
+        for (int i = 0; i < quiescence.length; i++) {
+            if (quiescence[i] == 0) continue;
+            text.append("\n  ").append(Utils.format(i * binWidth, 2))
+                .append(i == quiescence.length - 1 ? "+" : " - " + Utils.format((i + 1) * binWidth, 2))
+                .append("s\t").append(quiescence[i]);
+        }
+        return text.toString();
+    }
+
+}
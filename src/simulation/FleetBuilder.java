@@ -0,0 +1,210 @@
+package simulation;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
+
+import utils.Point;
+import utils.RandomStream;
+import utils.Vector2D;
+import base.Boat;
+import base.Lake;
+
+/**
+ * Gera frotas grandes de barcos aleatorios. Os barcos e as posicoes sao
+ * sorteados em blocos em paralelo, cada bloco com a sua RandomStream, e sem
+ * rejeicao: as posicoes ja saem dentro do lago. Depois os barcos entram no
+ * lago em ordem, com a colisao com os anteriores verificada pelo grid do lago.
+ * O resultado depende so da semente, nao do numero de threads.
+ */
+public class FleetBuilder {
+    public enum Distribution {
+        // Uniforme em todo o lago
+        UNIFORM,
+        // Normal centrada no lago com desvio de um quarto das dimensoes
+        GAUSSIAN,
+        // Normais em torno de centros uniformes
+        CLUSTERED,
+        // Centros das celulas de uma grade que cobre o lago
+        GRID
+    }
+
+    private static final int CHUNK = 4096;
+
+    private Distribution distribution;
+    private int clusters;
+    private double spread;
+    private int attempts;
+    private int threads;
+    // Estado da geracao em andamento, lido pelas tarefas
+    private Lake lake;
+    private Boat[] boats;
+    private double[] x;
+    private double[] y;
+    private double[] angle;
+    private RandomStream[] streams;
+    private double[] centerX;
+    private double[] centerY;
+
+    public FleetBuilder() {
+        distribution = Distribution.GAUSSIAN;
+        clusters = 8;
+        spread = 0.1;
+        attempts = 0;
+        threads = Runtime.getRuntime().availableProcessors();
+    }
+
+    public FleetBuilder distribution(Distribution distribution) {
+        this.distribution = distribution;
+        return this;
+    }
+
+    /**
+     * @param clusters numero de aglomerados da distribuicao CLUSTERED
+     * @param spread desvio de cada aglomerado, como fracao das dimensoes do lago
+     */
+    public FleetBuilder clusters(int clusters, double spread) {
+        if (clusters < 1) throw new IllegalArgumentException("clusters must be >= 1");
+        this.clusters = clusters;
+        this.spread = spread;
+        return this;
+    }
+
+    /**
+     * Quantas vezes sortear de novo a posicao de um barco que intersecta um
+     * barco anterior. Com 0 os barcos sobrepostos afundam no primeiro runTime,
+     * como em Scenario.randomBoats.
+     * @param attempts
+     */
+    public FleetBuilder attempts(int attempts) {
+        this.attempts = attempts;
+        return this;
+    }
+
+    public FleetBuilder threads(int threads) {
+        if (threads < 1) throw new IllegalArgumentException("threads must be >= 1");
+        this.threads = threads;
+        return this;
+    }
+
+    /**
+     * Gera n barcos e os adiciona ao lago
+     * @param lake
+     * @param n
+     * @param seed
+     */
+    public void build(Lake lake, int n, long seed) {
+        RandomStream random = new RandomStream(seed);
+        int chunks = (n + CHUNK - 1) / CHUNK;
+        this.lake = lake;
+        boats = new Boat[n];
+        x = new double[n];
+        y = new double[n];
+        angle = new double[n];
+        streams = new RandomStream[chunks];
+        for (int c = 0; c < chunks; c++) streams[c] = random.split();
+        centerX = new double[clusters];
+        centerY = new double[clusters];
+        for (int c = 0; c < clusters; c++) {
+            centerX[c] = random.random(-lake.getWidth() / 2, lake.getWidth() / 2);
+            centerY[c] = random.random(-lake.getHeight() / 2, lake.getHeight() / 2);
+        }
+        generateAll(chunks);
+        for (int i = 0; i < n; i++) {
+            Point position = Point.xy(x[i], y[i]);
+            double radius = boats[i].getRadius();
+            for (int k = 0; k < attempts && distribution != Distribution.GRID && !lake.isFree(position, radius); k++) {
+                position = position(random, radius);
+            }
+            lake.addBoat(boats[i], position, Vector2D.direction(angle[i]));
+            boats[i] = null;
+        }
+        this.lake = null;
+        boats = null;
+        x = y = angle = null;
+        streams = null;
+    }
+
+    private void generateAll(int chunks) {
+        Blocks task = new Blocks(0, chunks);
+        if (threads == 1 || chunks == 1) task.compute();
+        // Dentro de um pool, como no Ensemble, divide o trabalho com ele
+        else if (ForkJoinTask.inForkJoinPool()) task.invoke();
+        else {
+            ForkJoinPool pool = new ForkJoinPool(threads);
+            try { pool.invoke(task); } finally { pool.shutdown(); }
+        }
+    }
+
+    // Gera os barcos do bloco c com a stream do bloco
+    private void generate(int c) {
+        RandomStream random = streams[c];
+        int to = Math.min(boats.length, (c + 1) * CHUNK);
+        for (int i = c * CHUNK; i < to; i++) {
+            boats[i] = Scenario.randomBoat(i + 1, random);
+            angle[i] = random.random(0, 2 * Math.PI);
+            double radius = boats[i].getRadius();
+            if (distribution == Distribution.GRID) gridPosition(i, radius);
+            else {
+                Point p = position(random, radius);
+                x[i] = p.x();
+                y[i] = p.y();
+            }
+        }
+    }
+
+    // Sorteia o centro de um barco de modo que ele fique inteiro no lago
+    private Point position(RandomStream random, double radius) {
+        double maxX = lake.getWidth() / 2 - radius;
+        double maxY = lake.getHeight() / 2 - radius;
+        switch (distribution) {
+            case UNIFORM: default:
+                return Point.xy(random.random(-maxX, maxX), random.random(-maxY, maxY));
+            case GAUSSIAN:
+                return Point.xy(
+                    random.truncatedNormal(0, lake.getWidth() / 4, -maxX, maxX),
+                    random.truncatedNormal(0, lake.getHeight() / 4, -maxY, maxY)
+                );
+            case CLUSTERED:
+                int c = random.nextInt(clusters);
+                return Point.xy(
+                    random.truncatedNormal(centerX[c], spread * lake.getWidth(), -maxX, maxX),
+                    random.truncatedNormal(centerY[c], spread * lake.getHeight(), -maxY, maxY)
+                );
+        }
+    }
+
+    // Grade com celulas o mais quadradas possivel, preenchida linha a linha
+    private void gridPosition(int i, double radius) {
+        int n = boats.length;
+        double width = lake.getWidth();
+        double height = lake.getHeight();
+        int columns = (int) Math.ceil(Math.sqrt(n * width / height));
+        int rows = (n + columns - 1) / columns;
+        double maxX = width / 2 - radius;
+        double maxY = height / 2 - radius;
+        x[i] = Math.max(-maxX, Math.min(maxX, -width / 2 + (i % columns + 0.5) * width / columns));
+        y[i] = Math.max(-maxY, Math.min(maxY, -height / 2 + (i / columns + 0.5) * height / rows));
+    }
+
+    // Divide os blocos ao meio ate sobrar um
+    private final class Blocks extends RecursiveAction {
+        private final int from;
+        private final int to;
+
+        private Blocks(int from, int to) {
+            this.from = from;
+            this.to = to;
+        }
+
+        protected void compute() {
+            if (to - from > 1 && threads > 1) {
+                int mid = (from + to) >>> 1;
+                invokeAll(new Blocks(from, mid), new Blocks(mid, to));
+                return;
+            }
+            for (int c = from; c < to; c++) generate(c);
+        }
+    }
+
+}
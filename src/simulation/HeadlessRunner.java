@@ -0,0 +1,110 @@
+package simulation;
+
+import java.io.IOException;
+import java.nio.file.Paths;
+import java.util.Arrays;
+
+import utils.Utils;
+import base.Lake;
+import base.LakeSnapshot;
+import base.LakeStats;
+import base.TrajectoryRecorder;
+
+/**
+ * Roda um cenario sem interface grafica, o mais rapido possivel, ate nao haver
+ * mais barcos em movimento ou o limite de tempo ser atingido.
+ * Uso: HeadlessRunner [cenario.properties] [chave=valor ...] [--boats]
+ *        [--load=snapshot] [--save=snapshot] [--record=trajetoria] [--metrics]
+ *
+ * Imprime uma linha de resumo no formato chave=valor e, com --boats, o estado
+ * final de cada barco. Com --load o lago vem de um snapshot em vez de ser
+ * gerado, e continua do tempo em que foi salvo, sem roteiro de comandos; com
+ * --save o lago final e gravado num snapshot. Com --record a trajetoria de
+ * todos os barcos e gravada a cada passo dt. Com --metrics o lago e medido
+ * por um LakeStats, registrado no JMX, e uma segunda linha resume as medidas.
+ */
+public class HeadlessRunner {
+
+    public static void main(String[] args) throws IOException {
+        boolean printBoats = false, metrics = false;
+        String load = null, save = null, record = null;
+        int count = 0;
+        String[] scenarioArgs = new String[args.length];
+        for (String arg : args) {
+            if (arg.equals("--boats")) printBoats = true;
+            else if (arg.startsWith("--load=")) load = arg.substring(7);
+            else if (arg.startsWith("--save=")) save = arg.substring(7);
+            else if (arg.startsWith("--record=")) record = arg.substring(9);
+            else if (arg.equals("--metrics")) metrics = true;
+            else scenarioArgs[count++] = arg;
+        }
+        Scenario scenario = Scenario.parse(Arrays.copyOf(scenarioArgs, count));
+        Lake lake;
+        if (load == null) lake = scenario.createLake();
+        else {
+            // O snapshot nao guarda quais comandos do roteiro ja foram aplicados
+            if (scenario.getCommands() != null) {
+                throw new Scenario.InvalidScenarioException("commands cannot be used with --load");
+            }
+            lake = LakeSnapshot.read(Paths.get(load));
+            lake.setEngine(scenario.createEngine());
+        }
+        TrajectoryRecorder recorder = null;
+        if (record != null) {
+            recorder = new TrajectoryRecorder(Paths.get(record));
+            lake.setRecorder(recorder);
+        }
+        LakeStats stats = null;
+        if (metrics) {
+            stats = new LakeStats();
+            stats.register("headless");
+            lake.setMetrics(stats);
+        }
+        long wallTime = run(lake, scenario.getDt(), scenario.getTimeLimit());
+        if (recorder != null) {
+            lake.setRecorder(null);
+            recorder.close();
+        }
+        if (save != null) LakeSnapshot.write(lake, Paths.get(save));
+        if (printBoats) Main.printLakeStatus(lake, lake.getTime());
+        System.out.println(scenario + " " + summary(lake, wallTime));
+        if (stats != null) System.out.println(stats);
+    }
+
+    /**
+     * Avanca o lago de dt em dt ate parar ou ate timeLimit
+     * @return o tempo de relogio gasto, em nanossegundos
+     */
+    public static long run(Lake lake, double dt, double timeLimit) {
+        long start = System.nanoTime();
+        long steps = steps(lake.getTime(), dt, timeLimit);
+        for (long i = 0; i < steps && lake.hasMovement(); i++) lake.runTime(dt);
+        return System.nanoTime() - start;
+    }
+
+    /**
+     * Passos de dt que cabem de time ate timeLimit. Contar os passos, e nao
+     * comparar com o tempo somado a cada passo, evita perder o ultimo por
+     * erro de arredondamento.
+     */
+    /* default */ static long steps(double time, double dt, double timeLimit) {
+        if (Double.isInfinite(timeLimit)) return Long.MAX_VALUE;
+        return Math.max(0, (long) Math.floor((timeLimit - time) / dt + 1e-9));
+    }
+
+    public static String summary(Lake lake, long wallTime) {
+        return summary(lake.getTime(), lake.getMovingCount(), lake.getStuckCount(), lake.getSunkCount(), wallTime);
+    }
+
+    /**
+     * A linha de summary a partir do tempo de simulacao e das contagens
+     */
+    /* default */ static String summary(double time, int moving, int stuck, int sunk, long wallTime) {
+        double seconds = wallTime / 1e9;
+        return "simTime=" + Utils.format(time, 3) +
+            " wallTime=" + Utils.format(seconds, 3) +
+            " simPerWall=" + Utils.format(time / seconds, 1) +
+            " moving=" + moving + " stuck=" + stuck + " sunk=" + sunk;
+    }
+
+}
@@ -0,0 +1,153 @@
+package simulation;
+
+import java.awt.Color;
+import java.awt.Graphics;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import base.LakeFrame;
+
+/**
+ * Mapa de densidade dos barcos, usado quando eles ficam menores que um pixel.
+ * O lago e dividido em ladrilhos de TILE x TILE pixels numa escala potencia
+ * de 2, e cada celula de BIN x BIN pixels de um ladrilho conta os barcos que
+ * caem nela. A imagem de um ladrilho fica guardada e so e refeita quando as
+ * suas contagens mudam.
+ */
+final class HeatmapTiles {
+    /* default */ static final int TILE = 256;
+    // Celulas de 2 x 2 pixels mantem as contagens no cache do processador
+    private static final int BIN = 2;
+    private static final int CELLS = TILE / BIN;
+    // Ladrilhos guardados, os usados ha mais tempo sao descartados
+    private static final int CACHE = 256;
+    // Contagem a partir da qual a cor nao muda mais
+    private static final int SATURATION = 64;
+
+    private final int[] afloatColors;
+    private final int[] sunkColors;
+    private final Map<Long, Tile> cache;
+    // Contagens dos ladrilhos visiveis, CELLS * CELLS por ladrilho: barcos que
+    // nao afundaram nos 16 bits baixos e afundados nos altos
+    private int[] counts;
+
+    /**
+     * @param afloatColor cor dos barcos que nao afundaram
+     * @param sunkColor cor dos pixels so com barcos afundados
+     */
+    /* default */ HeatmapTiles(Color afloatColor, Color sunkColor) {
+        afloatColors = palette(afloatColor);
+        sunkColors = palette(sunkColor);
+        cache = new LinkedHashMap<Long, Tile>(64, 0.75f, true) {
+            protected boolean removeEldestEntry(Map.Entry<Long, Tile> eldest) {
+                return size() > CACHE;
+            }
+        };
+        counts = new int[0];
+    }
+
+    // Transparente sem barcos, mais opaco conforme a contagem
+    private static int[] palette(Color color) {
+        int[] colors = new int[SATURATION + 1];
+        for (int c = 1; c <= SATURATION; c++) {
+            double level = Math.log1p(c) / Math.log1p(SATURATION);
+            int alpha = (int) (64 + 191 * level);
+            colors[c] = (alpha << 24) | (color.getRGB() & 0xffffff);
+        }
+        return colors;
+    }
+
+    /**
+     * Desenha os ladrilhos que cobrem a tela
+     * @param g
+     * @param frame
+     * @param centerX ponto do lago no centro da tela
+     * @param centerY
+     * @param scale pixels por unidade do lago
+     * @param width tamanho da tela
+     * @param height
+     */
+    /* default */ void draw(Graphics g, LakeFrame frame, double centerX, double centerY, double scale,
+        int width, int height) {
+        int level = (int) Math.floor(Math.log(scale) / Math.log(2));
+        double tileScale = Math.scalb(1.0, level);
+        double tileSize = TILE / tileScale;
+        int tx0 = (int) Math.floor((centerX - width / 2.0 / scale) / tileSize);
+        int tx1 = (int) Math.floor((centerX + width / 2.0 / scale) / tileSize);
+        int ty0 = (int) Math.floor((centerY - height / 2.0 / scale) / tileSize);
+        int ty1 = (int) Math.floor((centerY + height / 2.0 / scale) / tileSize);
+        int columns = tx1 - tx0 + 1;
+        int rows = ty1 - ty0 + 1;
+        int cells = columns * rows * CELLS * CELLS;
+        if (counts.length < cells) counts = new int[cells];
+        else Arrays.fill(counts, 0, cells, 0);
+        // Celulas contadas a partir do canto superior esquerdo do primeiro
+        // ladrilho, com os ladrilhos de cima primeiro
+        double left = tx0 * tileSize;
+        double top = (ty1 + 1) * tileSize;
+        double cellScale = tileScale / BIN;
+        int spanX = columns * CELLS;
+        int spanY = rows * CELLS;
+        for (int k = 0; k < frame.size(); k++) {
+            double px = (frame.x(k) - left) * cellScale;
+            double py = (top - frame.y(k)) * cellScale;
+            if (!(px >= 0 && px < spanX && py >= 0 && py < spanY)) continue;
+            int ix = (int) px;
+            int iy = (int) py;
+            int index = ((iy / CELLS) * columns + ix / CELLS) * CELLS * CELLS + (iy % CELLS) * CELLS + ix % CELLS;
+            int count = counts[index];
+            if (frame.isSunk(k)) {
+                if (count >>> 16 != 0xffff) counts[index] = count + 0x10000;
+            } else if ((count & 0xffff) != 0xffff) counts[index] = count + 1;
+        }
+        for (int ty = 0; ty < rows; ty++) {
+            for (int tx = 0; tx < columns; tx++) {
+                int offset = (ty * columns + tx) * CELLS * CELLS;
+                Tile tile = tile(level, tx0 + tx, ty1 - ty, offset);
+                if (tile.empty) continue;
+                // Bordas calculadas pelas do vizinho, sem frestas entre ladrilhos
+                int x1 = (int) Math.floor(width / 2.0 + ((tx0 + tx) * tileSize - centerX) * scale);
+                int x2 = (int) Math.floor(width / 2.0 + ((tx0 + tx + 1) * tileSize - centerX) * scale);
+                int y1 = (int) Math.floor(height / 2.0 - ((ty1 - ty + 1) * tileSize - centerY) * scale);
+                int y2 = (int) Math.floor(height / 2.0 - ((ty1 - ty) * tileSize - centerY) * scale);
+                g.drawImage(tile.image, x1, y1, x2, y2, 0, 0, CELLS, CELLS, null);
+            }
+        }
+    }
+
+    // Ladrilho guardado, refeito se as contagens mudaram
+    private Tile tile(int level, int tx, int ty, int offset) {
+        long hash = 1125899906842597L;
+        for (int i = offset; i < offset + CELLS * CELLS; i++) hash = 31 * hash + counts[i];
+        Long key = Long.valueOf(((long) (level & 0xff) << 56) ^ ((long) (tx & 0xfffffff) << 28) ^
+            (ty & 0xfffffff));
+        Tile tile = cache.get(key);
+        if (tile != null && tile.hash == hash) return tile;
+        if (tile == null) {
+            tile = new Tile();
+            cache.put(key, tile);
+        }
+        tile.hash = hash;
+        tile.empty = true;
+        int[] pixels = ((DataBufferInt) tile.image.getRaster().getDataBuffer()).getData();
+        for (int i = 0; i < CELLS * CELLS; i++) {
+            int count = counts[offset + i];
+            int afloat = count & 0xffff;
+            pixels[i] = afloat > 0
+                ? afloatColors[Math.min(afloat, SATURATION)]
+                : sunkColors[Math.min(count >>> 16, SATURATION)];
+            tile.empty &= count == 0;
+        }
+        return tile;
+    }
+
+    private static final class Tile {
+        private final BufferedImage image = new BufferedImage(CELLS, CELLS, BufferedImage.TYPE_INT_ARGB);
+        private long hash;
+        private boolean empty;
+    }
+
+}
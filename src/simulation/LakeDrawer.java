@@ -1,34 +1,46 @@
 package simulation;
 
 import java.awt.BorderLayout;
-import java.awt.Color;
 import java.awt.Container;
-import java.awt.GridLayout;
 
-import javax.swing.BorderFactory;
 import javax.swing.JFrame;
 import javax.swing.JLabel;
 
 import utils.Utils;
+import base.FrameExchange;
 import base.Lake;
 
 public class LakeDrawer extends JFrame {
-    private final Lake lake;
+    private final FrameExchange frames;
+    private final LakeRenderer renderer;
     private final LakePanel panel;
     private final JLabel status;
 
     public LakeDrawer(Lake lake) {
+        this(lake, new FrameExchange(lake));
+    }
+
+    /**
+     * Janela que desenha os quadros publicados em frames
+     * @param lake
+     * @param frames
+     */
+    public LakeDrawer(Lake lake, FrameExchange frames) {
         super();
-        this.lake = lake;
-        panel = new LakePanel(lake);
+        this.frames = frames;
+        renderer = new LakeRenderer(frames, new Runnable() {
+            public void run() { showFrame(); }
+        }, 60);
+        panel = new LakePanel(lake, renderer);
         status = new JLabel();
         build();
         settings();
+        renderer.start();
     }
     
     private void settings() {
         setDefaultCloseOperation(EXIT_ON_CLOSE);
-        setResizable(false);
+        setResizable(true);
         setVisible(true);
     }
     
@@ -41,13 +53,22 @@ public class LakeDrawer extends JFrame {
         pack();
     }
     
-    public void refresh(double time) {
+    /**
+     * Publica o estado atual do lago para ser desenhado; chamado na thread da
+     * simulacao entre dois runTime
+     */
+    public void refresh() {
+        frames.publish();
+    }
+
+    // No EDT, quando o renderer tem uma imagem nova
+    private void showFrame() {
         panel.repaint();
         String sep = "      ";
         status.setText(
-            "Time: " + Utils.timeFormat(time) + sep +
-            "Boats: " + lake.getBoats().size() + sep + 
-            "[" + (lake.hasMovement() ? "Running" : "No Movement") + "]"
+            "Time: " + Utils.timeFormat(renderer.getTime()) + sep +
+            "Boats: " + renderer.getBoatCount() + sep + 
+            "[" + (renderer.hasMovement() ? "Running" : "No Movement") + "]"
         );
     }
 
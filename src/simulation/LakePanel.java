@@ -1,110 +1,131 @@
 package simulation;
 
-import java.awt.Color;
 import java.awt.Dimension;
 import java.awt.Graphics;
+import java.awt.event.ComponentAdapter;
+import java.awt.event.ComponentEvent;
 import java.awt.event.MouseAdapter;
 import java.awt.event.MouseEvent;
+import java.awt.event.MouseWheelEvent;
 
 import javax.swing.JPanel;
+import javax.swing.SwingUtilities;
 
 import utils.Point;
-import utils.Utils;
 import utils.Vector2D;
 import base.Boat;
+import base.Command;
 import base.Lake;
 
+/**
+ * Mostra as imagens do LakeRenderer. Nao le o lago: selecao e direcao usam o
+ * ultimo quadro desenhado.
+ *
+ * A roda do mouse aproxima e afasta em torno do cursor, e arrastar com o
+ * botao direito move a visao.
+ */
 public class LakePanel extends JPanel {
-    private final static Color MOVING_BOAT_COLOR   = new Color(56, 56, 56);
-    private final static Color SUNK_BOAT_COLOR     = new Color(24, 94, 163);
-    private final static Color STUCK_BOAT_COLOR    = new Color(197, 37, 41);
-    private final static Color SELECTED_BOAT_COLOR = new Color(35, 172, 11);
-    private final static Color LAKE_COLOR          = new Color(196, 224, 234);
-    private final static Color TEXT_COLOR          = new Color(0, 0, 0);
-    private final static Color LINE_COLOR          = new Color(180, 215, 225);
-    
-    private Boat selectedBoat = null;
-    private boolean boatSelected = false;
+    // Maior tamanho inicial do painel; lagos maiores comecam afastados
+    private static final int MAX_WIDTH = 1200;
+    private static final int MAX_HEIGHT = 800;
+    private static final double ZOOM = 1.25;
+
     private final Lake lake;
+    private final LakeRenderer renderer;
+    private boolean boatSelected = false;
+    // Ultima posicao do mouse ao arrastar a visao, ou null
+    private java.awt.Point dragging = null;
     
-    public LakePanel(Lake lake) {
+    public LakePanel(Lake lake, LakeRenderer renderer) {
         super();
         this.lake = lake;
-        addMouseListener(new MouseAdapter() {
+        this.renderer = renderer;
+        Dimension size = getPreferredSize();
+        renderer.setSize(size.width, size.height);
+        double fit = Math.min(MAX_WIDTH / lake.getWidth(), MAX_HEIGHT / lake.getHeight());
+        renderer.setView(0, 0, Math.min(fit, 1));
+        MouseAdapter mouse = new MouseAdapter() {
             public void mousePressed(MouseEvent e) { handleMousePressed(e); }
             public void mouseReleased(MouseEvent e) { handleMouseReleased(e); }
+            public void mouseDragged(MouseEvent e) { handleMouseDragged(e); }
+            public void mouseWheelMoved(MouseWheelEvent e) { handleMouseWheel(e); }
+        };
+        addMouseListener(mouse);
+        addMouseMotionListener(mouse);
+        addMouseWheelListener(mouse);
+        addComponentListener(new ComponentAdapter() {
+            public void componentResized(ComponentEvent e) {
+                LakePanel.this.renderer.setSize(getWidth(), getHeight());
+            }
         });
-        setBackground(LAKE_COLOR);
+        setOpaque(true);
     }
     
-    private boolean selectBoat(Point p) {
-        for (Boat boat : lake.getBoats()) {
-            double tolerance = 10 * 10 / (5 + boat.getRadius());
-            if (boat.isInside(p, tolerance) && boat.isMoving()) {
-                selectedBoat = boat;
-                return true;
-            }
-        }
-        return false;
+    private boolean selectBoat(MouseEvent e) {
+        Boat boat = renderer.boatAt(e.getX(), e.getY());
+        if (boat == null) return false;
+        renderer.setSelected(boat);
+        return true;
     }
     
     private void handleMousePressed(MouseEvent e) {
-        Point p = toLakeRef(Point.xy(e.getX(), e.getY()));
-        boatSelected = selectBoat(p); // More readable
+        if (SwingUtilities.isRightMouseButton(e)) {
+            dragging = e.getPoint();
+            return;
+        }
+        boatSelected = selectBoat(e); // More readable
+    }
+
+    private void handleMouseDragged(MouseEvent e) {
+        if (dragging == null) return;
+        double scale = renderer.getScale();
+        renderer.setView(
+            renderer.getCenterX() - (e.getX() - dragging.x) / scale,
+            renderer.getCenterY() + (e.getY() - dragging.y) / scale,
+            scale
+        );
+        dragging = e.getPoint();
+    }
+
+    // Aproxima mantendo parado o ponto do lago sob o cursor
+    private void handleMouseWheel(MouseWheelEvent e) {
+        Point p = renderer.toLake(e.getX(), e.getY());
+        double scale = renderer.getScale() * Math.pow(ZOOM, -e.getPreciseWheelRotation());
+        renderer.setView(
+            p.x() - (e.getX() - getWidth() / 2.0) / scale,
+            p.y() + (e.getY() - getHeight() / 2.0) / scale,
+            scale
+        );
     }
 
     private void handleMouseReleased(MouseEvent e) {
-        Point p = toLakeRef(Point.xy(e.getX(), e.getY()));
+        if (dragging != null) {
+            dragging = null;
+            return;
+        }
+        Boat selectedBoat = renderer.getSelected();
         if (!boatSelected && selectedBoat != null) {
-            Vector2D direction = p.minus(selectedBoat.getPosition());
-            selectedBoat.setDirection(direction);
+            Point p = renderer.toLake(e.getX(), e.getY());
+            Point position = renderer.positionOf(selectedBoat);
+            if (position == null) return;
+            Vector2D direction = p.minus(position);
+            // Um clique no centro do barco nao aponta para lugar nenhum
+            if (direction.magnitude() == 0) return;
+            // Aplicado pela thread da simulacao entre dois sub-passos
+            lake.submit(Command.turn(selectedBoat, direction));
         }
     }
     
     public Dimension getPreferredSize() {
         // Some untracked padding in width, ugly fix
-        return new Dimension((int) Math.ceil(lake.getWidth()) - 10, (int) Math.ceil(lake.getHeight()) + 6);
-    }
-
-    private Color getBoatColor(Boat boat) {
-        switch (boat.getState()) {
-            case Moving: default:
-                return (boat == selectedBoat) ? SELECTED_BOAT_COLOR : MOVING_BOAT_COLOR; 
-            case Sunk: return SUNK_BOAT_COLOR; 
-            case Stuck: return STUCK_BOAT_COLOR;
-        }
+        return new Dimension(
+            Math.min((int) Math.ceil(lake.getWidth()) - 10, MAX_WIDTH),
+            Math.min((int) Math.ceil(lake.getHeight()) + 6, MAX_HEIGHT)
+        );
     }
     
     protected void paintComponent(Graphics g) {
-        super.paintComponent(g);
-        g.setColor(LINE_COLOR);
-        g.drawLine((int) lake.getWidth() / 2, 0, (int) lake.getWidth() / 2, (int) lake.getHeight());
-        g.drawLine(0, (int) lake.getHeight() / 2, (int) lake.getWidth(), (int) lake.getHeight() / 2);
-        for (Boat boat : lake.getBoats()) {
-            Point p = toPanelRef(boat.getPosition());
-            int radius = (int) boat.getRadius();
-            int diameter = (int) (2 * boat.getRadius());
-            int x = (int) p.x();
-            int y = (int) p.y();
-            
-            // Draw label above boat
-            String label = boat.getName();
-            if (boat.isMoving()) label += " @ " + Utils.format(boat.getSpeed(), 1) + " px/s";
-            int offset = label.length() * 5 / 2;
-            g.setColor(TEXT_COLOR);
-            g.drawString(label, x - offset, y - radius - 5);
-            
-            // Draw boat with color according to boat state
-            g.setColor(getBoatColor(boat));
-            g.fillOval(x - radius, y - radius, diameter, diameter);
-        }
+        renderer.paint(g);
     }
 
-    private Point toPanelRef(Point p) {
-        return Point.xy(lake.getWidth() / 2 + p.x(), lake.getHeight() / 2 - p.y());
-    }
-
-    private Point toLakeRef(Point p) {
-        return Point.xy(p.x() - lake.getWidth() / 2, lake.getHeight() / 2 - p.y());
-    }
-}
\ No newline at end of file
+}
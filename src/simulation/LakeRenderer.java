@@ -0,0 +1,381 @@
+package simulation;
+
+import java.awt.AlphaComposite;
+import java.awt.Color;
+import java.awt.Graphics;
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.LockSupport;
+
+import javax.swing.SwingUtilities;
+
+import utils.Point;
+import utils.Utils;
+import base.Boat;
+import base.FrameExchange;
+import base.LakeFrame;
+
+/**
+ * Desenha os quadros publicados por um lago numa imagem, numa thread propria,
+ * sem tocar no lago nem nos barcos. O EDT so copia para a tela a ultima imagem
+ * pronta, e para achar barcos le os quadros num LakeFrame seu, sem esperar
+ * pelo desenho. Barcos fora da tela sao ignorados.
+ *
+ * O detalhe depende do tamanho dos barcos na tela: um mapa de densidade
+ * quando sao menores que um pixel, pontos e circulos sem nome no meio, e
+ * nomes e velocidades so quando sao grandes o bastante e nao sao muitos.
+ */
+public class LakeRenderer {
+    private final static Color MOVING_BOAT_COLOR   = new Color(56, 56, 56);
+    private final static Color SUNK_BOAT_COLOR     = new Color(24, 94, 163);
+    private final static Color STUCK_BOAT_COLOR    = new Color(197, 37, 41);
+    private final static Color SELECTED_BOAT_COLOR = new Color(35, 172, 11);
+    private final static Color LAKE_COLOR          = new Color(196, 224, 234);
+    private final static Color TEXT_COLOR          = new Color(0, 0, 0);
+    private final static Color LINE_COLOR          = new Color(180, 215, 225);
+    // Raio medio na tela, em pixels, abaixo do qual so o mapa de densidade e
+    // desenhado
+    private static final double HEATMAP_RADIUS = 0.5;
+    // Raio minimo na tela, em pixels, para desenhar o nome
+    private static final double LABEL_RADIUS = 6;
+    // Maximo de barcos em movimento com nome
+    private static final int MAX_LABELS = 1000;
+
+    private final FrameExchange frames;
+    private final Runnable onFrame;
+    private final AtomicBoolean pending;
+    private final long interval;
+    private final Thread thread;
+    private volatile boolean running;
+    // Ponto do lago no centro da tela e pixels por unidade do lago
+    private volatile double centerX;
+    private volatile double centerY;
+    private volatile double scale;
+    private volatile int width;
+    private volatile int height;
+    private volatile Boat selected;
+    // Incrementada a cada mudanca de visao, feita so pelo EDT
+    private volatile int view;
+    // Visao do quadro sendo desenhado, lida uma vez por quadro
+    private double viewX;
+    private double viewY;
+    private double viewScale;
+    private int viewWidth;
+    private int viewHeight;
+    private final HeatmapTiles heatmap;
+    // Imagens da tela, uma mostrada e outra sendo desenhada
+    private final BufferedImage[] images;
+    private volatile int shown;
+    // Camada dos barcos parados, refeita quando a visao muda
+    private BufferedImage wrecks;
+    private byte[] drawn;
+    private int wrecksView;
+    private int wrecksSize;
+    private int wrecksStuck;
+    private int wrecksSunk;
+    private int[] visible;
+    // Ultimo quadro desenhado, null antes do primeiro, o raio medio dos seus
+    // barcos e o que foi mostrado dele; so da thread de desenho, menos os
+    // volateis
+    private final LakeFrame received;
+    private LakeFrame frame;
+    private double meanRadius;
+    private volatile double shownTime;
+    private volatile int shownBoats;
+    private volatile boolean shownMovement;
+    // Quadro mais novo para boatAt e positionOf, so do EDT
+    private final LakeFrame picked;
+
+    /**
+     * @param frames quadros do lago
+     * @param onFrame chamado no EDT quando ha uma imagem nova
+     * @param fps
+     */
+    public LakeRenderer(FrameExchange frames, Runnable onFrame, double fps) {
+        this.frames = frames;
+        this.onFrame = onFrame;
+        received = new LakeFrame();
+        picked = new LakeFrame();
+        pending = new AtomicBoolean();
+        interval = (long) (1e9 / fps);
+        images = new BufferedImage[2];
+        heatmap = new HeatmapTiles(MOVING_BOAT_COLOR, SUNK_BOAT_COLOR);
+        scale = 1;
+        width = height = 1;
+        wrecksView = -1;
+        drawn = new byte[0];
+        visible = new int[0];
+        thread = new Thread(new Runnable() {
+            public void run() { loop(); }
+        }, "lake-renderer");
+        thread.setDaemon(true);
+    }
+
+    public void start() {
+        running = true;
+        thread.start();
+    }
+
+    public void stop() {
+        running = false;
+        LockSupport.unpark(thread);
+    }
+
+    /**
+     * Mostra o ponto (centerX, centerY) do lago no centro da tela, com scale
+     * pixels por unidade
+     */
+    public void setView(double centerX, double centerY, double scale) {
+        this.centerX = centerX;
+        this.centerY = centerY;
+        this.scale = scale;
+        view++;
+    }
+
+    public void setSize(int width, int height) {
+        this.width = Math.max(width, 1);
+        this.height = Math.max(height, 1);
+        view++;
+    }
+
+    public void setSelected(Boat boat) {
+        selected = boat;
+        view++;
+    }
+
+    public double getCenterX() { return centerX; }
+    public double getCenterY() { return centerY; }
+    public double getScale() { return scale; }
+    public Boat getSelected() { return selected; }
+    // Do quadro mostrado
+    public double getTime() { return shownTime; }
+    public int getBoatCount() { return shownBoats; }
+    public boolean hasMovement() { return shownMovement; }
+
+    /**
+     * Copia a ultima imagem pronta; chamado pelo EDT
+     * @param g
+     */
+    public void paint(Graphics g) {
+        BufferedImage image = images[shown];
+        if (image == null) return;
+        synchronized (image) {
+            g.drawImage(image, 0, 0, null);
+        }
+    }
+
+    /**
+     * Barco em movimento sob o ponto (x, y) da tela, no quadro mais novo, ou
+     * null; chamado pelo EDT
+     */
+    public Boat boatAt(int x, int y) {
+        frames.read(picked);
+        Point p = toLake(x, y);
+        for (int k = 0; k < picked.size(); k++) {
+            if (!picked.isMoving(k)) continue;
+            double radius = picked.radius(k);
+            double tolerance = 10 * 10 / (5 + radius);
+            double dx = picked.x(k) - p.x();
+            double dy = picked.y(k) - p.y();
+            if (Math.sqrt(dx * dx + dy * dy) < radius + tolerance) return picked.boat(k);
+        }
+        return null;
+    }
+
+    /**
+     * Posicao do barco no quadro mais novo, ou null; chamado pelo EDT
+     */
+    public Point positionOf(Boat boat) {
+        frames.read(picked);
+        for (int k = 0; k < picked.size(); k++) {
+            if (picked.boat(k) == boat) return Point.xy(picked.x(k), picked.y(k));
+        }
+        return null;
+    }
+
+    public Point toLake(int x, int y) {
+        double s = scale;
+        return Point.xy(centerX + (x - width / 2.0) / s, centerY - (y - height / 2.0) / s);
+    }
+
+    private void loop() {
+        long next = System.nanoTime();
+        int rendered = -1;
+        while (running) {
+            boolean fresh = frames.read(received);
+            if (fresh) {
+                frame = received;
+                meanRadius = meanRadius(frame);
+            }
+            int current = view;
+            if (frame != null && (fresh || current != rendered)) {
+                rendered = current;
+                render(current);
+                shownTime = frame.getTime();
+                shownBoats = frame.size();
+                shownMovement = frame.getMovingCount() > 0;
+                if (pending.compareAndSet(false, true)) SwingUtilities.invokeLater(new Runnable() {
+                    public void run() {
+                        pending.set(false);
+                        onFrame.run();
+                    }
+                });
+            }
+            next += interval;
+            long now = System.nanoTime();
+            if (next < now) next = now;
+            else LockSupport.parkNanos(next - now);
+        }
+    }
+
+    private static double meanRadius(LakeFrame frame) {
+        double sum = 0;
+        for (int k = 0; k < frame.size(); k++) sum += frame.radius(k);
+        return frame.size() > 0 ? sum / frame.size() : 0;
+    }
+
+    private void render(int view) {
+        viewX = centerX;
+        viewY = centerY;
+        viewScale = scale;
+        viewWidth = width;
+        viewHeight = height;
+        int w = viewWidth;
+        int h = viewHeight;
+        int index = 1 - shown;
+        BufferedImage image = images[index];
+        if (image == null || image.getWidth() != w || image.getHeight() != h) {
+            image = new BufferedImage(w, h, BufferedImage.TYPE_INT_RGB);
+        }
+        synchronized (image) {
+            Graphics2D g = image.createGraphics();
+            g.setColor(LAKE_COLOR);
+            g.fillRect(0, 0, w, h);
+            g.setColor(LINE_COLOR);
+            int originX = (int) screenX(0);
+            int originY = (int) screenY(0);
+            g.drawLine(originX, 0, originX, h);
+            g.drawLine(0, originY, w, originY);
+            if (meanRadius * viewScale < HEATMAP_RADIUS) {
+                heatmap.draw(g, frame, viewX, viewY, viewScale, w, h);
+                g.dispose();
+                images[index] = image;
+                shown = index;
+                return;
+            }
+            g.drawImage(wrecks(view, w, h), 0, 0, null);
+            int count = 0;
+            if (visible.length < frame.size()) visible = new int[frame.size()];
+            for (int k = 0; k < frame.size(); k++) {
+                if (frame.isMoving(k) && isVisible(k, w, h)) visible[count++] = k;
+            }
+            Boat selected = this.selected;
+            for (int i = 0; i < count; i++) {
+                int k = visible[i];
+                Color color = frame.boat(k) == selected ? SELECTED_BOAT_COLOR : MOVING_BOAT_COLOR;
+                drawBoat(g, image, k, color, count <= MAX_LABELS);
+            }
+            g.dispose();
+        }
+        images[index] = image;
+        shown = index;
+    }
+
+    // Desenha na camada so os barcos que pararam desde o ultimo quadro
+    private BufferedImage wrecks(int view, int w, int h) {
+        int n = frame.size();
+        boolean redraw = wrecks == null || wrecksView != view ||
+            wrecks.getWidth() != w || wrecks.getHeight() != h;
+        if (!redraw && n == wrecksSize && frame.getStuckCount() == wrecksStuck &&
+            frame.getSunkCount() == wrecksSunk) return wrecks;
+        if (drawn.length < n) drawn = Arrays.copyOf(drawn, Math.max(n, 2 * drawn.length));
+        // Um barco encalhado que afunda pode ter sido reposicionado
+        for (int k = 0; k < n && !redraw; k++) {
+            redraw = drawn[k] != 0 && drawn[k] != code(k);
+        }
+        Graphics2D g;
+        if (redraw) {
+            if (wrecks == null || wrecks.getWidth() != w || wrecks.getHeight() != h) {
+                wrecks = new BufferedImage(w, h, BufferedImage.TYPE_INT_ARGB);
+            }
+            Arrays.fill(drawn, (byte) 0);
+            g = wrecks.createGraphics();
+            g.setComposite(AlphaComposite.Clear);
+            g.fillRect(0, 0, w, h);
+            g.setComposite(AlphaComposite.SrcOver);
+        } else g = wrecks.createGraphics();
+        for (int k = 0; k < n; k++) {
+            if (frame.isMoving(k) || drawn[k] != 0) continue;
+            drawn[k] = code(k);
+            if (!isVisible(k, w, h)) continue;
+            drawBoat(g, wrecks, k, frame.isSunk(k) ? SUNK_BOAT_COLOR : STUCK_BOAT_COLOR, true);
+        }
+        g.dispose();
+        wrecksView = view;
+        wrecksSize = n;
+        wrecksStuck = frame.getStuckCount();
+        wrecksSunk = frame.getSunkCount();
+        return wrecks;
+    }
+
+    private static int[] pixels(BufferedImage image) {
+        return ((DataBufferInt) image.getRaster().getDataBuffer()).getData();
+    }
+
+    private byte code(int row) {
+        return (byte) (frame.state(row).ordinal() + 1);
+    }
+
+    private boolean isVisible(int row, int w, int h) {
+        double r = frame.radius(row) * viewScale;
+        double x = screenX(frame.x(row));
+        double y = screenY(frame.y(row));
+        return x + r >= 0 && x - r < w && y + r >= 0 && y - r < h;
+    }
+
+    private double screenX(double x) {
+        return viewWidth / 2.0 + (x - viewX) * viewScale;
+    }
+
+    private double screenY(double y) {
+        return viewHeight / 2.0 - (y - viewY) * viewScale;
+    }
+
+    private void drawBoat(Graphics g, BufferedImage image, int row, Color color, boolean labels) {
+        double r = frame.radius(row) * viewScale;
+        int x = (int) screenX(frame.x(row));
+        int y = (int) screenY(frame.y(row));
+        int radius = (int) r;
+        int diameter = Math.max((int) (2 * r), 1);
+        // Barcos de poucos pixels viram quadrados escritos direto na imagem
+        if (diameter < 4) {
+            fillSquare(image, x - radius, y - radius, diameter, color.getRGB());
+            return;
+        }
+
+        // Nome acima do barco
+        if (labels && r >= LABEL_RADIUS) {
+            String label = frame.boat(row).getName();
+            if (frame.isMoving(row)) label += " @ " + Utils.format(frame.speed(row), 1) + " px/s";
+            int offset = label.length() * 5 / 2;
+            g.setColor(TEXT_COLOR);
+            g.drawString(label, x - offset, y - radius - 5);
+        }
+
+        g.setColor(color);
+        g.fillOval(x - radius, y - radius, diameter, diameter);
+    }
+
+    private static void fillSquare(BufferedImage image, int x, int y, int size, int rgb) {
+        int w = image.getWidth();
+        int h = image.getHeight();
+        int[] pixels = pixels(image);
+        for (int j = Math.max(y, 0); j < Math.min(y + size, h); j++) {
+            for (int i = Math.max(x, 0); i < Math.min(x + size, w); i++) pixels[j * w + i] = rgb;
+        }
+    }
+
+}
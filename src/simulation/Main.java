@@ -1,23 +1,56 @@
 package simulation;
 
+import java.io.IOException;
+import java.net.InetAddress;
+import java.util.Arrays;
+
 import utils.Point;
 import utils.Utils;
 import utils.Vector2D;
 import base.Boat;
+import base.FrameExchange;
 import base.Lake;
 
+/**
+ * Mostra a simulacao numa janela ou, com --serve, para navegadores.
+ * Uso: Main [--serve=[endereco:]porta] [cenario.properties] [chave=valor ...]
+ *
+ * Sem cenario o lago tem 10 barcos aleatorios. Com --serve nenhuma janela e
+ * aberta, e o lago e visto e controlado em http://host:porta/ por um
+ * ViewerServer. Sem endereco o servidor so atende a propria maquina; com
+ * --serve=0.0.0.0:porta atende qualquer um da rede, sem autenticacao.
+ */
 public class Main {
     private static Lake lake;
-    private static LakeDrawer drawer;
-    
-    public static class FrameRateTooHighException extends RuntimeException { /* Nothing */ }
+    private static FrameExchange frames;
     
-    public static void main(String[] args) {
-        lake = new Lake(800, 600);
-        randomBoats(10);
-//        boat();
-//        cornersToCenter();
-        drawer = new LakeDrawer(lake);
+    public static void main(String[] args) throws IOException {
+        InetAddress address = InetAddress.getLoopbackAddress();
+        int port = -1;
+        int count = 0;
+        String[] scenarioArgs = new String[args.length];
+        for (String arg : args) {
+            if (arg.startsWith("--serve=")) {
+                String value = arg.substring(8);
+                int colon = value.lastIndexOf(':');
+                if (colon >= 0) address = InetAddress.getByName(value.substring(0, colon));
+                port = Integer.parseInt(value.substring(colon + 1));
+            } else scenarioArgs[count++] = arg;
+        }
+        if (count > 0) lake = Scenario.parse(Arrays.copyOf(scenarioArgs, count)).createLake();
+        else {
+            lake = new Lake(800, 600);
+            randomBoats(10);
+//            boat();
+//            cornersToCenter();
+        }
+        frames = new FrameExchange(lake);
+        if (port >= 0) {
+            ViewerServer server = new ViewerServer(lake, frames, address, port);
+            server.start();
+            String host = address.isLoopbackAddress() ? "localhost" : address.getHostAddress();
+            System.out.println("viewer at http://" + host + ":" + server.getPort() + "/");
+        } else new LakeDrawer(lake, frames);
         simulate(60);
     }
     
@@ -33,15 +66,7 @@ public class Main {
      * @param n
      */
     public static void randomBoats(int n) {
-        double factor = 2;
-        for (int i = 1; i <= n; i++) {
-            double initialSpeed = Utils.random(0, 10) * factor;
-            double finalSpeed = (2 + Utils.random(15, 50) * initialSpeed) * factor;
-            double acceleration = (finalSpeed - initialSpeed) / Utils.random(25, 30) * factor;
-            Boat boat = new Boat("Boat " + i, Utils.random(10, 20), initialSpeed, finalSpeed, acceleration);
-            Vector2D direction = Vector2D.direction(Utils.random(0, 2 * Math.PI));
-            lake.addBoat(boat, randomPoint(), direction);
-        }
+        Scenario.randomBoats(lake, n, Utils.stream());
     }
     
     /**
@@ -63,26 +88,18 @@ public class Main {
     }
     
     /**
-     * Simula os barcos no lago com frame rate fps
+     * Simula os barcos no lago em tempo real, com passo e frame rate fps, e
+     * imprime as medidas dos quadros no fim
      * @param fps
      */
     public static void simulate(double fps) {
-        double delta = 1 / fps;
-        long refreshInterval = (long) (1000 * delta);
-        if (refreshInterval < 1) throw new FrameRateTooHighException();
-        drawer.refresh(0);
-        double time;
-        for (time = delta; lake.hasMovement(); time += delta) {
-            // Nos segundos redondos imprime situacao dos barcos
-//            if (Math.abs(time - Math.round(time)) < 0.001) printLakeStatus(time);
-            try { Thread.sleep(refreshInterval); } catch (InterruptedException e) { /* Ignore */ }
-            lake.runTime(delta);
-            drawer.refresh(time);
-        }
-//        printLakeStatus(time);
+        RealTimeLoop loop = new RealTimeLoop(lake, frames, 1 / fps, fps);
+        loop.run();
+//        printLakeStatus(lake, lake.getTime());
+        System.out.println(loop);
     }
     
-    private static void printLakeStatus(double time) {
+    /* default */ static void printLakeStatus(Lake lake, double time) {
         System.out.println("Time = " + Utils.timeFormat(time));
         for (Boat boat : lake.getBoats()) {
             System.out.println(
@@ -103,15 +120,4 @@ public class Main {
             case Sunk: return "Afundado";
         }
     }
-    
-    /**
-     * Retorna um ponto aleatorio dentro do lago
-     */
-    private static Point randomPoint() {
-        Point p = Point.xy(
-            Utils.normal(0, lake.getWidth() / 4),
-            Utils.normal(0, lake.getHeight() / 4)
-        );
-        return lake.isInside(p) ? p : randomPoint();
-    }
 }
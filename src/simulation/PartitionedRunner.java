@@ -0,0 +1,169 @@
+package simulation;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import utils.Utils;
+import base.Boat;
+import base.Lake;
+import base.LakeSnapshot;
+import base.PartitionedLake;
+import base.SubStepEngine;
+
+/**
+ * Roda um cenario sem interface grafica com o lago dividido entre processos
+ * worker, iniciados nesta maquina e ligados pelo loopback.
+ * Uso: PartitionedRunner [cenario.properties] [chave=valor ...] [--workers=n]
+ *        [--load=snapshot] [--save=snapshot] [--static] [--check]
+ *
+ * Cada worker cria o lago do cenario, com a mesma semente, ou le o snapshot
+ * de --load, e fica so com os barcos da sua regiao: este processo nunca
+ * guarda a frota. Com --save o lago final vai dos workers direto para um
+ * snapshot.
+ *
+ * Imprime a mesma linha de resumo do HeadlessRunner, com o numero de
+ * redivisoes do lago e o desequilibrio entre os workers na ultima
+ * verificacao. Com --static as regioes nunca mudam. Com --check o cenario
+ * tambem roda neste processo com o SubStepEngine, o resultado dos workers e
+ * juntado aqui, e a linha ganha check=equal se os dois lagos terminaram
+ * iguais barco a barco; so com --check a frota inteira passa por este
+ * processo.
+ */
+public class PartitionedRunner {
+
+    public static void main(String[] args) throws IOException, InterruptedException {
+        int workers = 4;
+        boolean check = false, balancing = true;
+        String load = null, save = null;
+        int count = 0;
+        String[] scenarioArgs = new String[args.length];
+        for (String arg : args) {
+            if (arg.startsWith("--workers=")) workers = Integer.parseInt(arg.substring(10));
+            else if (arg.equals("--check")) check = true;
+            else if (arg.equals("--static")) balancing = false;
+            else if (arg.startsWith("--load=")) load = arg.substring(7);
+            else if (arg.startsWith("--save=")) save = arg.substring(7);
+            else scenarioArgs[count++] = arg;
+        }
+        scenarioArgs = Arrays.copyOf(scenarioArgs, count);
+        Scenario scenario = Scenario.parse(scenarioArgs);
+        if (load != null && scenario.getCommands() != null) {
+            throw new Scenario.InvalidScenarioException("commands cannot be used with --load");
+        }
+        String description = describe(scenarioArgs, scenario.getSeed(), load);
+        List<Process> processes = new ArrayList<Process>();
+        PartitionedLake partitioned;
+        Lake result = null;
+        long wallTime;
+        try {
+            List<InetSocketAddress> addresses = new ArrayList<InetSocketAddress>();
+            for (int w = 0; w < workers; w++) {
+                Process process = startWorker();
+                processes.add(process);
+                addresses.add(new InetSocketAddress(InetAddress.getLoopbackAddress(), readPort(process)));
+            }
+            partitioned = new PartitionedLake(description, addresses);
+            try {
+                partitioned.setBalancing(balancing);
+                long start = System.nanoTime();
+                double dt = scenario.getDt();
+                long steps = HeadlessRunner.steps(partitioned.getTime(), dt, scenario.getTimeLimit());
+                for (long i = 0; i < steps && partitioned.hasMovement(); i++) partitioned.runTime(dt);
+                wallTime = System.nanoTime() - start;
+                if (save != null) partitioned.write(Paths.get(save));
+                if (check) result = partitioned.gather();
+            } finally {
+                partitioned.close();
+            }
+            for (Process process : processes) process.waitFor();
+        } finally {
+            // Se algo falhou, os workers ainda vivos nao podem ficar orfaos
+            for (Process process : processes) {
+                if (process.isAlive()) process.destroy();
+            }
+        }
+        String line = scenario + " workers=" + workers + " " +
+            HeadlessRunner.summary(partitioned.getTime(), partitioned.getMovingCount(),
+                partitioned.getStuckCount(), partitioned.getSunkCount(), wallTime) +
+            " rebalances=" + partitioned.getRebalances() +
+            " imbalance=" + Utils.format(partitioned.getImbalance(), 2);
+        if (check) {
+            Lake lake = createLake(description);
+            lake.setEngine(new SubStepEngine());
+            HeadlessRunner.run(lake, scenario.getDt(), scenario.getTimeLimit());
+            line += " check=" + (equal(lake, result) ? "equal" : "different");
+        }
+        System.out.println(line);
+    }
+
+    // Descricao do lago mandada aos workers: os argumentos do cenario, um por
+    // linha, com a semente fixada para todos criarem os mesmos barcos
+    private static String describe(String[] scenarioArgs, long seed, String load) {
+        StringBuilder description = new StringBuilder();
+        for (String arg : scenarioArgs) description.append(arg).append('\n');
+        description.append("seed=").append(seed);
+        if (load != null) description.append("\n--load=").append(load);
+        return description.toString();
+    }
+
+    /**
+     * Cria o lago de uma descricao feita por este runner, nos workers e no
+     * --check
+     */
+    /* default */ static Lake createLake(String description) throws IOException {
+        List<String> args = new ArrayList<String>();
+        String load = null;
+        for (String line : description.split("\n")) {
+            if (line.startsWith("--load=")) load = line.substring(7);
+            else args.add(line);
+        }
+        Scenario scenario = Scenario.parse(args.toArray(new String[args.size()]));
+        if (load == null) return scenario.createLake();
+        return LakeSnapshot.read(Paths.get(load));
+    }
+
+    // Worker na mesma JVM e classpath deste processo
+    private static Process startWorker() throws IOException {
+        String java = System.getProperty("java.home") + File.separator + "bin" + File.separator + "java";
+        ProcessBuilder builder = new ProcessBuilder(java, "-cp", System.getProperty("java.class.path"),
+            WorkerRunner.class.getName(), "0");
+        builder.redirectError(ProcessBuilder.Redirect.INHERIT);
+        return builder.start();
+    }
+
+    private static int readPort(Process process) throws IOException {
+        BufferedReader reader = new BufferedReader(
+            new InputStreamReader(process.getInputStream(), StandardCharsets.UTF_8));
+        String line = reader.readLine();
+        if (line == null || !line.startsWith("port="))
+            throw new IOException("worker did not start: " + line);
+        return Integer.parseInt(line.substring(5));
+    }
+
+    // Mesmos barcos, na mesma ordem, com o mesmo estado e a mesma posicao
+    private static boolean equal(Lake a, Lake b) {
+        List<Boat> boatsA = a.getBoats();
+        List<Boat> boatsB = b.getBoats();
+        if (boatsA.size() != boatsB.size() || a.getTime() != b.getTime()) return false;
+        for (int i = 0; i < boatsA.size(); i++) {
+            Boat boatA = boatsA.get(i);
+            Boat boatB = boatsB.get(i);
+            if (!boatA.getName().equals(boatB.getName()) || boatA.getState() != boatB.getState() ||
+                boatA.getSpeed() != boatB.getSpeed() ||
+                boatA.getPosition().x() != boatB.getPosition().x() ||
+                boatA.getPosition().y() != boatB.getPosition().y())
+                return false;
+        }
+        return true;
+    }
+
+}
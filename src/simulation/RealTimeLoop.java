@@ -0,0 +1,162 @@
+package simulation;
+
+import java.util.concurrent.locks.LockSupport;
+
+import utils.Histogram;
+import base.FrameExchange;
+import base.Lake;
+
+/**
+ * Laco de tempo real com passo fixo. A cada quadro o tempo de relogio
+ * decorrido entra num acumulador, e o lago anda em passos de dt enquanto o
+ * acumulador tiver um passo inteiro, ate maxSteps por quadro: quando a
+ * simulacao nao acompanha o relogio, o atraso acima disso e descartado em vez
+ * de se acumular. O quadro publicado interpola as posicoes entre os dois
+ * ultimos passos pela fracao de passo que sobrou no acumulador.
+ *
+ * Os quadros sao marcados em instantes absolutos, entao o tempo gasto
+ * simulando e publicando nao atrasa os seguintes. A espera e feita com
+ * parkNanos ate perto do instante e termina girando, para uma precisao
+ * abaixo de um milissegundo.
+ */
+public class RealTimeLoop {
+    // Final da espera feito girando, porque parkNanos pode acordar atrasado
+    private static final long SPIN_NANOS = 100000;
+    // Passos por quadro alem do necessario para alcancar o relogio
+    private static final int CATCH_UP = 4;
+
+    private final Lake lake;
+    private final FrameExchange frames;
+    private final double dt;
+    private final long stepNanos;
+    private final long frameNanos;
+    private int maxSteps;
+    private volatile boolean running;
+    private volatile Thread thread;
+    // Atraso do inicio de cada quadro e duracao do trabalho feito nele
+    private final Histogram jitter;
+    private final Histogram work;
+    private long frameCount;
+    private long steps;
+    private long lateFrames;
+    private long droppedNanos;
+
+    public static class InvalidRateException extends RuntimeException {
+        public InvalidRateException(String message) { super(message); }
+    }
+
+    /**
+     * @param lake
+     * @param frames onde os quadros sao publicados
+     * @param dt passo da simulacao, em segundos
+     * @param fps quadros publicados por segundo
+     */
+    public RealTimeLoop(Lake lake, FrameExchange frames, double dt, double fps) {
+        if (!(dt > 0) || !(fps > 0)) throw new InvalidRateException("dt and fps must be > 0");
+        this.lake = lake;
+        this.frames = frames;
+        this.dt = dt;
+        stepNanos = Math.max(1, Math.round(dt * 1e9));
+        frameNanos = Math.max(1, Math.round(1e9 / fps));
+        maxSteps = CATCH_UP * (int) Math.max(1, (frameNanos + stepNanos - 1) / stepNanos);
+        jitter = new Histogram();
+        work = new Histogram();
+    }
+
+    /**
+     * Limita os passos dados num quadro; o tempo acima disso e descartado
+     * @param maxSteps
+     */
+    public void setMaxSteps(int maxSteps) {
+        if (maxSteps < 1) throw new InvalidRateException("maxSteps must be >= 1");
+        this.maxSteps = maxSteps;
+    }
+
+    /**
+     * Roda ate nao haver barcos em movimento ou ate stop
+     */
+    public void run() {
+        thread = Thread.currentThread();
+        running = true;
+        frames.publish();
+        long previous = System.nanoTime();
+        long deadline = previous;
+        long accumulator = 0;
+        while (running && lake.hasMovement()) {
+            deadline += frameNanos;
+            long now = waitUntil(deadline);
+            if (!running) break;
+            jitter.record(now - deadline);
+            accumulator += now - previous;
+            previous = now;
+            long due = accumulator / stepNanos;
+            if (due > maxSteps) {
+                droppedNanos += accumulator - maxSteps * stepNanos;
+                accumulator = maxSteps * stepNanos;
+                due = maxSteps;
+            }
+            for (int i = 0; i < due; i++) {
+                // O quadro interpola entre antes e depois do ultimo passo
+                if (i == due - 1) frames.mark();
+                lake.runTime(dt);
+                accumulator -= stepNanos;
+                steps++;
+            }
+            frames.publish((double) accumulator / stepNanos);
+            frameCount++;
+            long end = System.nanoTime();
+            work.record(end - now);
+            // Quadros perdidos nao sao compensados: o proximo fica no
+            // primeiro instante marcado depois de agora
+            if (end - deadline >= frameNanos) {
+                long missed = (end - deadline) / frameNanos;
+                lateFrames += missed;
+                deadline += missed * frameNanos;
+            }
+        }
+        running = false;
+    }
+
+    /**
+     * Para o laco no fim do quadro atual; pode ser chamado de qualquer thread
+     */
+    public void stop() {
+        running = false;
+        Thread thread = this.thread;
+        if (thread != null) LockSupport.unpark(thread);
+    }
+
+    private long waitUntil(long deadline) {
+        while (true) {
+            long now = System.nanoTime();
+            long left = deadline - now;
+            if (left <= 0 || !running) return now;
+            if (left > SPIN_NANOS) LockSupport.parkNanos(left - SPIN_NANOS);
+            else Thread.onSpinWait();
+        }
+    }
+
+    public long getFrames() { return frameCount; }
+    public long getSteps() { return steps; }
+    public long getLateFrames() { return lateFrames; }
+    // Tempo de relogio descartado por passar de maxSteps, em segundos
+    public double getDroppedTime() { return droppedNanos / 1e9; }
+
+    /**
+     * Atraso do inicio dos quadros em relacao ao instante marcado, em
+     * nanossegundos. So deve ser lido depois de run.
+     */
+    public Histogram getJitter() { return jitter; }
+
+    // Duracao do trabalho de cada quadro, em nanossegundos
+    public Histogram getWork() { return work; }
+
+    public String toString() {
+        return "frames=" + frameCount + " steps=" + steps + " late=" + lateFrames +
+            " dropped=" + getDroppedTime() +
+            " jitterP50Us=" + jitter.getPercentile(50) / 1000 + " jitterP99Us=" + jitter.getPercentile(99) / 1000 +
+            " jitterMaxUs=" + jitter.getMax() / 1000 +
+            " workP50Us=" + work.getPercentile(50) / 1000 + " workP99Us=" + work.getPercentile(99) / 1000;
+    }
+
+}
@@ -0,0 +1,240 @@
+package simulation;
+
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.file.Paths;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.ForkJoinPool;
+
+import utils.Point;
+import utils.RandomStream;
+import utils.Vector2D;
+import base.AdaptiveEngine;
+import base.Boat;
+import base.CommandScript;
+import base.Engine;
+import base.EventEngine;
+import base.Lake;
+import base.ParallelEngine;
+import base.SubStepEngine;
+import base.SweptEngine;
+
+/**
+ * Parametros de uma simulacao: tamanho do lago, numero de barcos, semente,
+ * passo de tempo, limite de tempo e motor. Podem vir de um arquivo .properties
+ * e/ou de argumentos chave=valor na linha de comando, que tem precedencia.
+ */
+public class Scenario {
+    public static class InvalidScenarioException extends RuntimeException {
+        public InvalidScenarioException(String message) { super(message); }
+    }
+
+    // Pools do motor parallel, um por numero de threads, compartilhados por
+    // todos os lagos criados. As threads sao daemon e as ociosas terminam
+    // sozinhas, entao os pools nao precisam ser encerrados.
+    private static final Map<Integer, ForkJoinPool> POOLS = new HashMap<Integer, ForkJoinPool>();
+
+    private double width = 800;
+    private double height = 600;
+    private int boats = 10;
+    private long seed = System.nanoTime();
+    private double dt = 1 / 60.0;
+    private double timeLimit = Double.POSITIVE_INFINITY;
+    private String engine = "substep";
+    private int threads = Runtime.getRuntime().availableProcessors();
+    private FleetBuilder.Distribution distribution = FleetBuilder.Distribution.GAUSSIAN;
+    private int clusters = 8;
+    private double spread = 0.1;
+    private int attempts = 0;
+    private String commands;
+    private CommandScript script;
+
+    /**
+     * Le o cenario dos argumentos: um arquivo .properties opcional seguido de
+     * pares chave=valor (width, height, boats, seed, dt, time, engine, threads,
+     * distribution, clusters, spread, attempts, commands). commands e o
+     * arquivo de roteiro do CommandScript aplicado a cada lago criado.
+     * @param args
+     */
+    public static Scenario parse(String[] args) throws IOException {
+        Properties properties = new Properties();
+        for (String arg : args) {
+            int equals = arg.indexOf('=');
+            if (equals >= 0) properties.setProperty(arg.substring(0, equals), arg.substring(equals + 1));
+            else {
+                Properties file = new Properties();
+                Reader reader = new FileReader(arg);
+                try { file.load(reader); } finally { reader.close(); }
+                for (String key : file.stringPropertyNames()) {
+                    if (!properties.containsKey(key)) properties.setProperty(key, file.getProperty(key));
+                }
+            }
+        }
+        return from(properties);
+    }
+
+    public static Scenario from(Properties properties) {
+        Scenario scenario = new Scenario();
+        for (String key : properties.stringPropertyNames()) {
+            String value = properties.getProperty(key).trim();
+            try {
+                if (key.equals("width")) scenario.width = Double.parseDouble(value);
+                else if (key.equals("height")) scenario.height = Double.parseDouble(value);
+                else if (key.equals("boats")) scenario.boats = Integer.parseInt(value);
+                else if (key.equals("seed")) scenario.seed = Long.parseLong(value);
+                else if (key.equals("dt")) scenario.dt = Double.parseDouble(value);
+                else if (key.equals("time")) scenario.timeLimit = Double.parseDouble(value);
+                else if (key.equals("engine")) scenario.engine = value;
+                else if (key.equals("threads")) scenario.threads = Integer.parseInt(value);
+                else if (key.equals("distribution")) scenario.distribution = distribution(value);
+                else if (key.equals("clusters")) scenario.clusters = Integer.parseInt(value);
+                else if (key.equals("spread")) scenario.spread = Double.parseDouble(value);
+                else if (key.equals("attempts")) scenario.attempts = Integer.parseInt(value);
+                else if (key.equals("commands")) scenario.commands = value;
+                else throw new InvalidScenarioException("unknown key " + key);
+            } catch (NumberFormatException e) {
+                throw new InvalidScenarioException("invalid value for " + key + ": " + value);
+            }
+        }
+        scenario.validate();
+        if (scenario.commands != null) {
+            try {
+                scenario.script = CommandScript.read(Paths.get(scenario.commands));
+            } catch (IOException e) {
+                throw new InvalidScenarioException("cannot read commands " + scenario.commands + ": " + e.getMessage());
+            } catch (CommandScript.InvalidScriptException e) {
+                throw new InvalidScenarioException(e.getMessage());
+            }
+        }
+        return scenario;
+    }
+
+    private static FleetBuilder.Distribution distribution(String value) {
+        for (FleetBuilder.Distribution d : FleetBuilder.Distribution.values()) {
+            if (d.name().equalsIgnoreCase(value)) return d;
+        }
+        throw new InvalidScenarioException("unknown distribution " + value);
+    }
+
+    // As comparacoes negadas tambem recusam NaN
+    private void validate() {
+        if (!(width > 0 && height > 0) || Double.isInfinite(width) || Double.isInfinite(height))
+            throw new InvalidScenarioException("width and height must be finite and > 0");
+        if (boats < 0) throw new InvalidScenarioException("boats must be >= 0");
+        if (!(dt > 0) || Double.isInfinite(dt)) throw new InvalidScenarioException("dt must be finite and > 0");
+        if (Double.isNaN(timeLimit)) throw new InvalidScenarioException("time must be a number");
+        if (threads < 1) throw new InvalidScenarioException("threads must be >= 1");
+        if (clusters < 1) throw new InvalidScenarioException("clusters must be >= 1");
+        if (!(spread > 0) || Double.isInfinite(spread)) throw new InvalidScenarioException("spread must be finite and > 0");
+        if (attempts < 0) throw new InvalidScenarioException("attempts must be >= 0");
+        if (!engine.equals("substep") && !engine.equals("adaptive") && !engine.equals("event") &&
+            !engine.equals("parallel") && !engine.equals("swept"))
+            throw new InvalidScenarioException("unknown engine " + engine);
+    }
+
+    public double getWidth() { return width; }
+    public double getHeight() { return height; }
+    public int getBoats() { return boats; }
+    public long getSeed() { return seed; }
+    public double getDt() { return dt; }
+    public double getTimeLimit() { return timeLimit; }
+    public String getEngine() { return engine; }
+    // Arquivo do roteiro de comandos, ou null
+    public String getCommands() { return commands; }
+
+    /**
+     * Cria o lago com os barcos aleatorios gerados a partir da semente
+     */
+    public Lake createLake() {
+        return createLake(seed);
+    }
+
+    /**
+     * Cria o lago deste cenario com outra semente
+     * @param seed
+     */
+    public Lake createLake(long seed) {
+        Lake lake = new Lake(width, height);
+        lake.setEngine(createEngine());
+        new FleetBuilder()
+            .distribution(distribution)
+            .clusters(clusters, spread)
+            .attempts(attempts)
+            .threads(threads)
+            .build(lake, boats, seed);
+        if (script != null) lake.schedule(script);
+        return lake;
+    }
+
+    /* default */ Engine createEngine() {
+        if (engine.equals("substep")) return new SubStepEngine();
+        if (engine.equals("adaptive")) return new AdaptiveEngine();
+        if (engine.equals("event")) return new EventEngine();
+        if (engine.equals("swept")) return new SweptEngine();
+        return new ParallelEngine(pool(threads));
+    }
+
+    private static synchronized ForkJoinPool pool(int threads) {
+        ForkJoinPool pool = POOLS.get(threads);
+        if (pool == null) {
+            pool = new ForkJoinPool(threads);
+            POOLS.put(threads, pool);
+        }
+        return pool;
+    }
+
+    /**
+     * Gera n barcos aleatorios e os adiciona em posicoes aleatorias do lago
+     * @param lake
+     * @param n
+     * @param random
+     */
+    public static void randomBoats(Lake lake, int n, RandomStream random) {
+        for (int i = 1; i <= n; i++) {
+            Boat boat = randomBoat(i, random);
+            Vector2D direction = Vector2D.direction(random.random(0, 2 * Math.PI));
+            lake.addBoat(boat, randomPoint(lake, random), direction);
+        }
+    }
+
+    /**
+     * Cria o barco aleatorio de numero i, ainda sem posicao nem direcao
+     * @param i
+     * @param random
+     */
+    public static Boat randomBoat(int i, RandomStream random) {
+        double factor = 2;
+        double initialSpeed = random.random(0, 10) * factor;
+        double finalSpeed = (2 + random.random(15, 50) * initialSpeed) * factor;
+        double acceleration = (finalSpeed - initialSpeed) / random.random(25, 30) * factor;
+        return new Boat("Boat " + i, random.random(10, 20), initialSpeed, finalSpeed, acceleration);
+    }
+
+    /**
+     * Retorna um ponto aleatorio dentro do lago
+     */
+    public static Point randomPoint(Lake lake, RandomStream random) {
+        Point p;
+        do {
+            p = Point.xy(
+                random.normal(0, lake.getWidth() / 4),
+                random.normal(0, lake.getHeight() / 4)
+            );
+        } while (!lake.isInside(p));
+        return p;
+    }
+
+    public String toString() {
+        return "width=" + width + " height=" + height + " boats=" + boats + " seed=" + seed +
+            " dt=" + dt + " time=" + timeLimit + " engine=" + engine +
+            " distribution=" + distribution.name().toLowerCase() +
+            (distribution == FleetBuilder.Distribution.CLUSTERED ? " clusters=" + clusters + " spread=" + spread : "") +
+            (attempts > 0 ? " attempts=" + attempts : "") +
+            (commands != null ? " commands=" + commands : "") +
+            (engine.equals("parallel") ? " threads=" + threads : "");
+    }
+
+}
@@ -0,0 +1,368 @@
+package simulation;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.concurrent.locks.LockSupport;
+
+import utils.Vector2D;
+import base.Command;
+import base.FrameExchange;
+import base.Lake;
+import base.LakeFrame;
+
+/**
+ * Um visualizador remoto conectado por WebSocket ao ViewerServer. Cada
+ * cliente le os quadros do lago no seu ritmo, com o seu proprio LakeFrame, e
+ * envia so os barcos da sua visao que mudaram desde a ultima mensagem; um
+ * cliente lento recebe menos mensagens e nunca atrasa a simulacao.
+ *
+ * Mensagens binarias do servidor (big endian): byte 1, double tempo, int
+ * barcos, int em movimento, int encalhados, int afundados, int n e n
+ * entradas. Cada entrada e int linha e byte codigo: REMOVED tira o barco da
+ * visao; senao o codigo e o estado (0 em movimento, 1 encalhado, 2
+ * afundado), mais RADIUS quando o raio vem depois da posicao, seguido de
+ * float x, float y e, com RADIUS, float raio.
+ *
+ * Mensagens de texto do cliente, uma por linha:
+ *
+ *   view x y escala largura altura   visao centrada em (x, y), escala em
+ *                                    pixels por unidade e tela em pixels
+ *   rate fps                         maximo de mensagens por segundo
+ *   turn barco graus                 Command.turn, rumo a partir do eixo x
+ *   speed barco velocidade           Command.speed
+ */
+public class ViewerClient {
+    /* default */ static final byte FRAME = 1;
+    /* default */ static final byte REMOVED = 0x7f;
+    /* default */ static final byte RADIUS = (byte) 0x80;
+    private static final byte MOVING = 0;
+    private static final byte STUCK = 1;
+    private static final byte SUNK = 2;
+    private static final byte GONE = -1;
+    // Codigos de RFC 6455
+    private static final int TEXT = 0x1;
+    private static final int BINARY = 0x2;
+    private static final int CLOSE = 0x8;
+    private static final int PING = 0x9;
+    private static final int PONG = 0xa;
+    private static final int MAX_MESSAGE = 64 * 1024;
+    private static final double MAX_RATE = 60;
+    private static final long MAX_INTERVAL = 1000000000L;
+
+    private final ViewerServer server;
+    private final Lake lake;
+    private final FrameExchange frames;
+    private final Socket socket;
+    private final InputStream in;
+    private final OutputStream out;
+    private volatile boolean open;
+    private volatile Thread sender;
+    // Visao pedida pelo cliente, trocada inteira
+    private volatile double[] view;
+    private volatile long minInterval;
+    // Da thread que envia: o quadro lido e o que o cliente ja tem
+    private final LakeFrame frame;
+    private double[] sentView;
+    private byte[] sentState;
+    private float[] sentX;
+    private float[] sentY;
+    private ByteBuffer buffer;
+    // Media do tempo de escrita de uma mensagem, que limita o ritmo
+    private double writeNanos;
+
+    /* default */ ViewerClient(ViewerServer server, Lake lake, FrameExchange frames, Socket socket,
+        InputStream in, OutputStream out) {
+        this.server = server;
+        this.lake = lake;
+        this.frames = frames;
+        this.socket = socket;
+        this.in = in;
+        this.out = out;
+        open = true;
+        minInterval = (long) (1e9 / MAX_RATE);
+        frame = new LakeFrame();
+        sentState = new byte[0];
+        sentX = new float[0];
+        sentY = new float[0];
+        buffer = ByteBuffer.allocate(1024);
+    }
+
+    public boolean isOpen() { return open; }
+
+    /**
+     * Envia quadros ate a conexao fechar, no ritmo que o cliente aguenta
+     */
+    /* default */ void send() {
+        sender = Thread.currentThread();
+        try {
+            String hello = "{\"width\":" + lake.getWidth() + ",\"height\":" + lake.getHeight() + "}";
+            write(TEXT, hello.getBytes(StandardCharsets.UTF_8), 0, hello.length());
+            long next = System.nanoTime();
+            while (open) {
+                boolean fresh = frames.read(frame);
+                double[] view = this.view;
+                if (view != null && (fresh || view != sentView)) {
+                    int length = encode(view);
+                    sentView = view;
+                    if (length > 0) {
+                        long start = System.nanoTime();
+                        write(BINARY, buffer.array(), 0, length);
+                        writeNanos = 0.8 * writeNanos + 0.2 * (System.nanoTime() - start);
+                    }
+                }
+                // Um cliente que demora a receber recebe menos mensagens
+                long interval = Math.min(MAX_INTERVAL, Math.max(minInterval, (long) (4 * writeNanos)));
+                next += interval;
+                long now = System.nanoTime();
+                if (next < now) next = now;
+                else LockSupport.parkNanos(next - now);
+            }
+        } catch (IOException e) {
+            // Conexao caiu
+        } finally {
+            close();
+        }
+    }
+
+    // Escreve em buffer a mensagem com as mudancas da visao; 0 sem mudancas
+    private int encode(double[] view) {
+        int n = frame.size();
+        if (sentState.length < n) {
+            int capacity = Math.max(n, 2 * sentState.length);
+            int old = sentState.length;
+            sentState = Arrays.copyOf(sentState, capacity);
+            Arrays.fill(sentState, old, capacity, GONE);
+            sentX = Arrays.copyOf(sentX, capacity);
+            sentY = Arrays.copyOf(sentY, capacity);
+        }
+        double centerX = view[0], centerY = view[1], scale = view[2];
+        double halfWidth = view[3] / 2 / scale, halfHeight = view[4] / 2 / scale;
+        // Mudancas de menos de meio pixel nao sao enviadas
+        double resolution = 0.5 / scale;
+        ensure(29);
+        buffer.clear();
+        buffer.put(FRAME);
+        buffer.putDouble(frame.getTime());
+        buffer.putInt(n);
+        buffer.putInt(frame.getMovingCount());
+        buffer.putInt(frame.getStuckCount());
+        buffer.putInt(frame.getSunkCount());
+        int countAt = buffer.position();
+        buffer.putInt(0);
+        int count = 0;
+        for (int k = 0; k < n; k++) {
+            double x = frame.x(k), y = frame.y(k), radius = frame.radius(k);
+            boolean visible = Math.abs(x - centerX) <= halfWidth + radius &&
+                Math.abs(y - centerY) <= halfHeight + radius;
+            byte state = frame.isMoving(k) ? MOVING : frame.isSunk(k) ? SUNK : STUCK;
+            if (!visible) {
+                if (sentState[k] == GONE) continue;
+                ensure(5);
+                buffer.putInt(k);
+                buffer.put(REMOVED);
+                sentState[k] = GONE;
+                count++;
+                continue;
+            }
+            boolean added = sentState[k] == GONE;
+            if (!added && sentState[k] == state && Math.abs(x - sentX[k]) < resolution &&
+                Math.abs(y - sentY[k]) < resolution) continue;
+            ensure(17);
+            buffer.putInt(k);
+            buffer.put(added ? (byte) (state | RADIUS) : state);
+            buffer.putFloat((float) x);
+            buffer.putFloat((float) y);
+            if (added) buffer.putFloat((float) radius);
+            sentState[k] = state;
+            sentX[k] = (float) x;
+            sentY[k] = (float) y;
+            count++;
+        }
+        buffer.putInt(countAt, count);
+        return count > 0 ? buffer.position() : 0;
+    }
+
+    private void ensure(int bytes) {
+        if (buffer.remaining() >= bytes) return;
+        ByteBuffer larger = ByteBuffer.allocate(Math.max(2 * buffer.capacity(), buffer.position() + bytes));
+        buffer.flip();
+        larger.put(buffer);
+        buffer = larger;
+    }
+
+    /**
+     * Le as mensagens do cliente ate a conexao fechar
+     */
+    /* default */ void receive() {
+        byte[] message = new byte[256];
+        int length = 0;
+        int opcode = 0;
+        try {
+            while (open) {
+                int first = readByte();
+                int second = readByte();
+                boolean fin = (first & 0x80) != 0;
+                int frameOpcode = first & 0x0f;
+                long size = second & 0x7f;
+                if (size == 126) size = (readByte() << 8) | readByte();
+                else if (size == 127) {
+                    size = 0;
+                    for (int i = 0; i < 8; i++) size = (size << 8) | readByte();
+                }
+                // Mensagens do cliente sao sempre mascaradas; um tamanho de
+                // 64 bits com o bit mais alto ligado fica negativo
+                if ((second & 0x80) == 0 || size < 0 || size > MAX_MESSAGE) {
+                    closeWith(1002);
+                    return;
+                }
+                byte[] mask = new byte[4];
+                readFully(mask, 0, 4);
+                byte[] payload = new byte[(int) size];
+                readFully(payload, 0, payload.length);
+                for (int i = 0; i < payload.length; i++) payload[i] ^= mask[i & 3];
+                if (frameOpcode == CLOSE) {
+                    closeWith(1000);
+                    return;
+                }
+                if (frameOpcode == PING) {
+                    write(PONG, payload, 0, payload.length);
+                    continue;
+                }
+                if (frameOpcode == PONG) continue;
+                if (frameOpcode != 0) {
+                    opcode = frameOpcode;
+                    length = 0;
+                }
+                if (length + payload.length > MAX_MESSAGE) {
+                    closeWith(1009);
+                    return;
+                }
+                if (length + payload.length > message.length) {
+                    message = Arrays.copyOf(message, Math.max(2 * message.length, length + payload.length));
+                }
+                System.arraycopy(payload, 0, message, length, payload.length);
+                length += payload.length;
+                if (!fin) continue;
+                if (opcode == TEXT) {
+                    String text = new String(message, 0, length, StandardCharsets.UTF_8);
+                    for (String line : text.split("\n")) handle(line.trim());
+                }
+                length = 0;
+            }
+        } catch (IOException e) {
+            // Conexao caiu
+        } finally {
+            close();
+        }
+    }
+
+    private void handle(String line) throws IOException {
+        if (line.isEmpty()) return;
+        String[] words = line.split("\\s+");
+        try {
+            String command = words[0];
+            if (command.equals("view") && words.length == 6) {
+                double x = finite(words[1]);
+                double y = finite(words[2]);
+                double scale = finite(words[3]);
+                double width = finite(words[4]);
+                double height = finite(words[5]);
+                if (!(scale > 0 && width > 0 && height > 0)) throw new NumberFormatException();
+                view = new double[] { x, y, scale, width, height };
+            } else if (command.equals("rate") && words.length == 2) {
+                double rate = Math.min(MAX_RATE, Double.parseDouble(words[1]));
+                if (!(rate > 0)) throw new NumberFormatException();
+                minInterval = (long) (1e9 / rate);
+            } else if (command.equals("turn") && words.length == 3) {
+                double angle = Math.toRadians(finite(words[2]));
+                lake.submit(Command.turn(Integer.parseInt(words[1]), Vector2D.direction(angle)));
+            } else if (command.equals("speed") && words.length == 3) {
+                lake.submit(Command.speed(Integer.parseInt(words[1]), finite(words[2])));
+            } else error("unknown command " + line);
+        } catch (NumberFormatException e) {
+            error("invalid number in " + line);
+        } catch (RuntimeException e) {
+            error(e.getMessage());
+        }
+    }
+
+    // NaN e infinito chegariam ao lago e ao desenho de todos os clientes
+    private static double finite(String word) {
+        double value = Double.parseDouble(word);
+        if (!Double.isFinite(value)) throw new NumberFormatException();
+        return value;
+    }
+
+    private void error(String message) throws IOException {
+        byte[] text = ("error " + message).getBytes(StandardCharsets.UTF_8);
+        write(TEXT, text, 0, text.length);
+    }
+
+    // Quadro de RFC 6455 sem mascara; as duas threads escrevem no mesmo socket
+    private void write(int opcode, byte[] payload, int offset, int length) throws IOException {
+        byte[] header = new byte[10];
+        int size;
+        header[0] = (byte) (0x80 | opcode);
+        if (length < 126) {
+            header[1] = (byte) length;
+            size = 2;
+        } else if (length < 65536) {
+            header[1] = 126;
+            header[2] = (byte) (length >>> 8);
+            header[3] = (byte) length;
+            size = 4;
+        } else {
+            header[1] = 127;
+            for (int i = 0; i < 8; i++) header[2 + i] = (byte) ((long) length >>> (56 - 8 * i));
+            size = 10;
+        }
+        synchronized (out) {
+            out.write(header, 0, size);
+            out.write(payload, offset, length);
+            out.flush();
+        }
+    }
+
+    private void closeWith(int code) {
+        try {
+            write(CLOSE, new byte[] { (byte) (code >>> 8), (byte) code }, 0, 2);
+        } catch (IOException e) {
+            // Fecha de qualquer jeito
+        }
+        close();
+    }
+
+    /**
+     * Fecha a conexao; as duas threads do cliente terminam
+     */
+    public void close() {
+        if (!open) return;
+        open = false;
+        try { socket.close(); } catch (IOException e) { /* Ignore */ }
+        Thread sender = this.sender;
+        if (sender != null) LockSupport.unpark(sender);
+        server.closed(this);
+    }
+
+    private int readByte() throws IOException {
+        int b = in.read();
+        if (b < 0) throw new EOFException();
+        return b;
+    }
+
+    private void readFully(byte[] bytes, int offset, int length) throws IOException {
+        while (length > 0) {
+            int read = in.read(bytes, offset, length);
+            if (read < 0) throw new EOFException();
+            offset += read;
+            length -= read;
+        }
+    }
+
+}
@@ -0,0 +1,349 @@
+package simulation;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.lang.reflect.Method;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Base64;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+
+import base.FrameExchange;
+import base.Lake;
+
+/**
+ * Servidor para ver e controlar um lago pelo navegador. GET / devolve a
+ * pagina do visualizador e GET /lake abre um WebSocket (RFC 6455) por onde o
+ * ViewerClient envia os barcos e recebe comandos.
+ *
+ * A simulacao so publica quadros num FrameExchange, sem esperar por nenhum
+ * cliente. Cada conexao usa duas tarefas, uma que envia e uma que le, em
+ * threads virtuais quando o Java as tem (21 ou mais novo) e em threads da
+ * plataforma senao. Para nao esgotar as threads do sistema, o servidor
+ * atende no maximo MAX_CONNECTIONS conexoes ao mesmo tempo e responde 503
+ * as que passam disso. A thread que aceita conexoes e daemon e nao segura
+ * a JVM.
+ *
+ * Nao ha autenticacao: por padrao o servidor so escuta no loopback, e o
+ * WebSocket so e aberto pela pagina do proprio servidor (Origin igual ao
+ * Host), para que outro site aberto no navegador nao controle o lago.
+ */
+public class ViewerServer implements Closeable {
+    private static final String WEBSOCKET_GUID = "258EAFA5-E914-47DA-95CA-C5AB0DC85B11";
+    private static final int MAX_HEADERS = 100;
+    /* default */ static final int MAX_CONNECTIONS = 128;
+    // Tempo para o cliente mandar a requisicao inteira, em ms
+    private static final int HANDSHAKE_TIMEOUT = 10000;
+    // Espera entre erros seguidos de accept, em ms
+    private static final long MIN_BACKOFF = 10;
+    private static final long MAX_BACKOFF = 1000;
+
+    private final Lake lake;
+    private final FrameExchange frames;
+    private final ServerSocket server;
+    private final ExecutorService executor;
+    private final Set<ViewerClient> clients;
+    private final Thread acceptor;
+    // Uma licenca por conexao aberta, com as suas duas tarefas
+    private final Semaphore connections;
+    private volatile boolean running;
+
+    public static class ServerException extends RuntimeException {
+        public ServerException(String message, Throwable cause) { super(message, cause); }
+    }
+
+    /**
+     * Servidor no loopback
+     * @param lake
+     * @param port porta TCP, ou 0 para qualquer uma livre
+     */
+    public ViewerServer(Lake lake, int port) throws IOException {
+        this(lake, new FrameExchange(lake), InetAddress.getLoopbackAddress(), port);
+    }
+
+    /**
+     * Servidor no loopback que envia os quadros publicados em frames
+     * @param lake
+     * @param frames
+     * @param port
+     */
+    public ViewerServer(Lake lake, FrameExchange frames, int port) throws IOException {
+        this(lake, frames, InetAddress.getLoopbackAddress(), port);
+    }
+
+    /**
+     * Servidor que envia os quadros publicados em frames
+     * @param lake
+     * @param frames
+     * @param address endereco local onde escutar; o curinga (0.0.0.0) abre o
+     *        lago para toda a rede
+     * @param port
+     */
+    public ViewerServer(Lake lake, FrameExchange frames, InetAddress address, int port) throws IOException {
+        this.lake = lake;
+        this.frames = frames;
+        server = new ServerSocket();
+        server.setReuseAddress(true);
+        server.bind(new InetSocketAddress(address, port));
+        executor = executor();
+        clients = ConcurrentHashMap.newKeySet();
+        connections = new Semaphore(MAX_CONNECTIONS);
+        acceptor = new Thread(new Runnable() {
+            public void run() { accept(); }
+        }, "viewer-server");
+        acceptor.setDaemon(true);
+    }
+
+    // Uma thread virtual por tarefa quando existe, pelo nome para compilar
+    // com Java 17
+    private static ExecutorService executor() {
+        try {
+            Method method = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+            return (ExecutorService) method.invoke(null);
+        } catch (ReflectiveOperationException e) {
+            return Executors.newCachedThreadPool(new ThreadFactory() {
+                public Thread newThread(Runnable task) {
+                    Thread thread = new Thread(task, "viewer-client");
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+        }
+    }
+
+    public void start() {
+        running = true;
+        acceptor.start();
+    }
+
+    public InetAddress getAddress() { return server.getInetAddress(); }
+    public int getPort() { return server.getLocalPort(); }
+    public int getClientCount() { return clients.size(); }
+
+    /**
+     * Publica o estado atual do lago para os clientes; chamado na thread da
+     * simulacao entre dois runTime
+     */
+    public void refresh() {
+        frames.publish();
+    }
+
+    /**
+     * Para de aceitar conexoes e fecha as abertas
+     */
+    public void close() throws IOException {
+        running = false;
+        server.close();
+        for (ViewerClient client : clients) client.close();
+        executor.shutdownNow();
+    }
+
+    /* default */ void closed(ViewerClient client) {
+        clients.remove(client);
+    }
+
+    // Um erro que se repete, como falta de descritores, e avisado uma vez e
+    // espera cada vez mais antes de tentar de novo; close termina o laco
+    private void accept() {
+        long backoff = 0;
+        while (running) {
+            final Socket socket;
+            try {
+                socket = server.accept();
+            } catch (IOException e) {
+                if (!running || server.isClosed()) return;
+                if (backoff == 0) System.err.println("viewer server: " + e.getMessage());
+                backoff = Math.min(Math.max(2 * backoff, MIN_BACKOFF), MAX_BACKOFF);
+                try {
+                    Thread.sleep(backoff);
+                } catch (InterruptedException ie) {
+                    return;
+                }
+                continue;
+            }
+            backoff = 0;
+            if (!connections.tryAcquire()) {
+                refuse(socket);
+                continue;
+            }
+            try {
+                executor.execute(new Runnable() {
+                    public void run() {
+                        try {
+                            serve(socket);
+                        } finally {
+                            connections.release();
+                        }
+                    }
+                });
+            } catch (RejectedExecutionException e) {
+                // Fechado entre o accept e aqui
+                connections.release();
+                try { socket.close(); } catch (IOException ie) { /* Ignore */ }
+                return;
+            }
+        }
+    }
+
+    // Resposta curta, que cabe no buffer do socket e nao bloqueia a thread
+    // que aceita conexoes
+    private static void refuse(Socket socket) {
+        try {
+            respond(socket.getOutputStream(), "503 Service Unavailable", "text/plain", "too many connections\n");
+        } catch (IOException e) {
+            // Cliente desistiu
+        }
+        try { socket.close(); } catch (IOException e) { /* Ignore */ }
+    }
+
+    // Atende uma requisicao HTTP; um WebSocket segue na mesma tarefa lendo
+    // as mensagens do cliente
+    private void serve(Socket socket) {
+        try {
+            socket.setTcpNoDelay(true);
+            socket.setSoTimeout(HANDSHAKE_TIMEOUT);
+            InputStream in = new BufferedInputStream(socket.getInputStream());
+            OutputStream out = new BufferedOutputStream(socket.getOutputStream());
+            String request = readLine(in);
+            Map<String, String> headers = new HashMap<String, String>();
+            for (String line = readLine(in); !line.isEmpty(); line = readLine(in)) {
+                if (headers.size() == MAX_HEADERS) throw new IOException("too many headers");
+                int colon = line.indexOf(':');
+                if (colon > 0) headers.put(line.substring(0, colon).trim().toLowerCase(), line.substring(colon + 1).trim());
+            }
+            String[] parts = request.split(" ");
+            String path = parts.length == 3 ? parts[1] : "";
+            if (!parts[0].equals("GET")) respond(out, "405 Method Not Allowed", "text/plain", "GET only\n");
+            else if (path.equals("/")) respond(out, "200 OK", "text/html; charset=utf-8", PAGE);
+            else if (path.equals("/lake") && !allowed(headers)) {
+                respond(out, "403 Forbidden", "text/plain", "forbidden\n");
+            } else if (path.equals("/lake") && "websocket".equalsIgnoreCase(headers.get("upgrade")) &&
+                headers.containsKey("sec-websocket-key")) {
+                String accept = accept(headers.get("sec-websocket-key"));
+                out.write(("HTTP/1.1 101 Switching Protocols\r\nUpgrade: websocket\r\nConnection: Upgrade\r\n" +
+                    "Sec-WebSocket-Accept: " + accept + "\r\n\r\n").getBytes(StandardCharsets.US_ASCII));
+                out.flush();
+                // Depois do handshake o cliente pode ficar calado
+                socket.setSoTimeout(0);
+                final ViewerClient client = new ViewerClient(this, lake, frames, socket, in, out);
+                clients.add(client);
+                executor.execute(new Runnable() {
+                    public void run() { client.send(); }
+                });
+                client.receive();
+                return;
+            } else respond(out, "404 Not Found", "text/plain", "not found\n");
+        } catch (IOException e) {
+            // Cliente desistiu
+        }
+        try { socket.close(); } catch (IOException e) { /* Ignore */ }
+    }
+
+    // Um navegador sempre manda Origin no WebSocket; so a pagina servida por
+    // este mesmo Host passa. Sem Origin e um cliente fora do navegador. No
+    // loopback o Host tambem deve ser local, senao um nome do atacante que
+    // resolve para 127.0.0.1 teria Origin igual ao Host
+    private boolean allowed(Map<String, String> headers) {
+        String host = headers.get("host");
+        if (host == null) return false;
+        if (server.getInetAddress().isLoopbackAddress() && !isLocal(host)) return false;
+        String origin = headers.get("origin");
+        return origin == null || origin.equalsIgnoreCase("http://" + host) || origin.equalsIgnoreCase("https://" + host);
+    }
+
+    // Host de loopback escrito literalmente, com ou sem porta
+    private static boolean isLocal(String host) {
+        String name;
+        if (host.startsWith("[")) name = host.substring(1, Math.max(1, host.indexOf(']')));
+        else name = host.lastIndexOf(':') >= 0 ? host.substring(0, host.lastIndexOf(':')) : host;
+        return name.equalsIgnoreCase("localhost") || name.equals("::1") ||
+            name.matches("127\\.[0-9]{1,3}\\.[0-9]{1,3}\\.[0-9]{1,3}");
+    }
+
+    private static void respond(OutputStream out, String status, String type, String body) throws IOException {
+        byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+        out.write(("HTTP/1.1 " + status + "\r\nContent-Type: " + type + "\r\nContent-Length: " + bytes.length +
+            "\r\nConnection: close\r\n\r\n").getBytes(StandardCharsets.US_ASCII));
+        out.write(bytes);
+        out.flush();
+    }
+
+    private static String accept(String key) {
+        try {
+            MessageDigest sha1 = MessageDigest.getInstance("SHA-1");
+            byte[] digest = sha1.digest((key + WEBSOCKET_GUID).getBytes(StandardCharsets.US_ASCII));
+            return Base64.getEncoder().encodeToString(digest);
+        } catch (NoSuchAlgorithmException e) {
+            throw new ServerException("SHA-1 not available", e);
+        }
+    }
+
+    // Linha ASCII terminada em CRLF, limitada para nao crescer sem fim
+    private static String readLine(InputStream in) throws IOException {
+        StringBuilder line = new StringBuilder();
+        for (int c = in.read(); c != '\n'; c = in.read()) {
+            if (c < 0) throw new IOException("connection closed");
+            if (line.length() == 8192) throw new IOException("line too long");
+            if (c != '\r') line.append((char) c);
+        }
+        return line.toString();
+    }
+
+    // Visualizador: arrastar move a visao, a roda muda a escala, clicar num
+    // barco o seleciona e clicar de novo o aponta para o ponto clicado
+    private static final String PAGE =
+        "<!DOCTYPE html>\n<html><head><meta charset=\"utf-8\"><title>Lago</title>\n" +
+        "<style>body{margin:0;overflow:hidden;background:#1e3c64;font:12px sans-serif;color:#fff}" +
+        "#s{position:fixed;left:8px;bottom:6px}</style></head>\n" +
+        "<body><canvas id=\"c\"></canvas><div id=\"s\"></div><script>\n" +
+        "var c=document.getElementById('c'),g=c.getContext('2d'),s=document.getElementById('s');\n" +
+        "var boats=new Map(),cx=0,cy=0,scale=1,selected=-1,drag=null,info='';\n" +
+        "var ws=new WebSocket((location.protocol=='https:'?'wss://':'ws://')+location.host+'/lake');\n" +
+        "ws.binaryType='arraybuffer';\n" +
+        "function view(){c.width=innerWidth;c.height=innerHeight;" +
+        "if(ws.readyState==1)ws.send('view '+cx+' '+cy+' '+scale+' '+c.width+' '+c.height);}\n" +
+        "function lake(x,y){return [cx+(x-c.width/2)/scale,cy-(y-c.height/2)/scale];}\n" +
+        "ws.onopen=view;\n" +
+        "ws.onmessage=function(e){\n" +
+        " if(typeof e.data=='string'){if(e.data[0]=='{'){var h=JSON.parse(e.data);" +
+        "scale=Math.min(innerWidth/h.width,innerHeight/h.height);view();}else console.log(e.data);return;}\n" +
+        " var d=new DataView(e.data),p=1,t=d.getFloat64(p);p+=8;var n=d.getInt32(p),m=d.getInt32(p+4)," +
+        "st=d.getInt32(p+8),su=d.getInt32(p+12),k=d.getInt32(p+16);p+=20;\n" +
+        " for(var i=0;i<k;i++){var r=d.getInt32(p),code=d.getInt8(p+4);p+=5;" +
+        "if(code==0x7f){boats.delete(r);continue;}var b=boats.get(r)||{};b.s=code&3;b.x=d.getFloat32(p);" +
+        "b.y=d.getFloat32(p+4);p+=8;if(code&0x80){b.r=d.getFloat32(p);p+=4;}boats.set(r,b);}\n" +
+        " info='Time: '+t.toFixed(1)+'   Boats: '+n+'   moving '+m+' stuck '+st+' sunk '+su;};\n" +
+        "function draw(){g.fillStyle='#1e3c64';g.fillRect(0,0,c.width,c.height);" +
+        "var colors=['#fff','#aaa','#555'];boats.forEach(function(b,r){" +
+        "g.fillStyle=r==selected?'#f80':colors[b.s];g.beginPath();" +
+        "g.arc(c.width/2+(b.x-cx)*scale,c.height/2-(b.y-cy)*scale,Math.max(1,b.r*scale),0,7);g.fill();});" +
+        "s.textContent=info;requestAnimationFrame(draw);}\n" +
+        "c.onmousedown=function(e){drag=[e.clientX,e.clientY,cx,cy,false];};\n" +
+        "c.onmousemove=function(e){if(!drag)return;var dx=e.clientX-drag[0],dy=e.clientY-drag[1];" +
+        "if(Math.abs(dx)+Math.abs(dy)>3)drag[4]=true;if(drag[4]){cx=drag[2]-dx/scale;cy=drag[3]+dy/scale;view();}};\n" +
+        "c.onmouseup=function(e){var moved=drag&&drag[4];drag=null;if(moved)return;var p=lake(e.clientX,e.clientY),hit=-1;" +
+        "boats.forEach(function(b,r){if(b.s==0&&Math.hypot(b.x-p[0],b.y-p[1])<b.r+5/scale)hit=r;});" +
+        "if(hit>=0){selected=hit;return;}if(selected>=0&&boats.has(selected)){var b=boats.get(selected);" +
+        "ws.send('turn '+selected+' '+Math.atan2(p[1]-b.y,p[0]-b.x)*180/Math.PI);}};\n" +
+        "c.onwheel=function(e){e.preventDefault();scale*=e.deltaY<0?1.25:0.8;view();};\n" +
+        "onresize=view;view();draw();\n" +
+        "</script></body></html>\n";
+
+}
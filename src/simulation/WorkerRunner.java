@@ -0,0 +1,40 @@
+package simulation;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+
+import base.Lake;
+import base.LakeSource;
+import base.PartitionWorker;
+
+/**
+ * Processo worker de um PartitionedLake. Escuta na porta dada, ou numa porta
+ * livre com 0, imprime uma linha port=N e atende uma unica conexao do
+ * coordenador. Os lagos pedidos pelo coordenador sao criados como no
+ * PartitionedRunner.
+ * Uso: WorkerRunner [porta] [endereco]
+ */
+public class WorkerRunner {
+
+    public static void main(String[] args) throws IOException {
+        int port = args.length > 0 ? Integer.parseInt(args[0]) : 0;
+        InetAddress address = args.length > 1 ? InetAddress.getByName(args[1]) : InetAddress.getLoopbackAddress();
+        Socket socket;
+        ServerSocket server = new ServerSocket(port, 1, address);
+        try {
+            System.out.println("port=" + server.getLocalPort());
+            System.out.flush();
+            socket = server.accept();
+        } finally {
+            server.close();
+        }
+        new PartitionWorker(socket, new LakeSource() {
+            public Lake create(String description) throws IOException {
+                return PartitionedRunner.createLake(description);
+            }
+        }).serve();
+    }
+
+}
@@ -0,0 +1,80 @@
+package utils;
+
+import java.util.Arrays;
+
+/**
+ * Histograma de valores inteiros nao negativos no estilo do HdrHistogram: os
+ * valores sao agrupados em faixas potencia de 2, cada uma dividida em 64
+ * partes, entao o erro relativo de um percentil fica abaixo de 1/64 para
+ * qualquer valor. Gravar um valor e so um incremento num array fixo.
+ */
+public class Histogram {
+    // Bits de precisao dentro de cada faixa
+    private static final int PRECISION = 6;
+    private static final int HALF = 1 << PRECISION;
+    private static final int BUCKETS = (64 - PRECISION) * HALF + HALF;
+
+    private final long[] counts;
+    private long count;
+    private long sum;
+    private long max;
+
+    public Histogram() {
+        counts = new long[BUCKETS];
+    }
+
+    public void record(long value) {
+        if (value < 0) throw new IllegalArgumentException("value must be >= 0");
+        counts[index(value)]++;
+        count++;
+        sum += value;
+        if (value > max) max = value;
+    }
+
+    public void add(Histogram other) {
+        for (int i = 0; i < BUCKETS; i++) counts[i] += other.counts[i];
+        count += other.count;
+        sum += other.sum;
+        max = Math.max(max, other.max);
+    }
+
+    public void reset() {
+        Arrays.fill(counts, 0);
+        count = sum = max = 0;
+    }
+
+    public long getCount() { return count; }
+    public long getMax() { return max; }
+    public double getMean() { return count == 0 ? 0 : (double) sum / count; }
+
+    /**
+     * Menor valor que nao e superado por percentile % dos valores gravados,
+     * arredondado para o fim da sua faixa
+     * @param percentile entre 0 e 100
+     */
+    public long getPercentile(double percentile) {
+        if (count == 0) return 0;
+        long rank = Math.max(1, (long) Math.ceil(percentile / 100 * count));
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += counts[i];
+            if (seen >= rank) return Math.min(highest(i), max);
+        }
+        return max;
+    }
+
+    // Valores ate 2 * HALF tem indice proprio; acima disso a faixa e dada pelo
+    // bit mais alto e a parte pelos PRECISION bits seguintes
+    private static int index(long value) {
+        int shift = Math.max(0, 63 - Long.numberOfLeadingZeros(value) - PRECISION);
+        return shift * HALF + (int) (value >>> shift);
+    }
+
+    private static long highest(int index) {
+        int shift = Math.max(0, index / HALF - 1);
+        long part = index - shift * HALF;
+        long high = ((part + 1) << shift) - 1;
+        return high < 0 ? Long.MAX_VALUE : high;
+    }
+
+}
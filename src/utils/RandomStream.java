@@ -0,0 +1,103 @@
+package utils;
+
+import java.util.SplittableRandom;
+
+/**
+ * Sequencia de numeros aleatorios reproduzivel a partir de uma semente, sobre
+ * um SplittableRandom. Nao e thread-safe: cada thread ou lago usa a sua, e
+ * split cria sequencias independentes sem contencao entre elas.
+ */
+public final class RandomStream {
+    private final SplittableRandom random;
+    // O metodo polar gera as normais aos pares
+    private double spare;
+    private boolean hasSpare;
+
+    public RandomStream(long seed) {
+        this(new SplittableRandom(seed));
+    }
+
+    private RandomStream(SplittableRandom random) {
+        this.random = random;
+        this.hasSpare = false;
+    }
+
+    /**
+     * Nova sequencia independente desta, determinada pelo estado atual
+     */
+    public RandomStream split() {
+        return new RandomStream(random.split());
+    }
+
+    public double random(double a, double b) {
+        return a + random.nextDouble() * (b - a);
+    }
+
+    public double normal(double mean, double sd) {
+        if (hasSpare) {
+            hasSpare = false;
+            return mean + spare * sd;
+        }
+        double u, v, s;
+        do {
+            u = 2 * random.nextDouble() - 1;
+            v = 2 * random.nextDouble() - 1;
+            s = u * u + v * v;
+        } while (s >= 1 || s == 0);
+        double factor = Math.sqrt(-2 * Math.log(s) / s);
+        spare = v * factor;
+        hasSpare = true;
+        return mean + u * factor * sd;
+    }
+
+    /**
+     * Normal truncada em [min, max], amostrada pela inversa da distribuicao
+     * acumulada, sem rejeitar valores
+     */
+    public double truncatedNormal(double mean, double sd, double min, double max) {
+        double low = cdf((min - mean) / sd);
+        double high = cdf((max - mean) / sd);
+        double x = mean + sd * quantile(random(low, high));
+        return Math.max(min, Math.min(max, x));
+    }
+
+    public int nextInt(int bound) {
+        return random.nextInt(bound);
+    }
+
+    public long nextLong() {
+        return random.nextLong();
+    }
+
+    // Distribuicao acumulada da normal padrao, erro relativo < 1.2e-7
+    private static double cdf(double x) {
+        double z = Math.abs(x) / Math.sqrt(2);
+        double t = 1 / (1 + 0.5 * z);
+        double erfc = t * Math.exp(-z * z - 1.26551223 + t * (1.00002368 + t * (0.37409196 +
+            t * (0.09678418 + t * (-0.18628806 + t * (0.27886807 + t * (-1.13520398 +
+            t * (1.48851587 + t * (-0.82215223 + t * 0.17087277)))))))));
+        return x >= 0 ? 1 - erfc / 2 : erfc / 2;
+    }
+
+    // Inversa da distribuicao acumulada da normal padrao (aproximacao de Acklam)
+    private static double quantile(double p) {
+        if (p <= 0) return Double.NEGATIVE_INFINITY;
+        if (p >= 1) return Double.POSITIVE_INFINITY;
+        if (p < 0.02425) return tail(Math.sqrt(-2 * Math.log(p)));
+        if (p > 1 - 0.02425) return -tail(Math.sqrt(-2 * Math.log(1 - p)));
+        double q = p - 0.5;
+        double r = q * q;
+        return (((((-3.969683028665376e+01 * r + 2.209460984245205e+02) * r - 2.759285104469687e+02) * r +
+            1.383577518672690e+02) * r - 3.066479806614716e+01) * r + 2.506628277459239e+00) * q /
+            (((((-5.447609879822406e+01 * r + 1.615858368580409e+02) * r - 1.556989798598866e+02) * r +
+            6.680131188771972e+01) * r - 1.328068155288572e+01) * r + 1);
+    }
+
+    private static double tail(double q) {
+        return (((((-7.784894002430293e-03 * q - 3.223964580411365e-01) * q - 2.400758277161838e+00) * q -
+            2.549732539343734e+00) * q + 4.374664141464968e+00) * q + 2.938163982698783e+00) /
+            ((((7.784695709041462e-03 * q + 3.224671290700398e-01) * q + 2.445134137142996e+00) * q +
+            3.754408661907416e+00) * q + 1);
+    }
+
+}
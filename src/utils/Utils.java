@@ -1,9 +1,12 @@
 package utils;
 
-import java.util.Random;
-
 public class Utils {
-    private static final Random random = new Random();
+    // Cada thread tem a sua sequencia, sem disputar uma semente compartilhada
+    private static final ThreadLocal<RandomStream> streams = new ThreadLocal<RandomStream>() {
+        protected RandomStream initialValue() {
+            return new RandomStream(System.nanoTime() ^ Thread.currentThread().getId() * 0x9e3779b97f4a7c15L);
+        }
+    };
 
     // Suppress default constructor for noninstantiability
     private Utils() {
@@ -19,12 +22,22 @@ public class Utils {
         return String.valueOf(round(number, digits));
     }
     
+    // Permite repetir a mesma sequencia de numeros aleatorios nesta thread
+    public static void seed(long seed) {
+        streams.set(new RandomStream(seed));
+    }
+    
+    // Sequencia de numeros aleatorios da thread atual
+    public static RandomStream stream() {
+        return streams.get();
+    }
+    
     public static double random(double a, double b) {
-        return a + random.nextDouble() * (b - a);
+        return stream().random(a, b);
     }
     
     public static double normal(double mean, double sd) {
-        return mean + random.nextGaussian() * sd;
+        return stream().normal(mean, sd);
     }
     
     public static String timeFormat(double seconds) {